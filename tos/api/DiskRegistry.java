@@ -0,0 +1,238 @@
+//
+//
+// DiskRegistry
+//
+//
+package tos.api;
+
+import java.rmi.*;
+import java.rmi.server.*;
+import java.util.*;
+import tos.system.*;
+
+/** Process-wide cache of what a filename server knows about disks.
+ * <p>Opening a file used to take three remote calls before any work on
+ * the file itself: the filename server was asked where the file is and
+ * for the stub of its disk, and the disk for its block size.  The
+ * registry keeps a copy of the mount table, the disk stubs and their 
+ * block sizes, and resolves names locally.
+ * <p>The registry listens to the filename server, which tells it 
+ * whenever a disk is mounted, unmounted or added; it then forgets 
+ * everything it has cached.  Every notice carries the version of the 
+ * server's tables, so a notice about a change the registry has already
+ * seen is ignored.  If the server cannot call the registry back, the 
+ * registry instead long-polls the server for changes with 
+ * <code>waitForChange</code> from a thread of its own.  If neither works
+ * it caches nothing and passes every call on.
+ * <p>There is one registry for each filename server used in the 
+ * process, obtained with <code>forServer</code>.
+ */
+
+public class DiskRegistry implements TOSMountListener, Runnable
+{
+	/** Registries of this process, keyed by filename server stub. */
+	protected static Hashtable registries = new Hashtable();
+	
+	/** Filename server whose information is cached. */
+	protected TOSFileNameServer nameserver;
+	
+	/** Index of the mount table, or <code>null</code> if not loaded. */
+	protected MountTrie mounts;
+	
+	/** Remote stubs of disks, keyed by disk name. */
+	protected Hashtable disks = new Hashtable();
+	
+	/** Block sizes of disks, as <code>Integer</code>s keyed by disk name. */
+	protected Hashtable blocksizes = new Hashtable();
+	
+	/** Latest version of the server's tables this registry knows of.
+	 * Anything fetched while it changes is not kept. */
+	protected long version = 0;
+	
+	/** Set to <code>true</code> if the registry learns of changes, by 
+	 * notice or by polling. */
+	protected boolean isListening = false;
+	
+	/** Longest time a poll waits for a change, in milliseconds. */
+	static long POLL_TIMEOUT = 60000;
+	
+	/** Returns the registry for a filename server, creating it if this 
+	 * process has not used the server before.
+	 * @param nameserver Filename server.
+	 * @return the registry.
+	 */
+	public static DiskRegistry forServer(TOSFileNameServer nameserver)
+	{
+		synchronized (registries) {
+			DiskRegistry registry = (DiskRegistry)registries.get(nameserver);
+			if (registry==null)
+			{
+				registry = new DiskRegistry(nameserver);
+				registries.put(nameserver,registry);
+			}
+			return registry;
+		}
+	}
+	
+	/** Constructor.  Exports the registry and registers it with the
+	 * filename server, or starts polling the server if that fails.
+	 * @param nameserver Filename server.
+	 */
+	DiskRegistry(TOSFileNameServer nameserver)
+	{
+		this.nameserver = nameserver;
+		try {
+			TOSMountListener stub = 
+				(TOSMountListener)UnicastRemoteObject.exportObject(this);
+			version = nameserver.addMountListener(stub);
+			isListening = true;
+			return;
+		} catch (RemoteException e) {
+			// fall back on polling
+		}
+		try {
+			version = nameserver.getMountVersion();
+			isListening = true;
+			Thread poller = new Thread(this);
+			poller.setDaemon(true);
+			poller.start();
+		} catch (RemoteException e) {
+			// no notices, so nothing can be cached
+		}
+	}
+	
+	/** Forgets all cached information if the version is newer than any
+	 * seen so far.  Called by the filename server.
+	 * @param newversion Version of the server's tables.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	public synchronized void mountChanged(long newversion) 
+		throws RemoteException
+	{
+		if (newversion<=version)
+			return;
+		version = newversion;
+		mounts = null;
+		disks.clear();
+		blocksizes.clear();
+	}
+	
+	/** Polls the filename server for changes, for registries that cannot
+	 * be called back.  Should the server not be reached, the registry 
+	 * stops caching.
+	 */
+	public void run()
+	{
+		while (true)
+		{
+			try {
+				mountChanged(nameserver.waitForChange(getVersion(),
+													  POLL_TIMEOUT));
+			} catch (RemoteException e) {
+				synchronized (this) {
+					isListening = false;
+					mounts = null;
+					disks.clear();
+					blocksizes.clear();
+				}
+				return;
+			}
+		}
+	}
+	
+	/** Returns the latest version of the filename server's tables that
+	 * this registry knows of.
+	 * @return the version.
+	 */
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+	
+	/** Returns the location-dependent name of a file.
+	 * @param name Location-independent file name.
+	 * @return the name as <i>disk:path</i>.
+	 * @exception RemoteException if there has been an RMI error.
+	 * @exception NoDiskException if there is no disk with a mountpoint in 
+	 *                            the file's path.
+	 * @see tos.system.TOSFileNameServer#resolveFileName
+	 */
+	public String resolveFileName(String name) 
+		throws RemoteException, NoDiskException
+	{
+		if (!isListening)
+			return nameserver.resolveFileName(name);
+		MountTrie trie;
+		synchronized (this) {
+			trie = mounts;
+		}
+		if (trie==null)
+		{
+			MountSnapshot snapshot = nameserver.getMountSnapshot();
+			trie = new MountTrie(snapshot.mounts);
+			synchronized (this) {
+				if (snapshot.version>=version)
+				{
+					version = snapshot.version;
+					mounts = trie;
+				}
+			}
+		}
+		return trie.resolve(name);
+	}
+	
+	/** Returns the remote stub of a disk.
+	 * @param diskname Name of the disk.
+	 * @return the stub, or <code>null</code> if the disk is unknown.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	public TOSDisk getDisk(String diskname) throws RemoteException
+	{
+		TOSDisk disk = (TOSDisk)disks.get(diskname);
+		if (disk==null)
+		{
+			long seen = getVersion();
+			disk = nameserver.getDisk(diskname);
+			if (disk!=null)
+				cache(disks,diskname,disk,seen);
+		}
+		return disk;
+	}
+	
+	/** Returns the block size of a disk.
+	 * @param diskname Name of the disk.
+	 * @return the size of the disk's data blocks.
+	 * @exception RemoteException if there has been an RMI error.
+	 * @exception NoDiskException if the disk is unknown.
+	 */
+	public int getBlockSize(String diskname) 
+		throws RemoteException, NoDiskException
+	{
+		Integer size = (Integer)blocksizes.get(diskname);
+		if (size==null)
+		{
+			long seen = getVersion();
+			TOSDisk disk = getDisk(diskname);
+			if (disk==null)
+				throw new NoDiskException();
+			size = new Integer(disk.getBlockSize());
+			cache(blocksizes,diskname,size,seen);
+		}
+		return size.intValue();
+	}
+	
+	/** Stores a value in one of the caches, unless the registry is not
+	 * learning of changes or there has been one since the value was 
+	 * fetched.
+	 * @param table Cache.
+	 * @param key Key.
+	 * @param value Value.
+	 * @param seen Version when the value was fetched.
+	 */
+	synchronized void cache(Hashtable table, Object key, Object value, 
+							long seen)
+	{
+		if (isListening && version==seen)
+			table.put(key,value);
+	}
+}
@@ -2,6 +2,7 @@ package tos.api;
 
 import java.rmi.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import tos.system.*;
 
 /** 
@@ -28,6 +29,12 @@ import tos.system.*;
  * enables a superuser to call Release on the thread owning the mutex or
  * to remove it from the system completely.
  * 
+ * A mutex taken while no thread of another process is waiting for it is
+ * leased to the process.  The process then keeps the mutex when it is 
+ * released, and its threads can take it again without calling the sync
+ * server, until a thread of another process waits for it and the server
+ * asks for it back.
+ * 
  * Mutexes can be passed freely to any object. Applications should make sure that every thread
  * that calls Wait() also calls Release().
  * 
@@ -39,6 +46,10 @@ import tos.system.*;
 
 public class Mutex extends SyncObject
 {
+	/** The process's lease on the mutex, or <code>null</code> if the 
+	 * mutex does not belong to this process's listener. */
+	protected transient MutexLease lease;
+	
 	/** Creates the mutex on a sync server.
 	 * @param name Name of mutex.
 	 * @param liststub Remote stub of listener thread.
@@ -56,6 +67,112 @@ public class Mutex extends SyncObject
 		}
 		type = SyncServer.MUTEX;
 		addRef();
+		Listener listener = Listener.local(liststub);
+		if (listener!=null)
+			lease = listener.getLease(name,server);
+	}
+	
+	/** Waits on the mutex for at most the given time.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread owns the mutex, 
+	 *         <code>false</code> if the time ran out first.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean Wait(long timeout) throws SyncException
+	{
+		return timedWait(timeout);
+	}
+	
+	/** Waits on the mutex for at most the given time, in any unit.  The 
+	 * wait is measured to the millisecond, so a shorter timeout is 
+	 * rounded down.
+	 * @param timeout Longest time to wait, 0 not to wait, or negative to
+	 *                wait for as long as it takes.
+	 * @param unit Unit of <code>timeout</code>.
+	 * @return <code>true</code> if the thread owns the mutex, 
+	 *         <code>false</code> if the time ran out first.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean Wait(long timeout, TimeUnit unit) throws SyncException
+	{
+		return timedWait(timeout<0 ? -1 : unit.toMillis(timeout));
+	}
+	
+	/** Takes the mutex if no other thread holds it, without waiting.
+	 * @return <code>true</code> if the thread owns the mutex.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean tryWait() throws SyncException
+	{
+		return timedWait(0);
+	}
+	
+	/** Takes the mutex under the process's lease if it holds one, 
+	 * otherwise asks the server for the mutex and accepts a lease.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread may proceed.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	protected boolean obtain(long timeout) throws SyncException
+	{
+		if (lease==null)
+			return super.obtain(timeout);
+		long deadline = System.currentTimeMillis() + timeout;
+		int state = lease.lock(timeout);
+		if (state!=MutexLease.ACQUIRING)
+			return state==MutexLease.LOCKED;
+		String threadname = Thread.currentThread().getName();
+		int status;
+		try {
+			do {
+				status = server.acquireLease(name,type,liststub,threadname,
+											 procid,nextWait(timeout,deadline));
+			} while (status==TOSSyncServer.DENIED && 
+					 (timeout<0 || System.currentTimeMillis()<deadline));
+		} catch (RemoteException e) {
+			lease.failed();
+			throw new SyncException("Unable to contact sync server");
+		} catch (SyncException e) {
+			lease.failed();
+			throw e;
+		}
+		if (status==TOSSyncServer.DENIED)
+		{
+			lease.failed();
+			return false;
+		}
+		lease.acquired(status==TOSSyncServer.LEASED);
+		return true;
+	}
+	
+	/** Keeps the mutex under the process's lease if it holds one that has
+	 * not been revoked, otherwise hands it back to the server.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	protected void relinquish() throws SyncException
+	{
+		if (lease==null || !lease.unlock())
+			super.relinquish();
+	}
+	
+	/** Gives the process's lease back before the reference is removed, so
+	 * that the server does not count the mutex as held by a process that 
+	 * no longer uses it.
+	 * @exception SyncException if the call to the server fails.
+	 */
+	public void discard() throws SyncException
+	{
+		if (lease!=null)
+		{
+			try {
+				lease.revoke();
+			} catch (RemoteException e) {
+				throw new SyncException("Unable to contact sync server");
+			}
+		}
+		super.discard();
 	}
 	
 	/** Releases the semaphore before the object goes out of scope.
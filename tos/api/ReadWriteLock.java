@@ -0,0 +1,168 @@
+package tos.api;
+
+import java.rmi.*;
+import tos.system.*;
+
+/** Provides the functionality of a read-write lock.
+ * 
+ * A read-write lock guards data that is read far more often than it is 
+ * changed.  Any number of threads, in any TOS process, may hold the lock
+ * <i>shared</i> at once to read the data, but a thread that holds it 
+ * <i>exclusively</i>, to change the data, holds it alone.  Threads that
+ * only read therefore do not wait for each other, as they would with a 
+ * mutex.
+ * 
+ * A thread calls <code>WaitShared()</code> or <code>WaitExclusive()</code>
+ * to take the lock, and <code>Release()</code> to give it back, whichever
+ * way it took it.  <code>Wait()</code> takes the lock exclusively.  Each 
+ * way of waiting may also be given a timeout, or tried without waiting.
+ * 
+ * The lock's creator decides whether it prefers writers.  If it does, 
+ * threads asking to read wait while any thread is waiting to write, so 
+ * that writers are not kept out by a steady stream of readers.  If it 
+ * does not, readers are let in whenever no writer holds the lock.  When 
+ * the lock is released to readers, all the waiting readers that may 
+ * proceed are let in together.
+ * 
+ * TOS applications cannot call the ReadWriteLock constructor directly.  
+ * The TOSProcess class provides a function, openReadWriteLock, which 
+ * subclasses use to obtain a ReadWriteLock object.
+ * 
+ * @see TOSProcess#openReadWriteLock
+ */
+
+public class ReadWriteLock extends SyncObject
+{
+	/** Opens the lock on a sync server, creating it if need be.
+	 * @param name Name of lock.
+	 * @param preferWriters <code>true</code> if waiting writers keep out
+	 *                      new readers.  Ignored if the lock exists.
+	 * @param liststub Remote stub of listener thread.
+	 * @param procid TOS identifier of process.
+	 * @param launcher RemoteStub of process' launcher.
+	 * @exception SyncException if the server cannot be reached.
+	 */
+	protected ReadWriteLock(String name, boolean preferWriters, TOSListener liststub, int procid, TOSLauncher launcher) throws SyncException
+	{
+		super(name,liststub,procid,launcher);
+		try {
+			server.createObject(name,TOSSyncServer.RWLOCK,preferWriters ? 1 : 0);
+		} catch (RemoteException e) {
+			throw new SyncException("Unable to connect to sync server.");
+		}
+		type = TOSSyncServer.RWLOCK;
+		addRef();
+	}
+	
+	/** Takes the lock shared, waiting for as long as it takes.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public void WaitShared() throws SyncException
+	{
+		WaitShared(-1);
+	}
+	
+	/** Takes the lock shared, waiting for at most the given time.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread holds the lock, 
+	 *         <code>false</code> if the time ran out first.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean WaitShared(long timeout) throws SyncException
+	{
+		check();
+		if (!obtain(timeout,false))
+			return false;
+		hold();
+		return true;
+	}
+	
+	/** Takes the lock shared if no writer holds it, without waiting.
+	 * @return <code>true</code> if the thread holds the lock.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean tryWaitShared() throws SyncException
+	{
+		return WaitShared(0);
+	}
+	
+	/** Takes the lock exclusively, waiting for as long as it takes.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public void WaitExclusive() throws SyncException
+	{
+		timedWait(-1);
+	}
+	
+	/** Takes the lock exclusively, waiting for at most the given time.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread holds the lock, 
+	 *         <code>false</code> if the time ran out first.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean WaitExclusive(long timeout) throws SyncException
+	{
+		return timedWait(timeout);
+	}
+	
+	/** Takes the lock exclusively if no one holds it, without waiting.
+	 * @return <code>true</code> if the thread holds the lock.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean tryWaitExclusive() throws SyncException
+	{
+		return timedWait(0);
+	}
+	
+	/** Takes the lock exclusively.  Called when the lock is taken with 
+	 * <code>Wait</code>.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread may proceed.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	protected boolean obtain(long timeout) throws SyncException
+	{
+		return obtain(timeout,true);
+	}
+	
+	/** Asks the server for the lock until it is granted or the time runs
+	 * out.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @param isWriter <code>true</code> to take the lock exclusively.
+	 * @return <code>true</code> if the thread may proceed.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	boolean obtain(long timeout, boolean isWriter) throws SyncException
+	{
+		String threadname = Thread.currentThread().getName();
+		long deadline = System.currentTimeMillis() + timeout;
+		try {
+			do {
+				if (server.acquireReadWrite(name,threadname,procid,isWriter,
+											nextWait(timeout,deadline)))
+					return true;
+			} while (timeout<0 || System.currentTimeMillis()<deadline);
+		} catch (RemoteException e) {
+			throw new SyncException("Unable to contact sync server");
+		}
+		return false;
+	}
+	
+	/** Releases the lock before the object goes out of scope.
+	 * This feature is added for extra safety, but application programmers
+	 * should not count on its use.  All locks should be explicitly
+	 * released.
+	 * @exception Throwable if the superclass' <code>finalize()</code> function throws an error or exception.
+	 */
+	public void finalize() throws Throwable
+	{
+		if (CanRelease)
+			Release();
+		super.finalize();
+	}
+
+}
@@ -1,6 +1,7 @@
 package tos.api;
 
 import java.rmi.*;
+import java.util.concurrent.TimeUnit;
 import tos.system.*;
 
 /** This class provides the functionality specific to Semaphore objects.
@@ -67,9 +68,7 @@ public class Semaphore extends SyncObject
 	{
 		boolean retval;
 		try {
-			synchronized (server) {
-				retval = server.createObject(name,SyncServer.SEMAPHORE,count);
-			}
+			retval = server.createObject(name,SyncServer.SEMAPHORE,count);
 		} catch (RemoteException e) {
 			throw new SyncException("Unable to connect to sync server.");
 		}
@@ -77,6 +76,42 @@ public class Semaphore extends SyncObject
 			throw new SyncException("Semaphore already exists with that name.");
 	}
 	
+	/** Waits on the semaphore for at most the given time.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread holds the semaphore, 
+	 *         <code>false</code> if the time ran out first.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean Wait(long timeout) throws SyncException
+	{
+		return timedWait(timeout);
+	}
+	
+	/** Waits on the semaphore for at most the given time, in any unit.  The 
+	 * wait is measured to the millisecond, so a shorter timeout is 
+	 * rounded down.
+	 * @param timeout Longest time to wait, 0 not to wait, or negative to
+	 *                wait for as long as it takes.
+	 * @param unit Unit of <code>timeout</code>.
+	 * @return <code>true</code> if the thread holds the semaphore, 
+	 *         <code>false</code> if the time ran out first.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean Wait(long timeout, TimeUnit unit) throws SyncException
+	{
+		return timedWait(timeout<0 ? -1 : unit.toMillis(timeout));
+	}
+	
+	/** Takes the semaphore if its count allows, without waiting.
+	 * @return <code>true</code> if the thread holds the semaphore.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public boolean tryWait() throws SyncException
+	{
+		return timedWait(0);
+	}
+	
 	/** Releases the semaphore before the object goes out of scope.
 	 * This feature is added for extra safety, but application programmers
 	 * should not count on its use.  All semaphores should be explicitly
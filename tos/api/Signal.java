@@ -67,9 +67,7 @@ public class Signal extends SyncObject
 	public void Release() throws SyncException
 	{
 		try {
-			synchronized (server) {
-				server.Release(name,type);
-			}
+			server.Release(name,type);
 		} catch (RemoteException e) {
 			throw new SyncException("Unable to contact sync server");
 		}
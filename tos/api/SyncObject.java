@@ -18,6 +18,9 @@ import tos.system.*;
  * the server when an object goes out of scope on the client side.  The
  * server will remove the object from the system tables when no client
  * has a local reference to it.
+ * 
+ * The objects make no calls to the server while holding a lock, so any
+ * number of threads may be waiting on or releasing objects at once.
  */
 
 public class SyncObject implements Serializable
@@ -31,6 +34,13 @@ public class SyncObject implements Serializable
 	/** Set to <code>true</code> if this object is owned by the application. */
 	protected boolean CanRelease = false;
 	
+	/** Number of waits on this object not yet released.  A semaphore may
+	 * be held by several threads sharing the object at once.  Changed 
+	 * together with <code>CanRelease</code> while locking the object, but
+	 * never across a call to the server, so that threads using different
+	 * objects, or the same one, do not wait for each other's calls. */
+	protected int holds = 0;
+	
 	/** Set to <code>true</code> if this object is in a state where it can be used. */
 	protected boolean usable = true;
 	
@@ -42,7 +52,7 @@ public class SyncObject implements Serializable
 	
 	/** Type of the object (mutex, semaphore, or signal) */
 	protected int type;
-
+	
 	/** Dummy constructor.
 	 * This empty constructor is provided merely to override the default constructor.
 	 */
@@ -82,45 +92,57 @@ public class SyncObject implements Serializable
 	}
 	
 	
-	/** Calls the Wait() function on the server and halts the calling thread if necessary.
-	 * The client calls the server's <code>Wait</code>function, passing to the
-	 * server information about the calling thread and the object.  The server
-	 * will return <code>true</code> if the caller is to halt.  The halt itself
-	 * is carried out by the listener thread.  
+	/** Calls the acquire() function on the server, which returns once the calling thread may proceed.
+	 * The client passes to the server information about the calling 
+	 * thread and the object.  If the thread has to wait, the server holds
+	 * the call until the thread is released, so that a contended wait 
+	 * costs a single remote call.
+	 * 
+	 * The server holds a call for a limited time, so that it can drop a
+	 * thread whose process has died instead of handing it the object; a
+	 * thread whose call returns before it is released asks again, and 
+	 * keeps its place in the queue.
 	 * 
 	 * When the thread is released it resumes execution here, and is marked
 	 * as the owner of the object.
 	 * 
-	 * @exception SyncException if either the server or the listener thread could not be contacted.
+	 * @exception SyncException if the server could not be contacted.
 	 */
 	public void Wait() throws SyncException
 	{
-		check();
-		Thread curthread = Thread.currentThread();
-		String threadname = curthread.getName();
-		boolean halt;
-		try {
-			synchronized (server) {
-				halt = server.Wait(name,type, liststub, threadname, procid);
-			}
-		} catch (RemoteException e) {
-			synchronized(System.out) {
-				 }
-			throw new SyncException("Unable to contact sync server");
-		}
-		try {
-			if (halt)	
-				liststub.suspend(curthread.getName());
-		} catch (RemoteException e) {
-			synchronized(System.out) {
-				 }
-			throw new SyncException("Unable to contact listener.");
-		}
-		CanRelease = true;
+		timedWait(-1);
 		// this will be executed whether thread had to halt or not
 
 	}
 	
+	/** Waits on the object for at most the given time.
+	 * <p>A thread whose time runs out is taken out of the server's queue
+	 * and does not own the object.  Mutexes and semaphores make this 
+	 * available as <code>Wait(long)</code> and <code>tryWait()</code>.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread owns the object, 
+	 *         <code>false</code> if the time ran out first.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	protected boolean timedWait(long timeout) throws SyncException
+	{
+		check();
+		if (!obtain(timeout))
+			return false;
+		hold();
+		return true;
+	}
+	
+	/** Marks the calling thread as an owner of the object, once it has 
+	 * been let through.
+	 */
+	protected synchronized void hold()
+	{
+		holds++;
+		CanRelease = true;
+	}
+	
 	/** Relinquishes ownership of the object.
 	 * Calls the server's <code>Release</code> function.  The server
 	 * will handle the resumption of any waiting threads.
@@ -130,17 +152,92 @@ public class SyncObject implements Serializable
 	public void Release() throws SyncException											
 	{
 		check();
-		if (!CanRelease)
-			throw new SyncException("Not current owner of object");
+		// give up the hold before the server can hand the object on to
+		// another thread sharing it
+		synchronized (this) {
+			if (holds==0)
+				throw new SyncException("Not current owner of object");
+			holds--;
+			CanRelease = holds>0;
+		}
 		try {
-			synchronized (server) {
-				server.Release(name,type);
+			relinquish();
+		} catch (SyncException e) {
+			synchronized (this) {
+				holds++;
+				CanRelease = true;
 			}
+			throw e;
+		}
+	}
+	
+	/** Returns once the calling thread may proceed or the time runs out.
+	 * Called by <code>timedWait</code>, before the thread is marked as
+	 * the owner.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread may proceed.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	protected boolean obtain(long timeout) throws SyncException
+	{
+		String threadname = Thread.currentThread().getName();
+		long deadline = System.currentTimeMillis() + timeout;
+		try {
+			do {
+				if (server.acquire(name,type,threadname,procid,
+								   nextWait(timeout,deadline)))
+					return true;
+			} while (timeout<0 || System.currentTimeMillis()<deadline);
+		} catch (RemoteException e) {
+			throw new SyncException("Unable to contact sync server");
+		}
+		return false;
+	}
+	
+	/** Returns how long the next call to the server may wait: the time 
+	 * the caller has left.  The server returns sooner if the time is long,
+	 * and keeps the caller queued for its next call.
+	 * @param timeout Longest time the caller waits in milliseconds, or 
+	 *                negative to wait for as long as it takes.
+	 * @param deadline Time the caller stops waiting, if 
+	 *                 <code>timeout</code> is not negative.
+	 * @return the time in milliseconds, 0 not to wait, or negative to 
+	 *         wait for as long as it takes.
+	 */
+	long nextWait(long timeout, long deadline)
+	{
+		if (timeout<0)
+			return timeout;
+		return Math.max(deadline - System.currentTimeMillis(),0);
+	}
+	
+	/** Returns figures on the threads waiting for the object, so that a 
+	 * caller can decide not to wait if the queue is long or slow.
+	 * @return the figures.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	public SyncStatistics getStatistics() throws SyncException
+	{
+		check();
+		try {
+			return server.getStatistics(name,type);
+		} catch (RemoteException e) {
+			throw new SyncException("Unable to contact sync server");
+		}
+	}
+	
+	/** Hands the object back to the server.  Called by 
+	 * <code>Release</code>, after the thread has given up ownership.
+	 * @exception SyncException if the server could not be contacted.
+	 */
+	protected void relinquish() throws SyncException
+	{
+		try {
+			server.Release(name,type);
 		} catch (RemoteException e) {
-			
 			throw new SyncException("Unable to contact sync server");
 		}
-		CanRelease = false;
 	}
 	
 	/** Informs the server of another local reference.
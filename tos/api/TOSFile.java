@@ -43,9 +43,13 @@ public class TOSFile
 	/** Contents of the current block. */
 	protected byte[] curblock; 
 	
-	/** Size of blocks in this disk. */
+	/** Size of blocks in this file. */
 	protected int blocksize; 
 	
+	/** Expected size of the file, passed to the disk if the file has to
+	 * be created, or 0 if unknown. */
+	protected long sizehint = 0;
+	
 	/**  Number of the current data block. */
 	protected int blocknum;
 	
@@ -67,12 +71,32 @@ public class TOSFile
 	/** Filename server to which object is connected.	 */
 	protected TOSFileNameServer nameserver;
 	
+	/** Cache of the filename server's mounts and disks. */
+	protected DiskRegistry registry;
+	
 	/** Set to <code>true</code> if the file is open. */
 	protected boolean isOpen = false;
 	
+	/** Set to <code>true</code> while the file is pinned on its disk. */
+	protected boolean isPinned = false;
+	
 	/** Mode under which the file is open. */
 	protected String mode = "";
 
+	/** Number of blocks leased from the disk at a time when writing. */
+	static int LEASE_BLOCKS = 32;
+	
+	/** Blocks leased from the disk for writing, or <code>null</code>. */
+	protected int[] lease;
+	
+	/** Index in <code>lease</code> of the next block to use. */
+	protected int leasenext;
+	
+	/** Set to <code>true</code> while the file's contents are as its disk
+	 * last wrote them, as after <code>copyFile</code>, so that closing it
+	 * has nothing to commit. */
+	protected boolean isCommitted = false;
+
 	/** Constructor.
 	 * <p>The constructor merely obtains a stub to a filename server.
 	 * @param launcher Launcher from which to obtain the stub.
@@ -81,12 +105,23 @@ public class TOSFile
 	public TOSFile(TOSLauncher launcher) throws RemoteException
 	{
 		nameserver = launcher.getFileNameServer();
+		registry = DiskRegistry.forServer(nameserver);
+	}
+	
+	/** Constructor used for files opened on behalf of another 
+	 * <code>TOSFile</code> object.
+	 * @param nameserver Filename server to use.
+	 */
+	TOSFile(TOSFileNameServer nameserver)
+	{
+		this.nameserver = nameserver;
+		registry = DiskRegistry.forServer(nameserver);
 	}
 
 	/** Creates a new directory.
 	 * <p>A new, empty directory is created with the absolute name passed in.
-	 * The directory is created by using the <code>open()</code> function to 
-	 * create a file which is then marked as a directory and closed.  Any 
+	 * The directory is created by opening it in "md" mode, which has the 
+	 * disk create it already marked as a directory, and closing it.  Any 
 	 * exceptions thrown are from the <code>open</code> and <code>close</code>
 	 * methods.
 	 * @param name Absolute name of the new directory.
@@ -98,16 +133,15 @@ public class TOSFile
 										  InvalidModeException, 
 										  TOSFileException
 	{
-		open(name,"w","");
-		inode.isDirectory = true;
+		open(name,"md","");
 		close();
 	}
 	
 	/** Returns the path of the file name on the disk itself, and sets the
 	 * size of the <code>curblock</code> array.
-	 * <p>The functon obtains the file location and path from the filename
-	 * server, then contacts the disk to determine the size of its data 
-	 * blocks.  The disk prefix is stripped from the name returned, which 
+	 * <p>The functon obtains the file location, path and the size of the
+	 * disk's data blocks from the registry, which only contacts the 
+	 * filename server and disk the first time.  The disk prefix is stripped from the name returned, which 
 	 * is solely the path on that disk, relative to the disk's root.
 	 * @param name Pathname in the global namespace.
 	 * @return Name of the file on the disk.
@@ -119,30 +153,230 @@ public class TOSFile
 		// Convert the name into the internal servername:pathname format
 		String filename;
 		try {
-			filename = nameserver.resolveFileName(name);
+			filename = registry.resolveFileName(name);
 		} catch (Exception e) {
 			throw new NotFoundException();
 		}
 		int loc = filename.indexOf(servermark);
 		String servername = filename.substring(0,loc);
 		try {
-			Disk = nameserver.getDisk(servername);
-			blocksize = Disk.getBlockSize();		
-			curblock = new byte[blocksize];
+			Disk = registry.getDisk(servername);
+			setBlockSize(registry.getBlockSize(servername));
+		} catch (Exception e) {
+			throw new NotFoundException();
+		}
+		return localPath(filename);
+	}
+	
+	/** Finds the disk holding a file without contacting the disk.
+	 * @param name Pathname in the global namespace.
+	 * @return Name of the file on the disk.
+	 * @exception NotFoundException if an error occurred when contacting the 
+	 *                              filename server.
+	 */
+	String resolve(String name) throws NotFoundException
+	{
+		try {
+			String filename = registry.resolveFileName(name);
+			Disk = registry.getDisk(filename.substring(0,filename.indexOf(servermark)));
+			return localPath(filename);
+		} catch (Exception e) {
+			throw new NotFoundException();
+		}
+	}
+	
+	/** Writes a whole file at once, creating it if it does not exist.
+	 * <p>This is the fastest way to store a small file: the disk creates
+	 * and writes the file in a single call.  <code>open</code> need not 
+	 * be called.
+	 * @param name Name of the file, in global namespace.
+	 * @param data New contents of the file.
+	 * @param password File's password, "" if it has none.
+	 * @exception NotFoundException if the file's directory could not be 
+	 *                              found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception DiskFullException if the disk is full.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception TOSFileException if another error occurs.
+	 */
+	public void putFile(String name, byte[] data, String password) 
+		throws NotFoundException, InvalidPasswordException, 
+			   DiskFullException, RemoteException, TOSFileException
+	{
+		String pathname = resolve(name);
+		try {
+			Disk.putFile(pathname,password,data);
+		} catch (RemoteException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new TOSFileException();
+		} catch (FilesFullException e) {
+			throw new TOSFileException();
+		}
+	}
+	
+	/** Reads a whole file at once.
+	 * <p>This is the fastest way to read a small file: the disk finds and
+	 * reads the file in a single call.  <code>open</code> need not be 
+	 * called.
+	 * @param name Name of the file, in global namespace.
+	 * @param password File's password, "" if it has none.
+	 * @return contents of the file.
+	 * @exception NotFoundException if the file could not be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception TOSFileException if another error occurs.
+	 */
+	public byte[] getFile(String name, String password) 
+		throws NotFoundException, InvalidPasswordException, 
+			   RemoteException, TOSFileException
+	{
+		String pathname = resolve(name);
+		try {
+			return Disk.getFile(pathname,password);
+		} catch (RemoteException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new TOSFileException();
+		}
+	}
+	
+	/** Strips the disk prefix from a resolved file name.
+	 * @param filename Name in the internal servername:pathname format.
+	 * @return the path on the disk, relative to the disk's root.
+	 */
+	static String localPath(String filename)
+	{
+		int loc = filename.indexOf(servermark);
+		return filename.substring(loc+servermark.length()
+								  +TOSFile.separator.length());
+	}
+	
+	/** Moves or renames a file.
+	 * <p>If both names resolve to the same disk, the disk is asked to 
+	 * rename the file, which changes only directory entries, and any 
+	 * failure of the rename is passed on.  Only a file moved to another 
+	 * disk is copied and the original deleted.
+	 * @param source Name of the file, in global namespace.
+	 * @param dest New name of the file, in global namespace.
+	 * @param srcpassword Password of the file, "" if it has none.
+	 * @param destpassword Password of the destination, if it exists.
+	 * @exception NotFoundException if the file could not be found.
+	 * @exception InvalidPasswordException if a password was incorrect.
+	 * @exception InvalidDirectoryException if the source's directory is
+	 *                                      corrupted.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception TOSFileException if another error occurs.
+	 */
+	public void move(String source, String dest, String srcpassword, 
+					 String destpassword) throws NotFoundException, 
+												 InvalidPasswordException,
+												 InvalidDirectoryException,
+												 RemoteException,
+												 TOSFileException
+	{
+		String srcname;
+		String destname;
+		try {
+			srcname = registry.resolveFileName(source);
+			destname = registry.resolveFileName(dest);
+		} catch (Exception e) {
+			throw new NotFoundException();
+		}
+		String srcserver = srcname.substring(0,srcname.indexOf(servermark));
+		String destserver = destname.substring(0,destname.indexOf(servermark));
+		if (srcserver.equals(destserver))
+		{
+			try {
+				Disk = registry.getDisk(srcserver);
+			} catch (Exception e) {
+				throw new NotFoundException();
+			}
+			try {
+				Disk.renameFile(localPath(srcname),localPath(destname),
+								srcpassword);
+			} catch (RemoteException e) {
+				throw e;
+			} catch (IOException e) {
+				throw new TOSFileException(e.getMessage());
+			} catch (DiskFullException e) {
+				throw new TOSFileException();
+			}
+			return;
+		}
+		TOSFile srcfile = new TOSFile(nameserver);
+		TOSFile destfile = new TOSFile(nameserver);
+		try {
+			srcfile.open(source,"r",srcpassword);
+			destfile.open(dest,"w",destpassword,srcfile.getSize());
+			srcfile.copyFile(destfile);
+			srcfile.close();
+			destfile.close();
+		} catch (InvalidModeException e) {
+			throw new TOSFileException();
+		} catch (TOSFileNotOpenException e) {
+			throw new TOSFileException();
+		} catch (DiskFullException e) {
+			throw new TOSFileException();
+		} catch (RemoteException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new TOSFileException();
+		}
+		delete(source,srcpassword);
+	}
 
+	/** Gives a file a second name.
+	 * <p>Both names must be on the same disk.  The file keeps its blocks
+	 * until every one of its names has been deleted.
+	 * @param existing Name of the file, in global namespace.
+	 * @param name New name, in global namespace.
+	 * @param password Password of the file, "" if it has none.
+	 * @exception NotFoundException if the file could not be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception TOSFileException if the names are on different disks, the
+	 *                             new name exists, or another error occurs.
+	 */
+	public void link(String existing, String name, String password) 
+		throws NotFoundException, InvalidPasswordException, 
+			   RemoteException, TOSFileException
+	{
+		String srcname;
+		String destname;
+		try {
+			srcname = registry.resolveFileName(existing);
+			destname = registry.resolveFileName(name);
 		} catch (Exception e) {
 			throw new NotFoundException();
 		}
-		String pathname = filename.substring(loc+servermark.length()
-											 +TOSFile.separator.length());
-		return pathname;
+		String srcserver = srcname.substring(0,srcname.indexOf(servermark));
+		String destserver = destname.substring(0,destname.indexOf(servermark));
+		if (!srcserver.equals(destserver))
+			throw new TOSFileException();
+		try {
+			Disk = registry.getDisk(srcserver);
+		} catch (Exception e) {
+			throw new NotFoundException();
+		}
+		try {
+			Disk.linkFile(localPath(srcname),localPath(destname),password);
+		} catch (RemoteException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new TOSFileException();
+		} catch (DiskFullException e) {
+			throw new TOSFileException();
+		}
 	}
 
 	/** Opens a file by name with the given mode and password.
 	 * <p>This function first checks to ensure that the mode passed in 
 	 * is legitimate. It then calls <code>getLocalName()</code> to translate
 	 * the file's name.  This is followed by a call to 
-	 * <code>locateFile()</code> to obtain the file's inode.  The file's 
+	 * <code>locateFile()</code> to obtain the file's inode, or in "w" and
+	 * "md" modes by a call asking the disk to create the file if it does
+	 * not exist.  The file's 
 	 * permissions are checked and exceptions are thrown if the correct 
 	 * password is not supplied when needed.  The first  index and data 
 	 * blocks are read into memory and the position variables are initialized.
@@ -161,20 +395,51 @@ public class TOSFile
 																	   InvalidPasswordException, 
 																	   InvalidModeException, 
 																	   TOSFileException
+	{
+		open(name,mode,password,0);
+	}
+	
+	/** Opens a file by name with the given mode and password, giving the
+	 * disk a hint of how large the file will be.
+	 * <p>The hint is only used if the file has to be created.  The disk
+	 * uses it to choose the block-size pool the file is placed in.
+	 * @param name Name of the file, in global namespace.
+	 * @param mode Mode of the file - must be "r", "w", or "a"
+	 * @param password File's password, set to "" if there is no password.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @exception NotFoundException if the file or the path of its parent 
+	 *                              (when creating a new file) could not 
+	 *                              be found.
+	 * @exception InvalidModeException if an invalid mode was supplied.
+	 * @exception InvalidPasswordException if the password was incorrect.
+	 * @exception TOSFileException if another error occurred.
+	 * @see #open(String,String,String)
+	 */
+	public void open(String name, String mode, String password, 
+					 long sizehint) throws NotFoundException, 
+										  InvalidPasswordException, 
+										  InvalidModeException, 
+										  TOSFileException
 	{
 		if (!mode.equals("r") && !mode.equals("w") && !mode.equals("a") 
 			&& !mode.equals("md"))
 			throw new InvalidModeException();
 		
+		unpin();
 		// get basic info
 		String pathname = getLocalName(name);
 		this.mode = new String(mode);
+		this.sizehint = sizehint;
 		try {
-			inode = locateFile(pathname);
+			if (mode.equals("w") || mode.equals("md"))
+				inode = Disk.createFile(pathname,mode.equals("md"),sizehint);
+			else
+				inode = locateFile(pathname);
 		} catch (Exception e) {
 			throw new NotFoundException();
 		}
 		this.mode = new String(mode);
+		setBlockSize(inode.blocksize);
 		
 		if (mode.equals("r"))
 			if (inode.canRead = false && !inode.Password.equals(password))
@@ -184,6 +449,23 @@ public class TOSFile
 				throw new InvalidPasswordException();
 
 		filenum = inode.Number;
+		// keep the defragmenter away from the blocks while the file is open
+		try {
+			inode = Disk.pinFile(filenum);
+			isPinned = true;
+		} catch (Exception e) {
+			throw new TOSFileException();
+		}
+		if ((mode.equals("w") || mode.equals("a")) && inode.tailblock!=0)
+		{
+			// a packed tail has to have its own block before it is written
+			try {
+				inode = Disk.unpackTail(filenum);
+			} catch (Exception e) {
+				unpin();
+				throw new TOSFileException();
+			}
+		}
 		if (mode.equals("w"))
 		{
 			pos = 0;
@@ -210,7 +492,7 @@ public class TOSFile
 			try {
 				readBlock();
 			} catch (Exception e) {
-				
+				unpin();
 				throw new TOSFileException();
 			}
 		}
@@ -218,10 +500,72 @@ public class TOSFile
 
 	}
 	
+	/** Sets the block size to that of the file's pool.  The 
+	 * <code>curblock</code> array is kept if it is already that size.
+	 * @param size Block size of the file, 0 if not known.
+	 */
+	void setBlockSize(int size)
+	{
+		if (size>0 && size!=blocksize)
+		{
+			blocksize = size;
+			curblock = new byte[blocksize];
+		}
+	}
+	
+	/** Releases the pin on the file, if it holds one.
+	 */
+	void unpin()
+	{
+		returnLease();
+		if (!isPinned)
+			return;
+		isPinned = false;
+		try {
+			Disk.unpinFile(filenum);
+		} catch (RemoteException e) {
+			// the pin goes when the disk restarts
+		}
+	}
+	
+	/** Takes the next block from the lease, leasing more from the disk
+	 * if it has run out.
+	 * @return number of the block.
+	 * @exception IOException if an I/O or RMI error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	int leasedBlock() throws IOException, DiskFullException
+	{
+		if (lease==null || leasenext==lease.length)
+		{
+			lease = Disk.leaseBlocks(iblock.blocknum,LEASE_BLOCKS);
+			leasenext = 0;
+		}
+		return lease[leasenext++];
+	}
+	
+	/** Gives the unused part of the lease back to the disk.  Should the 
+	 * disk not be reached, the blocks are free again when it restarts.
+	 */
+	void returnLease()
+	{
+		if (lease==null)
+			return;
+		int[] unused = new int[lease.length-leasenext];
+		System.arraycopy(lease,leasenext,unused,0,unused.length);
+		lease = null;
+		if (unused.length==0)
+			return;
+		try {
+			Disk.returnBlocks(unused);
+		} catch (IOException e) {
+		}
+	}
+	
 	/** Returns the size of the file.
 	 * @return The file's size.
 	 */
-	public int getSize()
+	public long getSize()
 	{
 		return inode.size;
 	}
@@ -231,29 +575,20 @@ public class TOSFile
 	 * Its presence within this class means that this work can be carried out
 	 * largely within user applications, greatly lightening the demands made
 	 * on the disks.
-	 * <p>If a file does not exist, a call to <code>createFile</code> is made
-	 * to create it.
 	 * <p>The function works by first obtaining the disk's root file, then 
 	 * calling <code>locateInDir</code> on the first directory within the
 	 * file's path name.  This sequence is repeated for each directory in the
 	 * path until the file itself is found.
-	 * <p>If the file is not found but its path does exist, the file is created.
 	 * @param pathname Name of file.
 	 * @return inode of the file, obtained from the disk.
 	 * @exception NotFoundException if the file could not be found.
-	 * @exception FilesFullException if a new file cannot be created because 
-	 *                               the maximum number already exist.
 	 * @exception RemoteException if an RMI error occurs.
 	 * @exception IOException if an I/O error occurs.
-	 * @exception DiskFullException if a new file cannot be created because
-	 *                              the disk is full.
 	 * @exception TOSFileException if another error occurs.
 	 */
 	Inode locateFile(String pathname) throws NotFoundException, 
-											 FilesFullException, 
 											 RemoteException, 
 											 IOException,
-											 DiskFullException,
 											 TOSFileException
 	{
 		int nextnum = 0;
@@ -268,6 +603,7 @@ public class TOSFile
 			} catch (Exception e) {
 				throw (new NotFoundException());
 			}
+			setBlockSize(inode.blocksize);
 			if (dirname.equals(pathname))
 				break;
 			slash = pathname.indexOf('/');
@@ -280,10 +616,7 @@ public class TOSFile
 				nextnum = locateInDir(dirname);
 			} catch (EOFException e) {
 				mode = oldmode;
-				if (pathname.indexOf(TOSFile.separator)>=0)
-					throw e; // subdirectory must be created with mkdir
-				else
-					return createFile(inode,pathname);
+				throw e;
 			}
 		}// while (!dirname.equals(pathname));
 		return inode;
@@ -360,54 +693,6 @@ public class TOSFile
 	
 	}
 	
-	/** Creates a new TOS file in the given location with the given name.
-	 * <p>This function assumes it is already pointed at the directory where
-	 * the new file is to be located; it places a new entry there for this file
-	 * and then calls the TOS disk to create the file.
-	 * @param parent Inode of directory where file is to be
-	 * @return Inode of the new file.
-	 * @exception NotFoundException if the file could not be found.
-	 * @exception FilesFullException if a new file cannot be created because 
-	 *                               the maximum number already exist.
-	 * @exception RemoteException if an RMI error occurs.
-	 * @exception IOException if an I/O error occurs.
-	 * @exception DiskFullException if a new file cannot be created because
-	 *                              the disk is full.
-	 * @exception TOSFileException if another error occurs.
-	 */
-	Inode createFile(Inode parent,String filename) throws NotFoundException, 
-														  FilesFullException, 
-														  RemoteException, 
-														  TOSFileException, 
-														  IOException, 
-														  DiskFullException	
-	{		
-		if (!mode.equals("w") && !mode.equals("md"))
-			throw new NotFoundException();
-		// get next number
-		int newnum = Disk.newInode();
-		// write new directory entry - must go to end of directory for this
-		String purename = filename.substring(filename.lastIndexOf(TOSFile.separator) 
-											 + TOSFile.separator.length());
-		char[] newname = purename.toCharArray();
-		int i;
-		try {
-			for (i=0; i<newname.length; i++)
-				writeChar(newname[i]);
-			writeChar(dirdelim);
-			char[] newnumstr = String.valueOf(newnum).toCharArray();
-			for (i=0; i<newnumstr.length; i++)
-				writeChar(newnumstr[i]);
-			writeChar(dirdelim);
-			close();
-			// return new node
-		} catch (InvalidModeException e) {
-			// can't happen - screened for already
-			return null;
-		}
-		return Disk.createFile(newnum,filename);
-	}
-
 	/** Marks a file as protected.
 	 * @param password New password of the file.
 	 */
@@ -440,9 +725,14 @@ public class TOSFile
 	
 	
 	/** Copies a file.
-	 * <p>The file is copied to the destination.  The current implementation
-	 * is not buffered; a possible extension to the system is a buffered
-	 * version of this function.
+	 * <p>The file is copied to the destination.  If the destination is 
+	 * open for writing, the copy is made by the disks themselves: within 
+	 * the disk with <code>TOSDisk.copyFile</code>, or between disks with 
+	 * <code>TOSDisk.sendFile</code>, and the destination is left 
+	 * positioned at its end.  The data never passes through this process,
+	 * and the disk commits the destination itself; closing it writes 
+	 * nothing more unless it is written to again.
+	 * A destination open for appending is copied to a byte at a time.
 	 * @param dest File to copy to.
 	 * @exception TOSFileNotOpenException if the file is not open.
 	 * @exception InvalidModeException if the file is not opened for reading,
@@ -459,6 +749,19 @@ public class TOSFile
 	{
 		if (!isOpen || !dest.isOpen)
 			throw new TOSFileNotOpenException();
+		if (!mode.equals("r"))
+			throw new InvalidModeException();
+		if (dest.mode.equals("w"))
+		{
+			if (Disk.equals(dest.Disk))
+				dest.inode = Disk.copyFile(filenum,dest.filenum);
+			else
+				dest.inode = Disk.sendFile(filenum,dest.Disk,dest.filenum);
+			dest.goToSpot(dest.inode.lastindexblock,dest.inode.lastindexentry,
+						  dest.inode.lastdataentry+1);
+			dest.isCommitted = true;
+			return;
+		}
 		byte mybyte;
 		while (true)
 		{
@@ -472,6 +775,24 @@ public class TOSFile
 		
 	}
 
+	/** Makes the end of a file committed by its disk ready to be written
+	 * to again.  The disk may have packed the file's tail, which then 
+	 * needs its own block back first.
+	 * @exception TOSFileException if an error occurs communicating 
+	 *                             with the disk.
+	 */
+	void reopenEnd() throws TOSFileException
+	{
+		try {
+			inode = Disk.unpackTail(filenum);
+		} catch (Exception e) {
+			throw new TOSFileException();
+		}
+		goToSpot(inode.lastindexblock,inode.lastindexentry,
+				 inode.lastdataentry+1);
+		isCommitted = false;
+	}
+
 	/** Move to a given location in a TOS file.
 	 * @param niblocknum Index block to move to.
 	 * @param npos Index of data block to move to.
@@ -495,14 +816,13 @@ public class TOSFile
 	}
 	
 	/** Deletes a file.
-	 * <p>A fairly elaborate sequence of steps is needed to delete a file.
-	 * The data and index blocks on the disk must be freed and the inode marked
-	 * as unused.  Most of this code, however, is located on the disk.  This method
-	 * calls the disk and afterward contents itself with removing the deleted file's 
-	 * entry in the parent directory.
+	 * <p>The disk removes the file's entry from its parent directory and 
+	 * marks the inode dead, then returns without waiting for the file's
+	 * blocks to be freed; that is done in the background by the disk.
 	 * @param filename File to delete.
 	 * @param password Password.
-	 * @exception TOSFileException if an unknown error occurs.
+	 * @exception TOSFileException if an unknown error occurs, or the file
+	 *                             is a directory that is not empty.
 	 * @exception RemoteException if an RMI error occurs.
 	 * @exception NotFoundException if the file cannot be found.
 	 * @exception InvalidPasswordException if the password is invalid.
@@ -511,87 +831,17 @@ public class TOSFile
 	 */
 	public void delete(String filename, String password) throws TOSFileException, RemoteException, NotFoundException, InvalidPasswordException, InvalidDirectoryException
 	{
+		unpin();
+		String pathname = getLocalName(filename);
 		try {
-			open(filename,"w",password);
-		} catch (InvalidModeException e) {
-			// impossible when hard-coded
-		}
-	//	if (inode.isDirectory)
-	//		throw new InvalidDirectoryException();
-		while (true)
-		{
-			if (pos==0)
-				Disk.freeSpace(iblock.blocknum);
-			Disk.freeSpace(blocknum);
-			try {
-				readBlock();
-			} catch (EOFException e) {
-				break;
-			}
-		}
-		Disk.removeFile(inode);	
-		// remove directory entry
-		int loc = filename.lastIndexOf(TOSFile.separator);
-		String parent = filename.substring(0,loc);
-		String child = filename.substring(loc+TOSFile.separator.length());
-		try {
-			open(parent,"r","");
-		} catch (InvalidModeException e) {
-			System.out.println("Middle: invalid mode exception");
-		}
-		String entry = "";
-		String temp;
-		int val;
-		int wpos, wcurbyte, wiblocknum;
-		// locate the entry to delete
-		while (true)
-		{
-			wpos = pos;
-			wcurbyte = curbyte;
-			wiblocknum = iblock.blocknum;
-			try {
-				entry = getNextDirEntry();
-				temp = getNextDirEntry();
-			} catch (EOFException e) {
-				break;
-			}
-			if (child.equals(entry))
-				break;
-		}
-		// read in values to move forward
-		StringBuffer buffer = new StringBuffer(0);
-		char inchar = 0;
-		while (true)
-		{
-			try {
-				inchar = readChar();
-			} catch (InvalidModeException e) {
-				System.out.println("Readchar invalid mode");
-			} catch (EOFException e) {
-				break;
-			}
-			buffer.append(inchar);
-		}
-		close();
-		String bufstring = buffer.toString();
-		try {
-			open(parent,"a","");
-		} catch (InvalidModeException e) {
-
-		}
-		
-		// return to the correct state
-		goToSpot(wiblocknum,wpos,wcurbyte);
-		
-		try {
-			writeString(bufstring);
-		} catch (InvalidModeException e) {
-
+			Disk.deleteFile(pathname,password);
+		} catch (RemoteException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new TOSFileException();
 		} catch (DiskFullException e) {
-			 // we will ignore this 
-			 // - can't happen when file size is being reduced
+			throw new TOSFileException();
 		}
-		close();
 	}
 	
 	/** Returns <code>true</code> if the file is a directory.
@@ -769,27 +1019,33 @@ public class TOSFile
 	}
 
 	/** Obtains the next index block from the disk if needed.
-	 * <p>This method will only contact the disk if the current
-	 * index block is really at its end; otherwise, it will do nothing.
+	 * <p>This method will only contact the disk if the last data block
+	 * of the current index block has been read; otherwise, it will do 
+	 * nothing.
+	 * @exception EOFException if there is no next index block.
 	 * @exception TOSFileException if an I/O or RMI or other error occurs
 	 *                             when contacting the TOS disk.
 	 */
-	void nextIndexBlock() throws TOSFileException 
+	void nextIndexBlock() throws EOFException, TOSFileException 
 	{
-		if (iblock.isAtEnd(pos))
+		int child = iblock.BlocksUsed.length-1;
+		if (pos==child-1)
 		{
+			if (iblock.BlocksUsed[child]==IndexBlock.UNUSED)
+				throw new EOFException();
 			try {
-				iblock = Disk.retrieveIndexBlock(iblock.BlocksUsed[pos]);
+				iblock = Disk.retrieveIndexBlock(iblock.BlocksUsed[child]);
 			} catch (Exception e) {
 				throw new TOSFileException();
 			}
-			pos = 0;
+			pos = -1;
 		}
 	}
 	
 	/** Obtains the next data block from the disk.
 	 * Calls <code>nextIndexBlock</code> to obtain the next
-	 * index block if needed.
+	 * index block if needed.  A packed tail is fetched with 
+	 * <code>retrieveTail</code> instead.
 	 * @exception EOFException if end of file is reached.
 	 * @exception TOSFileException if there is an error contacting the disk.
 	 */
@@ -802,7 +1058,10 @@ public class TOSFile
 			throw new EOFException();
 		}
 		try {
-			curblock = Disk.retrieveDataBlock(blocknum);
+			if (blocknum==IndexBlock.TAIL)
+				curblock = Disk.retrieveTail(inode.Number);
+			else
+				curblock = Disk.retrieveDataBlock(blocknum);
 		} catch (Exception e) {
 			throw new TOSFileException();
 		}
@@ -881,6 +1140,8 @@ public class TOSFile
 	{
 		if (!mode.equals("w") && !mode.equals("a"))
 			throw new InvalidModeException();
+		if (isCommitted)
+			reopenEnd();
 		if (curbyte==blocksize)
 		{
 			writeBlock();
@@ -895,7 +1156,10 @@ public class TOSFile
 	}
 
 	/** Writes a data block to disk.  If the current index block 
-	 * is full, it is also written to disk and a new one obtained.
+	 * is full, it is also written to disk and the next one obtained.
+	 * <p>New data and index blocks are taken from blocks leased from the
+	 * disk, and entered in the index block here; the disk records them 
+	 * as used when the index block is committed.
 	 * @exception TOSFileException if an error occurs communicating 
 	 *                             with the disk.
 	 * @exception DiskFullException if the end of file is reached.
@@ -904,22 +1168,36 @@ public class TOSFile
 	{			
 		try {
 			Disk.commitDataBlock(blocknum,curblock);
-			if (iblock.isAtEnd(pos))
+			int child = iblock.BlocksUsed.length-1;
+			if (pos==child-1)
 			{
-				// must allocate space for a new index block
-				Disk.commitIndexBlock(iblock);
-				iblock = Disk.newIndexBlock(filenum,iblock);
-				pos = 0;
+				// move on to the next index block, making it if need be
+				int next = iblock.BlocksUsed[child];
+				if (next==IndexBlock.UNUSED)
+				{
+					next = leasedBlock();
+					iblock.BlocksUsed[child] = next;
+					Disk.commitIndexBlock(iblock);
+					iblock = new IndexBlock(next,child+1);
+				}
+				else
+				{
+					Disk.commitIndexBlock(iblock);
+					iblock = Disk.retrieveIndexBlock(next);
+				}
+				pos = -1;
 			}
 			blocknum = iblock.BlocksUsed[++pos];
 			curbyte = 0;
 			if (blocknum==IndexBlock.UNUSED)
 			{
-				// must allocate space for new data block
+				// take a new data block from the lease
 				// Note that this is done one step BEFORE needed
-				blocknum = Disk.newDataBlock(iblock);
+				blocknum = leasedBlock();
+				iblock.BlocksUsed[pos] = blocknum;
 			}
-
+		} catch (DiskFullException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new TOSFileException();
 		}
@@ -931,17 +1209,19 @@ public class TOSFile
 	 * as is the case in some other operating systems.  Instead, the 
 	 * inodes store the number of the last index block, last written entry
 	 * within that index block, and last byte written within the last 
-	 * data block.  These are written to disk when the file is closed.
+	 * data block.  These are written to disk when the file is closed, 
+	 * together with the last data and index blocks, in a single call to
+	 * the disk.
 	 * <p>A problem with this arrangement is if an application crashes while
-	 * writing a file, there will be no end of file written, which could
-	 * render the file unusable.
+	 * writing a file, there will be no end of file written, and the file
+	 * keeps the end it had before it was opened.
 	 * @exception TOSFileException if an error occurs communicating 
 	 *                             with the disk.
 	 */
 	public void close() throws TOSFileException
 	{
 		// write the EOF character
-		if (mode.equals("w") || mode.equals("a"))
+		if ((mode.equals("w") || mode.equals("a")) && !isCommitted)
 		{
 			iblock.BlocksUsed[pos+1] = IndexBlock.UNUSED;
 			inode.lastindexblock = iblock.blocknum;
@@ -949,14 +1229,14 @@ public class TOSFile
 			inode.lastdataentry = curbyte - 1;
 		
 			try {
-				Disk.commitDataBlock(blocknum,curblock);
-				Disk.commitIndexBlock(iblock);
-				Disk.updateNode(inode);
+				Disk.commitFile(inode,iblock,blocknum,curblock);
 			} catch (Exception e) {
+				unpin();
 				throw new TOSFileException();
 			}
 		}
 		isOpen = false;
+		unpin();
 	}
 	
 	/** Calls <code>close()</code> before an object is discarded.
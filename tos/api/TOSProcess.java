@@ -52,6 +52,9 @@ public abstract class TOSProcess
 	/** Listener thread	 */
 	private Listener listener;
 		
+	/** Cache of disk stubs, or <code>null</code> until first needed. */
+	private DiskRegistry registry;
+	
 	/** TOS identifier of this process  */
 	private int procid;
 	
@@ -116,6 +119,7 @@ public abstract class TOSProcess
 			launcher = (TOSLauncher)Naming.lookup("rmi://"+launcherName+"/Launcher");
 			listener = new Listener();
 			listStub = (TOSListener)UnicastRemoteObject.exportObject(listener);
+			listener.setStub(listStub);
 			procid = launcher.registerProcess(listStub,getClass().getName(),InetAddress.getLocalHost().getHostName());
 			listener.setId(procid);
 			String listname = "Listener" + String.valueOf(procid);
@@ -205,6 +209,8 @@ public abstract class TOSProcess
 	/* TOS service functions */
 	
 	/** Returns a remote stub of the disk running at the given location.
+	 * The stub is taken from the process's <code>DiskRegistry</code> when
+	 * the filename server knows the disk.
 	 * @parameter servername Location of the disk.
 	 * @return Remote stub of the disk.
 	 */
@@ -212,6 +218,15 @@ public abstract class TOSProcess
 	{
 		String hostname;
 		TOSDisk fs;
+		try	{
+			if (registry==null)
+				registry = DiskRegistry.forServer(launcher.getFileNameServer());
+			fs = registry.getDisk(servername);
+			if (fs!=null)
+				return fs;
+		} catch (Exception e) {
+			// fall back on asking the disk's host
+		}
 		try	{
 			hostname = launcher.getDiskHost(servername);
 			fs = (TOSDisk)Naming.lookup(hostname+"/FS"+servername);
@@ -244,6 +259,20 @@ public abstract class TOSProcess
 		return new Signal(name,listStub,procid,launcher);
 	}
 	
+	/** Open a read-write lock.
+	 * The lock may or may not exist already.
+	 * @return ReadWriteLock The lock.
+	 * @param name Name of the lock.
+	 * @param preferWriters <code>true</code> if threads waiting to write
+	 * keep out new readers.  Only used if the lock is created.
+	 * @exception SyncException if an error occurs during the lock opening.
+	 * @see ReadWriteLock
+	 */
+	public final ReadWriteLock openReadWriteLock(String name, boolean preferWriters) throws SyncException
+	{
+		return new ReadWriteLock(name,preferWriters,listStub,procid,launcher);
+	}
+	
 	/** Create a new semaphore object.
 	 * The semaphore must not alredy exist.
 	 * @return Semaphore The new semaphore.
@@ -0,0 +1,195 @@
+//
+//
+// TOSRandomAccessFile
+//
+//
+package tos.api;
+
+import java.rmi.*;
+import java.io.*;
+import tos.system.*;
+
+/** A TOS file read and written at given positions.
+ * <p>Unlike <a href="TOSFile.html">TOSFile</a>, which walks a file's 
+ * index blocks itself, this class leaves the file's layout to the disk.
+ * Opening the file gives a handle, and each read or write is a single 
+ * call carrying the handle, the position and the bytes.  This makes it 
+ * the better choice for reading or writing large amounts of data.
+ * <p>Files may be opened in read ("r"), write ("w") or append ("a") 
+ * mode.  In write mode the file starts out empty; in append mode it 
+ * keeps its contents.  Files open for writing may be written anywhere 
+ * up to their current end.
+ */
+
+public class TOSRandomAccessFile
+{
+	/** Remote stub of the TOS disk containing the file. */
+	protected TOSDisk Disk;
+	
+	/** Handle of the file on its disk. */
+	protected int handle;
+	
+	/** Set to <code>true</code> if the file is open. */
+	protected boolean isOpen = false;
+
+	/** Opens a file.
+	 * @param launcher Launcher from which to obtain the filename server.
+	 * @param name Name of the file, in global namespace.
+	 * @param mode Mode of the file - must be "r", "w", or "a".
+	 * @param password File's password, set to "" if there is no password.
+	 * @exception NotFoundException if the file, or the directory of a new
+	 *                              file, could not be found.
+	 * @exception InvalidModeException if an invalid mode was supplied.
+	 * @exception InvalidPasswordException if the password was incorrect.
+	 * @exception TOSFileException if another error occurred.
+	 */
+	public TOSRandomAccessFile(TOSLauncher launcher, String name, String mode,
+							   String password) throws NotFoundException,
+													   InvalidModeException,
+													   InvalidPasswordException,
+													   TOSFileException
+	{
+		this(launcher,name,mode,password,0);
+	}
+	
+	/** Opens a file, giving the disk a hint of how large it will be.
+	 * @param launcher Launcher from which to obtain the filename server.
+	 * @param name Name of the file, in global namespace.
+	 * @param mode Mode of the file - must be "r", "w", or "a".
+	 * @param password File's password, set to "" if there is no password.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @exception NotFoundException if the file, or the directory of a new
+	 *                              file, could not be found.
+	 * @exception InvalidModeException if an invalid mode was supplied.
+	 * @exception InvalidPasswordException if the password was incorrect.
+	 * @exception TOSFileException if another error occurred.
+	 */
+	public TOSRandomAccessFile(TOSLauncher launcher, String name, String mode,
+							   String password, long sizehint) 
+		throws NotFoundException, InvalidModeException, 
+			   InvalidPasswordException, TOSFileException
+	{
+		if (!mode.equals("r") && !mode.equals("w") && !mode.equals("a"))
+			throw new InvalidModeException();
+		String filename;
+		try {
+			DiskRegistry registry = 
+				DiskRegistry.forServer(launcher.getFileNameServer());
+			filename = registry.resolveFileName(name);
+			Disk = registry.getDisk(filename.substring(0,filename.indexOf(TOSFile.servermark)));
+		} catch (Exception e) {
+			throw new NotFoundException();
+		}
+		try {
+			handle = Disk.openFile(TOSFile.localPath(filename),mode,password,
+								   sizehint);
+		} catch (NotFoundException e) {
+			throw e;
+		} catch (InvalidPasswordException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new TOSFileException();
+		}
+		isOpen = true;
+	}
+	
+	/** Reads from the file.
+	 * @param offset Position in the file to read from.
+	 * @param buffer Buffer in which to place data.
+	 * @param off Position in the buffer of the first byte.
+	 * @param length Greatest number of bytes to read.
+	 * @return number of bytes read, or -1 if the position is at or past 
+	 *         the end of the file.
+	 * @exception TOSFileNotOpenException if the file is not open.
+	 * @exception TOSFileException if an error occurs.
+	 */
+	public int read(long offset, byte[] buffer, int off, int length) 
+		throws TOSFileNotOpenException, TOSFileException
+	{
+		if (!isOpen)
+			throw new TOSFileNotOpenException();
+		if (length==0)
+			return 0;
+		byte[] data;
+		try {
+			data = Disk.readFile(handle,offset,length);
+		} catch (IOException e) {
+			throw new TOSFileException();
+		}
+		if (data.length==0)
+			return -1;
+		System.arraycopy(data,0,buffer,off,data.length);
+		return data.length;
+	}
+	
+	/** Writes to the file.
+	 * @param offset Position in the file to write at, no further than its
+	 *               current end.
+	 * @param buffer Buffer containing the data.
+	 * @param off Position in the buffer of the first byte.
+	 * @param length Number of bytes to write.
+	 * @exception TOSFileNotOpenException if the file is not open.
+	 * @exception DiskFullException if the disk is full.
+	 * @exception TOSFileException if the file is not open for writing, the
+	 *                             position is past its end, or another 
+	 *                             error occurs.
+	 */
+	public void write(long offset, byte[] buffer, int off, int length) 
+		throws TOSFileNotOpenException, DiskFullException, TOSFileException
+	{
+		if (!isOpen)
+			throw new TOSFileNotOpenException();
+		byte[] data = new byte[length];
+		System.arraycopy(buffer,off,data,0,length);
+		try {
+			Disk.writeFile(handle,offset,data);
+		} catch (IOException e) {
+			throw new TOSFileException();
+		}
+	}
+	
+	/** Returns the current length of the file.
+	 * @return length of the file in bytes.
+	 * @exception TOSFileNotOpenException if the file is not open.
+	 * @exception TOSFileException if an error occurs.
+	 */
+	public long length() throws TOSFileNotOpenException, TOSFileException
+	{
+		if (!isOpen)
+			throw new TOSFileNotOpenException();
+		try {
+			return Disk.getFileLength(handle);
+		} catch (IOException e) {
+			throw new TOSFileException();
+		}
+	}
+	
+	/** Closes the file.  The disk writes back the file's index blocks and
+	 * inode.
+	 * @exception TOSFileException if an error occurs communicating with 
+	 *                             the disk.
+	 */
+	public void close() throws TOSFileException
+	{
+		if (!isOpen)
+			return;
+		isOpen = false;
+		try {
+			Disk.closeFile(handle);
+		} catch (IOException e) {
+			throw new TOSFileException();
+		}
+	}
+	
+	/** Calls <code>close()</code> before an object is discarded.
+	 * @exception Throwable if an exception is thrown by the superclass.
+	 */
+	public void finalize() throws Throwable
+	{
+		try {
+			close();
+		} catch (Throwable e) {
+		}
+		super.finalize();
+	}
+}
@@ -603,8 +603,9 @@ class Administrator extends JFrame implements ActionListener
 		}
 	}
 
-	/** Returns a vector containing the three strings "Mutex", "Semaphore" and "Signal".
-	 * @return vector of the three strings.
+	/** Returns a vector containing the strings "Mutex", "Semaphore", "Signal"
+	 * and "ReadWriteLock".
+	 * @return vector of the four strings.
 	 */
 	Vector getSyncNames()
 	{
@@ -612,16 +613,17 @@ class Administrator extends JFrame implements ActionListener
 		typelist.addElement("Mutex");
 		typelist.addElement("Semaphore");
 		typelist.addElement("Signal");
+		typelist.addElement("ReadWriteLock");
 		return typelist;
 	}		
 	
 	/** Returns a hashtable containing sync object types as keys and vectors containing lists of objects as values.
 	 * <p>Taking as input a hashtable mapping objects to <code>TOSSyncServer</code> 
-	 * stubs, extracts from them three vectors, one for each object type.
-	 * These three vectors are made the values of a hashtable, with the respective
+	 * stubs, extracts from them four vectors, one for each object type.
+	 * These four vectors are made the values of a hashtable, with the respective
 	 * type as the key.
 	 * <p>Called from <code>OnORemove</code> and <code>OnORelease</code>.
-	 * @return a hashtable with keys "Mutex", "Semaphore", and "Signal", and a vector of object names as values.
+	 * @return a hashtable with keys "Mutex", "Semaphore", "Signal" and "ReadWriteLock", and a vector of object names as values.
 	 * @param synctable Hashtable having <code>SyncRecords</code> as keys.
 	 * @see OnORelease
 	 * @see OnORemove
@@ -631,6 +633,7 @@ class Administrator extends JFrame implements ActionListener
 		Vector mutexList = new Vector();
 		Vector semList = new Vector();
 		Vector sigList = new Vector();
+		Vector rwList = new Vector();
 		Enumeration enumeration = synctable.keys();
 		while (enumeration.hasMoreElements())
 		{
@@ -641,11 +644,14 @@ class Administrator extends JFrame implements ActionListener
 				semList.addElement(rec.name);
 			else if (rec.type==TOSSyncServer.SIGNAL)
 				sigList.addElement(rec.name);
+			else if (rec.type==TOSSyncServer.RWLOCK)
+				rwList.addElement(rec.name);
 		}
 		Hashtable objList = new Hashtable();
 		objList.put("Mutex",mutexList);
 		objList.put("Semaphore",semList);
 		objList.put("Signal",sigList);
+		objList.put("ReadWriteLock",rwList);
 		return objList;
 	}
 	
@@ -769,7 +775,7 @@ class Administrator extends JFrame implements ActionListener
 		if (!dlg.isOK)
 			return;
 		try {
-			TL.createDisk(dlg.name,dlg.hostname,dlg.numfiles,dlg.blocksize,dlg.numblocks);
+			TL.createDisk(dlg.name,dlg.hostname,dlg.numfiles,dlg.blocksizes,dlg.poolblocks);
 		} catch (Exception e) {
 			String msg;
 			if (e.getMessage().equals(""))
@@ -0,0 +1,83 @@
+//
+//
+// BlockPool
+//
+//
+package tos.system;
+
+/** This class describes one block-size class of a disk.
+ * <p>A disk has one or more pools, each with its own block size.  Block
+ * numbers are global to the disk: the pools take consecutive ranges of
+ * them in the order they are listed in the superblock, and the data
+ * area of each pool follows that of the one before it.  The free list
+ * section keeps one byte per block for all pools made with the disk, 
+ * but each pool has its own <a href="FreeList.html">FreeList</a> and
+ * <a href="FragmentList.html">FragmentList</a>.
+ * <p>Pools added when a disk grows are placed at the end of the disk 
+ * file, each with its free list bytes just before its data blocks.  
+ * Such a pool either extends an existing pool of the same block size, 
+ * in which case both belong to the same pool class, or starts a new 
+ * class of its own.
+ * <p>All of a file's index and data blocks come from the same pool 
+ * class, so a file's block size is that of the pool holding its first 
+ * index block.
+ */
+
+class BlockPool
+{
+	/** Size of each data block in the pool. */
+	int blocksize;
+
+	/** Number of data blocks in the pool. */
+	int numblocks;
+
+	/** Size of the units file tails are packed in, or 0 if tails are not
+	 * packed in this pool. */
+	int fragmentsize;
+
+	/** Number of the first block in the pool. */
+	int firstblock;
+
+	/** Location of the pool's first data block. */
+	long datastart;
+	
+	/** Location of the free list byte of the pool's first block. */
+	long freeliststart;
+	
+	/** Index of the first pool of the class this pool belongs to. */
+	int poolclass;
+
+	/** Number of data blocks represented by an index block. */
+	int iblockarraysize;
+
+	/** Constructor.
+	 * @param blocksize Size of each data block.
+	 * @param numblocks Number of data blocks.
+	 * @param fragmentsize Tail packing unit, 0 if tails are not packed.
+	 */
+	BlockPool(int blocksize, int numblocks, int fragmentsize)
+	{
+		this.blocksize = blocksize;
+		this.numblocks = numblocks;
+		this.fragmentsize = fragmentsize;
+		iblockarraysize = blocksize/4;
+	}
+
+	/** Returns <code>true</code> if a block belongs to this pool.
+	 * @param blocknum Block number.
+	 * @return <code>true</code> if the block is in this pool.
+	 */
+	boolean contains(int blocknum)
+	{
+		return blocknum>=firstblock && blocknum<firstblock+numblocks;
+	}
+
+	/** Returns the location of a block in the disk file.
+	 * @param blocknum Block number.
+	 * @return offset of the block from the start of the disk file.
+	 */
+	long offset(int blocknum)
+	{
+		return datastart + (long)(blocknum-firstblock)*blocksize;
+	}
+}
@@ -0,0 +1,169 @@
+//
+//
+// BlockReader
+//
+//
+package tos.system;
+
+import java.io.*;
+
+/** This class reads a file's contents inside the disk process.
+ * <p>It walks the file's index blocks the way a 
+ * <a href="../api/TOSFile.html">TOSFile</a> does, but reads the data 
+ * blocks straight from the disk file.  Runs of consecutive blocks are 
+ * read with a single positional read.  A packed tail is read from its 
+ * fragment block.
+ * @see BlockWriter
+ */
+
+class BlockReader
+{
+	/** Disk holding the file. */
+	Disk disk;
+
+	/** Inode of the file. */
+	Inode inode;
+
+	/** Current index block. */
+	IndexBlock iblock;
+
+	/** Position within the current index block. */
+	int pos = -1;
+
+	/** Size of the file's data blocks. */
+	int blocksize;
+
+	/** Number of the file's last data block, or 
+	 * <code>IndexBlock.TAIL</code> if it is packed. */
+	int lastblock;
+
+	/** Set to <code>true</code> once the last block has been returned. */
+	boolean ended = false;
+
+	/** Next block number, if it has been looked at already. */
+	int lookahead;
+
+	/** Set to <code>true</code> if <code>lookahead</code> is valid. */
+	boolean peeked = false;
+
+	/** Constructor.
+	 * @param disk Disk holding the file.
+	 * @param inode Inode of the file.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	BlockReader(Disk disk, Inode inode) throws IOException
+	{
+		this.disk = disk;
+		this.inode = inode;
+		blocksize = disk.superblock.blockSize(inode.firstindexblock);
+		iblock = disk.retrieveIndexBlock(inode.firstindexblock);
+		IndexBlock last = disk.retrieveIndexBlock(inode.lastindexblock);
+		lastblock = last.BlocksUsed[inode.lastindexentry];
+		ended = (inode.lastdataentry<0);
+	}
+
+	/** Returns the size of a buffer holding the given number of blocks.
+	 * @param blocks Number of blocks.
+	 * @return size of the buffer, in bytes.
+	 */
+	int bufferSize(int blocks)
+	{
+		return blocks*blocksize;
+	}
+
+	/** Reads as many whole blocks of the file as fit in a buffer.
+	 * @param buffer Buffer to fill; its length must be a multiple of the
+	 *               block size.
+	 * @return number of bytes read, or -1 at the end of the file.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	int read(byte[] buffer) throws IOException
+	{
+		int blocks = buffer.length/blocksize;
+		int count = 0;
+		int filled = 0;
+		while (count<blocks)
+		{
+			int blocknum = nextBlock();
+			if (blocknum==IndexBlock.UNUSED)
+				break;
+			if (blocknum==IndexBlock.TAIL)
+			{
+				byte[] tail = disk.retrieveTail(inode.Number);
+				System.arraycopy(tail,0,buffer,count*blocksize,blocksize);
+				filled += inode.tailLength();
+				count++;
+				break;
+			}
+			int run = 1;
+			BlockPool pool = disk.superblock.poolOf(blocknum);
+			while (count+run<blocks && blocknum+run-1!=lastblock 
+				   && peek()==blocknum+run && pool.contains(blocknum+run))
+			{
+				nextBlock();
+				run++;
+			}
+			disk.readBlocks(blocknum,run,buffer,count*blocksize);
+			count += run;
+			if (blocknum+run-1==lastblock)
+			{
+				filled += (run-1)*blocksize + inode.lastdataentry + 1;
+				break;
+			}
+			filled += run*blocksize;
+		}
+		if (count==0)
+			return -1;
+		return filled;
+	}
+
+	/** Returns the number of the next data block without moving past it.
+	 * @return block number, or <code>IndexBlock.UNUSED</code> at the end.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	int peek() throws IOException
+	{
+		if (!peeked)
+		{
+			lookahead = advance();
+			peeked = true;
+		}
+		return lookahead;
+	}
+
+	/** Returns the number of the next data block.
+	 * @return block number, or <code>IndexBlock.UNUSED</code> at the end.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	int nextBlock() throws IOException
+	{
+		int blocknum = peek();
+		peeked = false;
+		return blocknum;
+	}
+
+	/** Moves to the next entry of the index chain.
+	 * @return block number, or <code>IndexBlock.UNUSED</code> at the end.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	int advance() throws IOException
+	{
+		if (ended)
+			return IndexBlock.UNUSED;
+		if (pos==iblock.size-2)
+		{
+			int child = iblock.BlocksUsed[iblock.size-1];
+			if (child==IndexBlock.UNUSED)
+			{
+				ended = true;
+				return IndexBlock.UNUSED;
+			}
+			iblock = disk.retrieveIndexBlock(child);
+			pos = -1;
+		}
+		int blocknum = iblock.BlocksUsed[++pos];
+		if (blocknum==IndexBlock.UNUSED || blocknum==lastblock)
+			ended = true;
+		return blocknum;
+	}
+}
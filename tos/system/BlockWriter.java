@@ -0,0 +1,271 @@
+//
+//
+// BlockWriter
+//
+//
+package tos.system;
+
+import java.io.*;
+import java.util.*;
+import tos.api.*;
+
+/** This class replaces a file's contents inside the disk process.
+ * <p>The new contents are written to a fresh chain of index and data 
+ * blocks, taken from the pool class of the file.  Where the expected 
+ * size is known, a run of consecutive blocks is reserved for them, and
+ * consecutive blocks are written with a single positional write.  
+ * Nothing the file's readers can see changes until <code>finish</code>
+ * switches the inode over to the new chain; <code>abort</code> throws 
+ * the new chain away instead.  The old chain is handed to the reclaimer,
+ * which frees it once no caller has the file pinned, so readers that 
+ * started before the switch can finish reading it.
+ * @see BlockReader
+ */
+
+class BlockWriter
+{
+	/** Disk holding the file. */
+	Disk disk;
+
+	/** Inode of the file. */
+	Inode inode;
+
+	/** Pool the file's first index block is in. */
+	int pool;
+
+	/** Size of the file's data blocks. */
+	int blocksize;
+
+	/** Number of entries in an index block. */
+	int iblockarraysize;
+
+	/** Index blocks of the new chain, in order. */
+	Vector chain = new Vector();
+
+	/** Last index block of the new chain. */
+	IndexBlock iblock;
+
+	/** Position of the last data block in <code>iblock</code>. */
+	int pos = -1;
+
+	/** Every block taken for the new chain, in case it is aborted. */
+	Vector allocated = new Vector();
+
+	/** Next block of the reserved run. */
+	int runnext = 0;
+
+	/** End of the reserved run. */
+	int runend = 0;
+
+	/** Data written that does not yet fill a block. */
+	byte[] partial;
+
+	/** Number of bytes in <code>partial</code>. */
+	int partiallen = 0;
+
+	/** Number of bytes written so far. */
+	long size = 0;
+
+	/** Time the writer was made or last written to, in milliseconds. */
+	long touched = System.currentTimeMillis();
+
+	/** Constructor.
+	 * @param disk Disk holding the file.
+	 * @param inode Inode of the file.
+	 * @param expected Expected size of the new contents, 0 if unknown.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	BlockWriter(Disk disk, Inode inode, long expected) throws IOException
+	{
+		this.disk = disk;
+		this.inode = inode;
+		pool = disk.poolIndex(inode.firstindexblock);
+		BlockPool bpool = disk.superblock.pools[pool];
+		blocksize = bpool.blocksize;
+		iblockarraysize = bpool.iblockarraysize;
+		partial = new byte[blocksize];
+		if (expected>0)
+		{
+			long datablocks = (expected + blocksize - 1)/blocksize;
+			long indexblocks = (datablocks + iblockarraysize - 2)/(iblockarraysize - 1);
+			if (datablocks+indexblocks<=Integer.MAX_VALUE)
+				reserve((int)(datablocks+indexblocks));
+		}
+	}
+
+	/** Reserves a run of consecutive blocks, if the pool class has one.
+	 * @param count Number of blocks.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void reserve(int count) throws IOException
+	{
+		int first = disk.allocateRun(pool,count);
+		if (first<0)
+			return;
+		runnext = first;
+		runend = first+count;
+		for (int i=first; i<runend; i++)
+			allocated.addElement(new Integer(i));
+	}
+
+	/** Returns the next block for the new chain.
+	 * @return block number.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the pool class is full.
+	 */
+	int nextBlockNumber() throws IOException, DiskFullException
+	{
+		if (runnext<runend)
+			return runnext++;
+		int blocknum = disk.allocateBlock(pool);
+		allocated.addElement(new Integer(blocknum));
+		return blocknum;
+	}
+
+	/** Adds a data block to the new chain, starting a new index block
+	 * if the current one is full.
+	 * @return number of the data block.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the pool class is full.
+	 */
+	int placeData() throws IOException, DiskFullException
+	{
+		if (iblock==null || pos==iblock.size-2)
+		{
+			IndexBlock next = new IndexBlock(nextBlockNumber(),iblockarraysize);
+			if (iblock!=null)
+				iblock.setChild(next.blocknum);
+			chain.addElement(next);
+			iblock = next;
+			pos = -1;
+		}
+		int blocknum = nextBlockNumber();
+		iblock.BlocksUsed[++pos] = blocknum;
+		return blocknum;
+	}
+
+	/** Appends data to the new contents.
+	 * @param buffer Data to write.
+	 * @param off Offset of the data in the buffer.
+	 * @param len Number of bytes to write.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the pool class is full.
+	 */
+	void write(byte[] buffer, int off, int len) 
+		throws IOException, DiskFullException
+	{
+		size += len;
+		if (partiallen>0)
+		{
+			int n = Math.min(len,blocksize-partiallen);
+			System.arraycopy(buffer,off,partial,partiallen,n);
+			partiallen += n;
+			off += n;
+			len -= n;
+			if (partiallen<blocksize)
+				return;
+			disk.commitDataBlock(placeData(),partial);
+			partial = new byte[blocksize];
+			partiallen = 0;
+		}
+		// write whole blocks in runs of consecutive block numbers
+		int first = -1;
+		int count = 0;
+		int runoff = off;
+		while (len>=blocksize)
+		{
+			int blocknum = placeData();
+			if (count>0 && blocknum!=first+count)
+			{
+				disk.writeBlocks(first,count,buffer,runoff);
+				count = 0;
+			}
+			if (count==0)
+			{
+				first = blocknum;
+				runoff = off;
+			}
+			count++;
+			off += blocksize;
+			len -= blocksize;
+		}
+		if (count>0)
+			disk.writeBlocks(first,count,buffer,runoff);
+		System.arraycopy(buffer,off,partial,0,len);
+		partiallen = len;
+	}
+
+	/** Switches the file over to the new contents.
+	 * <p>The new index blocks are written, then the inode, under the 
+	 * inode's lock so that writers finishing together each replace the 
+	 * chain the other left.  The file's old blocks and packed tail are 
+	 * then queued for the reclaimer.  Only the fields describing the 
+	 * file's blocks are changed; a file deleted meanwhile stays dead.
+	 * @return the file's updated inode.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the pool class is full.
+	 */
+	Inode finish() throws IOException, DiskFullException
+	{
+		int lastlen = blocksize;
+		if (partiallen>0 || iblock==null)
+		{
+			disk.commitDataBlock(placeData(),partial);
+			lastlen = partiallen;
+		}
+		for (int i=0; i<chain.size(); i++)
+			disk.commitIndexBlock((IndexBlock)chain.elementAt(i));
+		// the unused part of the run is no longer the writer's to free
+		// if the switch fails
+		int unused = runnext;
+		int unusedend = runend;
+		runnext = runend = 0;
+		for (int i=unused; i<unusedend; i++)
+			allocated.removeElement(new Integer(i));
+		disk.freeRun(unused,unusedend-unused);
+		
+		Object lock = disk.holdNodeLock(inode.Number);
+		try {
+			synchronized (lock) {
+				Inode current = disk.getNode(inode.Number);
+				if (!current.isUsed)
+				{
+					abort();
+					return current;
+				}
+				Reclaimer.Leftover leftover = 
+					new Reclaimer.Leftover(current,disk.fileBlocks(current));
+				IndexBlock first = (IndexBlock)chain.elementAt(0);
+				current.firstindexblock = first.blocknum;
+				current.iblock = first;
+				current.lastindexblock = iblock.blocknum;
+				current.lastindexentry = pos;
+				current.lastdataentry = lastlen - 1;
+				current.size = size;
+				current.tailblock = 0;
+				current.tailoffset = 0;
+				current.Modified = new Date();
+				current.commit(disk.file,disk.superblock);
+				allocated.removeAllElements();
+				disk.reclaimer.add(leftover);
+				if (!current.isDead)
+					disk.packTail(current);
+				inode = current;
+				return current;
+			}
+		} finally {
+			disk.dropNodeLock(inode.Number);
+		}
+	}
+
+	/** Throws the new contents away, leaving the file as it was.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void abort() throws IOException
+	{
+		for (int i=0; i<allocated.size(); i++)
+			disk.freeSpace(((Integer)allocated.elementAt(i)).intValue());
+		allocated.removeAllElements();
+		runnext = runend = 0;
+	}
+}
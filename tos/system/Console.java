@@ -182,6 +182,8 @@ public class Console
 			return Import(args);
 		else if (command.equals("javac"))
 			return Javac(args);
+		else if (command.equals("link") || command.equals("ln"))
+			return Link(args);
 		else if (command.equals("mkdir") || command.equals("md"))
 			return Mkdir(args);
 		else if (command.equals("move") || command.equals("mv"))
@@ -465,7 +467,7 @@ public class Console
 			srcfile = new TOSFile(launcher);
 			destfile = new TOSFile(launcher);
 			srcfile.open(source,"r",passwords[0]);
-			destfile.open(dest,"w",passwords[1]);
+			destfile.open(dest,"w",passwords[1],srcfile.getSize());
 			srcfile.copyFile(destfile);
 			srcfile.close();
 			destfile.close();
@@ -871,6 +873,34 @@ public class Console
 		System.setOut(oldo);
 	}		
 			
+	/** Implements the <i>link</i> or <i>ln</i> command.
+	 * @param args Argument list.
+	 * @see TOSFile#link
+	 */
+	String Link(String args[])
+	{
+		if (args.length!=3 && args.length!=4)
+			return ("Usage: link|ln existing-file new-name [password]");
+		String existing = absoluteName(args[1]);
+		String name = absoluteName(args[2]);
+		String password = "";
+		if (args.length==4)
+			password = args[3];
+		try {
+			TOSFile file = new TOSFile(launcher);
+			file.link(existing,name,password);
+		} catch (RemoteException e) {
+			return "Unable to connect to Disk.";
+		} catch (NotFoundException e) {
+			return "No such file.";
+		} catch (InvalidPasswordException e) {
+			return "Invalid password.";
+		} catch (Exception e) {
+			return "Error linking file";
+		}
+		return "File linked.";
+	}
+	
 	/** Implements the <i>mkdir</i> or <i>md</i> command.
 	 * @param args Argument list.
 	 */
@@ -904,16 +934,18 @@ public class Console
 		if (source.equals(dest))
 			return "Cannot move file onto itself.";
 		String[] passwords = getPasswords();
-		String copyout = doCopy(source,dest,passwords);
-		if (!copyout.equals("File copied."))
-			return copyout;
-		String delargs[] = new String[3];
-		delargs[0] = "Delete";
-		delargs[1] = args[1];
-		delargs[2] = passwords[0];
-		String delout = Delete(delargs);
-		if (!delout.equals("File deleted."))
-			return delout;
+		try {
+			TOSFile file = new TOSFile(launcher);
+			file.move(source,dest,passwords[0],passwords[1]);
+		} catch (RemoteException e) {
+			return "Unable to connect to Disk.";
+		} catch (NotFoundException e) {
+			return "No such file.";
+		} catch (InvalidPasswordException e) {
+			return "Invalid password.";
+		} catch (Exception e) {
+			return "Error moving file";
+		}
 		return "File moved.";
 	}
 	
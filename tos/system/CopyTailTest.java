@@ -0,0 +1,255 @@
+//
+//
+// CopyTailTest
+//
+//
+package tos.system;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.rmi.*;
+import java.util.*;
+import tos.api.*;
+
+/** Checks that copying and moving a small file leaves the inode lists of
+ * the disks intact.
+ * <p>A file small enough to have its tail packed is copied on one disk, 
+ * as the console's <i>cp</i> does, and moved to another disk, as 
+ * <i>mv</i> does.  The disks run in this process on temporary files, 
+ * and stand-ins for the launcher and the filename server hand them to
+ * <code>TOSFile</code> without RMI.  The last inodes of each disk are 
+ * read back before and after and must not change, and the copies must 
+ * read back as the original.
+ * <p>Run with <code>java tos.system.CopyTailTest</code>; the exit status 
+ * is 1 if a check fails.
+ */
+
+class CopyTailTest
+{
+	/** Size of the disks' data blocks. */
+	static int BLOCKSIZE = 1024;
+	
+	/** Number of inodes on each disk. */
+	static int NUMFILES = 16;
+	
+	/** Number of data blocks on each disk. */
+	static int NUMBLOCKS = 64;
+	
+	/** Number of last inodes compared. */
+	static int LAST_INODES = 4;
+	
+	/** A disk used in this process, not registered with any launcher. */
+	static class LocalDisk extends Disk
+	{
+		/** Constructor.  Creates a new disk.
+		 * @param filename Host file holding the disk.
+		 * @exception RemoteException if an RMI error occurs.
+		 */
+		LocalDisk(String filename) throws RemoteException
+		{
+			super(filename,0,NUMFILES,new int[] { BLOCKSIZE },
+				  new int[] { NUMBLOCKS });
+		}
+		
+		/** Names the disk without exporting or registering it.
+		 * @param filename Host file holding the disk.
+		 * @param launchport Ignored.
+		 */
+		void startup(String filename, int launchport)
+		{
+			this.filename = filename;
+			servername = resolveServerName(filename);
+		}
+	}
+	
+	/** Answers the calls <code>TOSFile</code> makes on the launcher and 
+	 * the filename server.  Every name is on the first disk, except those
+	 * under <code>/d2</code>, which are on the second.
+	 */
+	static class Stand implements InvocationHandler
+	{
+		/** Disks, keyed by name. */
+		Hashtable disks = new Hashtable();
+		
+		/** Stand-in for the filename server. */
+		Object nameserver;
+		
+		/** Handles a call.
+		 * @param proxy Stand-in called.
+		 * @param method Method called.
+		 * @param args Arguments of the call.
+		 * @return result of the call.
+		 * @exception Throwable <code>RemoteException</code> for calls the 
+		 *                      test does not need.
+		 */
+		public Object invoke(Object proxy, Method method, Object[] args) 
+			throws Throwable
+		{
+			String name = method.getName();
+			if (name.equals("hashCode"))
+				return new Integer(System.identityHashCode(proxy));
+			if (name.equals("equals"))
+				return new Boolean(proxy==args[0]);
+			if (name.equals("toString"))
+				return "CopyTailTest stand-in";
+			if (name.equals("getFileNameServer"))
+				return nameserver;
+			if (name.equals("getDisk"))
+				return disks.get(args[0]);
+			if (name.equals("resolveFileName"))
+			{
+				String path = (String)args[0];
+				if (path.startsWith("/d2/"))
+					return "d2" + TOSFile.servermark + path.substring(3);
+				return "d1" + TOSFile.servermark + path;
+			}
+			// the registry then asks the server for every name
+			throw new RemoteException(name + " not available");
+		}
+	}
+	
+	/** Runs the checks.
+	 * @param args Ignored.
+	 */
+	public static void main(String[] args)
+	{
+		Debug.UseGUIDisplay = false;
+		int status = 1;
+		File dir = null;
+		try {
+			dir = File.createTempFile("tos",null);
+			dir.delete();
+			dir.mkdir();
+			status = run(dir) ? 0 : 1;
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		if (dir!=null)
+		{
+			File[] files = dir.listFiles();
+			for (int i=0; files!=null && i<files.length; i++)
+				files[i].delete();
+			dir.delete();
+		}
+		System.out.println(status==0 ? "OK" : "FAILED");
+		System.exit(status);
+	}
+	
+	/** Copies and moves a small file and checks the disks afterwards.
+	 * @param dir Directory to keep the disks in.
+	 * @return <code>true</code> if every check passed.
+	 * @exception Exception if an error occurs.
+	 */
+	static boolean run(File dir) throws Exception
+	{
+		Disk d1 = new LocalDisk(new File(dir,"d1").getPath());
+		Disk d2 = new LocalDisk(new File(dir,"d2").getPath());
+		Stand stand = new Stand();
+		stand.disks.put("d1",d1);
+		stand.disks.put("d2",d2);
+		ClassLoader loader = CopyTailTest.class.getClassLoader();
+		stand.nameserver = Proxy.newProxyInstance(loader,
+			new Class[] { TOSFileNameServer.class },stand);
+		TOSLauncher launcher = (TOSLauncher)Proxy.newProxyInstance(loader,
+			new Class[] { TOSLauncher.class },stand);
+		byte[][] before1 = lastInodes(d1);
+		byte[][] before2 = lastInodes(d2);
+		
+		byte[] data = new byte[100];
+		for (int i=0; i<data.length; i++)
+			data[i] = (byte)i;
+		TOSFile file = new TOSFile(launcher);
+		file.open("/small","w","");
+		for (int i=0; i<data.length; i++)
+			file.write(data[i]);
+		file.close();
+		
+		// cp
+		TOSFile src = new TOSFile(launcher);
+		TOSFile dest = new TOSFile(launcher);
+		src.open("/small","r","");
+		dest.open("/copy","w","",src.getSize());
+		src.copyFile(dest);
+		src.close();
+		dest.close();
+		
+		// mv, to the other disk
+		file.move("/small","/d2/moved","","");
+		
+		boolean ok = true;
+		ok &= check("copy's tail is packed",
+					d1.getNode(d1.lookupPath("copy")).tailblock!=0);
+		ok &= check("first disk's last inodes unchanged",
+					same(before1,lastInodes(d1)));
+		ok &= check("second disk's last inodes unchanged",
+					same(before2,lastInodes(d2)));
+		ok &= check("copy reads back",
+					Arrays.equals(data,readAll(launcher,"/copy")));
+		ok &= check("moved file reads back",
+					Arrays.equals(data,readAll(launcher,"/d2/moved")));
+		return ok;
+	}
+	
+	/** Reads the raw bytes of the last inodes of a disk's inode list.
+	 * @param disk The disk.
+	 * @return the bytes of each inode.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	static byte[][] lastInodes(Disk disk) throws IOException
+	{
+		Superblock superblock = disk.superblock;
+		byte[][] inodes = new byte[LAST_INODES][superblock.inodesize];
+		synchronized (disk.file) {
+			for (int i=0; i<LAST_INODES; i++)
+			{
+				disk.file.seek(superblock.nodeOffset(NUMFILES-LAST_INODES+i));
+				disk.file.readFully(inodes[i]);
+			}
+		}
+		return inodes;
+	}
+	
+	/** Compares two sets of inodes.
+	 * @param a First set.
+	 * @param b Second set.
+	 * @return <code>true</code> if they are the same.
+	 */
+	static boolean same(byte[][] a, byte[][] b)
+	{
+		for (int i=0; i<a.length; i++)
+			if (!Arrays.equals(a[i],b[i]))
+				return false;
+		return true;
+	}
+	
+	/** Reads a whole file through <code>TOSFile</code>.
+	 * @param launcher Launcher to open the file through.
+	 * @param name Name of the file.
+	 * @return contents of the file.
+	 * @exception Exception if an error occurs.
+	 */
+	static byte[] readAll(TOSLauncher launcher, String name) throws Exception
+	{
+		TOSFile file = new TOSFile(launcher);
+		file.open(name,"r","");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			while (true)
+				out.write(file.read());
+		} catch (EOFException e) {
+		}
+		file.close();
+		return out.toByteArray();
+	}
+	
+	/** Reports the outcome of one check.
+	 * @param what Description of the check.
+	 * @param passed <code>true</code> if it passed.
+	 * @return <code>passed</code>.
+	 */
+	static boolean check(String what, boolean passed)
+	{
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		return passed;
+	}
+}
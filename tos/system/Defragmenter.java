@@ -0,0 +1,62 @@
+//
+//
+// Defragmenter
+//
+//
+package tos.system;
+
+/** This class runs the background defragmentation of a disk.
+ * <p>Because free blocks are handed out from a stack, the blocks of a
+ * long-lived file end up scattered over the disk.  The defragmenter 
+ * passes over the inode list once, asking the disk to move each file 
+ * whose blocks are out of order into a contiguous run.  It pauses 
+ * after each block copied, so that the disk can go on serving other
+ * callers.
+ * @see Disk#defragmentFile
+ */
+
+class Defragmenter implements Runnable
+{
+	/** Disk being defragmented. */
+	Disk disk;
+
+	/** Pause after each block copied, in milliseconds. */
+	long throttle;
+
+	/** Set to <code>false</code> to stop the pass early. */
+	volatile boolean running = true;
+
+	/** Number of files moved so far. */
+	int moved = 0;
+
+	/** Constructor.
+	 * @param disk Disk to defragment.
+	 * @param throttle Pause after each block copied, in milliseconds.
+	 */
+	Defragmenter(Disk disk, long throttle)
+	{
+		this.disk = disk;
+		this.throttle = throttle;
+	}
+
+	/** Makes one pass over the disk's files.
+	 * Files that cannot be moved now, because they are open or there is
+	 * no free run large enough, are left for the next pass.
+	 */
+	public void run()
+	{
+		// inode 0 is the root directory, which is never moved
+		for (int i=1; i<disk.superblock.numfiles && running; i++)
+		{
+			try {
+				if (disk.defragmentFile(i,throttle))
+					moved++;
+			} catch (InterruptedException e) {
+				break;
+			} catch (Exception e) {
+				Debug.ErrorMessage("Defragmenter",e.toString());
+			}
+		}
+		running = false;
+	}
+}
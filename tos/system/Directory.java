@@ -0,0 +1,144 @@
+//
+//
+// Directory
+//
+//
+package tos.system;
+
+import java.io.*;
+import java.util.*;
+import tos.api.*;
+
+/** This class edits a directory inside the disk process.
+ * <p>A directory file holds its entries as two-byte characters, each 
+ * entry being the file's name and inode number, each followed by the 
+ * delimiter character:
+ * <pre>
+ * name1/inode1/name2/inode2/...
+ * </pre>
+ * The whole directory is read in when the object is made.  After any 
+ * changes, <code>store</code> writes it back through a
+ * <a href="BlockWriter.html">BlockWriter</a>, so that readers see either
+ * the old entries or the new ones.
+ * <p>Callers are responsible for locking the directory.
+ */
+
+class Directory
+{
+	/** Disk holding the directory. */
+	Disk disk;
+
+	/** Inode of the directory. */
+	Inode inode;
+
+	/** Names of the entries, in order. */
+	Vector names = new Vector();
+
+	/** Inode numbers of the entries, as <code>Integer</code>s. */
+	Vector numbers = new Vector();
+
+	/** Constructor.  Reads the directory's entries.
+	 * @param disk Disk holding the directory.
+	 * @param inode Inode of the directory.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	Directory(Disk disk, Inode inode) throws IOException
+	{
+		this.disk = disk;
+		this.inode = inode;
+		BlockReader reader = new BlockReader(disk,inode);
+		ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		byte[] buffer = new byte[reader.bufferSize(Disk.COPY_BLOCKS)];
+		int n;
+		while ((n = reader.read(buffer))>=0)
+			contents.write(buffer,0,n);
+		byte[] bytes = contents.toByteArray();
+		StringBuffer text = new StringBuffer(bytes.length/2);
+		for (int i=0; i+1<bytes.length; i+=2)
+			text.append((char)(((bytes[i]&0xFF)<<8) | (bytes[i+1]&0xFF)));
+		StringTokenizer entries = new StringTokenizer(text.toString(),
+													  String.valueOf(TOSFile.dirdelim));
+		while (entries.hasMoreTokens())
+		{
+			String name = entries.nextToken();
+			if (!entries.hasMoreTokens())
+				break;
+			try {
+				numbers.addElement(new Integer(entries.nextToken()));
+				names.addElement(name);
+			} catch (NumberFormatException e) {
+				// skip a damaged entry
+			}
+		}
+	}
+
+	/** Returns the inode number of an entry.
+	 * @param name Name of the entry.
+	 * @return inode number, or -1 if there is no such entry.
+	 */
+	int lookup(String name)
+	{
+		int i = names.indexOf(name);
+		if (i<0)
+			return -1;
+		return ((Integer)numbers.elementAt(i)).intValue();
+	}
+
+	/** Adds an entry at the end of the directory.
+	 * @param name Name of the entry.
+	 * @param num Inode number of the entry.
+	 */
+	void add(String name, int num)
+	{
+		names.addElement(name);
+		numbers.addElement(new Integer(num));
+	}
+
+	/** Removes an entry.
+	 * @param name Name of the entry.
+	 * @return <code>true</code> if the entry was there.
+	 */
+	boolean remove(String name)
+	{
+		int i = names.indexOf(name);
+		if (i<0)
+			return false;
+		names.removeElementAt(i);
+		numbers.removeElementAt(i);
+		return true;
+	}
+
+	/** Writes the directory back to disk.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	void store() throws IOException, DiskFullException
+	{
+		StringBuffer text = new StringBuffer();
+		for (int i=0; i<names.size(); i++)
+		{
+			text.append((String)names.elementAt(i));
+			text.append(TOSFile.dirdelim);
+			text.append(numbers.elementAt(i).toString());
+			text.append(TOSFile.dirdelim);
+		}
+		byte[] bytes = new byte[text.length()*2];
+		for (int i=0; i<text.length(); i++)
+		{
+			char ch = text.charAt(i);
+			bytes[2*i] = (byte)(ch>>8);
+			bytes[2*i+1] = (byte)ch;
+		}
+		BlockWriter writer = new BlockWriter(disk,inode,bytes.length);
+		try {
+			writer.write(bytes,0,bytes.length);
+			inode = writer.finish();
+		} catch (IOException e) {
+			writer.abort();
+			throw e;
+		} catch (DiskFullException e) {
+			writer.abort();
+			throw e;
+		}
+	}
+}
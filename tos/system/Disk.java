@@ -6,6 +6,8 @@
 package tos.system;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.rmi.*;
 import java.rmi.registry.*;
 import java.rmi.server.*;
@@ -23,18 +25,59 @@ import tos.api.*;
  * <li> Inode list - stores information about each file.
  * <li> Data blocks - hold file data and index information.
  * </ul>
+ * <p>The data blocks may be divided into several block-size pools, each
+ * with its own free list.  A file's blocks all come from one pool, 
+ * chosen when the file is created from the size hint given by the 
+ * caller.
  * <p>Each section is of a fixed size, which is set at the time
- * each disk is created.  Once set, these sizes cannot be changed.
+ * each disk is created.  A disk can nonetheless grow while it is 
+ * running: <code>addBlocks</code> and <code>addInodes</code> append 
+ * further pools and inode extents to the end of the disk file, and 
+ * record them in the superblock.
  * <p>The services disks provide are based on blocks rather 
  * than files.  The disk will retrieve a data block to a caller and
  * write a block upon a caller's request.  The question of determining
  * which blocks are part of which files is the caller's responsibility.
+ * Callers writing files lease free blocks in batches with 
+ * <code>leaseBlocks</code>, so that they need not ask for each block.
+ * <p>Callers may instead open a file with <code>openFile</code>, which 
+ * returns a small integer handle.  The disk then keeps the file's inode
+ * and index blocks itself, and reads and writes pass only the handle, 
+ * an offset and the bytes.  Small files can be written or read whole, 
+ * name and all, with a single <code>putFile</code> or 
+ * <code>getFile</code> call.
+ * <p>The one exception is tail packing.  When a file is closed with a 
+ * last data block that is less than half full, the disk moves that 
+ * block's contents into a shared fragment block and marks its index 
+ * entry as <code>IndexBlock.TAIL</code>.  Callers read such a tail with
+ * <code>retrieveTail</code> and must call <code>unpackTail</code> before
+ * writing to the file.
+ * <p>The disk may also be told to defragment itself in the background,
+ * moving the blocks of each file into a contiguous run.  Callers pin a 
+ * file with <code>pinFile</code> while they have it open, since they 
+ * hold its block numbers; pinned files and directories are never moved.
+ * <p>Whole files can also be copied without the caller handling their
+ * blocks: <code>copyFile</code> copies within the disk, and 
+ * <code>sendFile</code> streams a file straight to another disk.  
+ * <code>renameFile</code> likewise moves a file within the disk by 
+ * editing directory entries only.
+ * <p>Directories are changed only by the disk itself, through 
+ * <code>createFile</code>, <code>linkFile</code>, <code>renameFile</code>
+ * and <code>deleteFile</code>, each of which updates the entries and 
+ * inode in one call under the lock of the directories involved.
+ * <code>deleteFile</code> removes a file's directory entry and marks 
+ * its inode dead, then returns at once.  A background reclaimer frees 
+ * the dead file's blocks in batches once it is no longer open; dead 
+ * files left over from a crash are found again when the disk restarts.
  */
 
 class Disk extends RemoteServer implements TOSDisk
 {
-	/** The free list blocks	 */
-	protected FreeList freelist;
+	/** The free list blocks of each block-size pool	 */
+	protected volatile FreeList[] freelists;
+	
+	/** The shared blocks holding packed file tails, for each pool. */
+	protected volatile FragmentList[] fragments;
 	
 	/** The RandomAccessFile */
 	protected FileStore file;
@@ -56,6 +99,65 @@ class Disk extends RemoteServer implements TOSDisk
 
 	/** Maximum size of a mount string.	 */
 	static int MOUNT_POINT_SIZE = 512;
+	
+	/** A file is placed in the pool with the largest block size it will
+	 * fill at least this many blocks of. */
+	static int MIN_BLOCKS_PER_FILE = 8;
+
+	/** Number of open sessions on each pinned file, keyed by inode 
+	 * number. */
+	protected Hashtable pins = new Hashtable();
+	
+	/** Inode number of the file being moved by the defragmenter, 
+	 * or -1. */
+	protected int moving = -1;
+	
+	/** The current defragmentation pass, if any. */
+	protected Defragmenter defragmenter;
+	
+	/** Files being received from other disks, keyed by inode number. */
+	protected Hashtable receivers = new Hashtable();
+	
+	/** Number of blocks moved per read or RPC when copying a file. */
+	static int COPY_BLOCKS = 64;
+	
+	/** The thread freeing the blocks of deleted files. */
+	protected Reclaimer reclaimer;
+	
+	/** Blocks leased to callers and not yet used, keyed by block number. */
+	protected Hashtable leased = new Hashtable();
+	
+	/** Greatest number of blocks leased in one call. */
+	static int MAX_LEASE = 256;
+	
+	/** Files opened by handle, keyed by handle. */
+	protected Hashtable sessions = new Hashtable();
+	
+	/** Handle to be given to the next file opened. */
+	protected int nexthandle = 1;
+	
+	/** Locks of the directories in use, keyed by inode number. */
+	protected Hashtable dirlocks = new Hashtable();
+	
+	/** Locks of the inodes being changed, keyed by inode number. */
+	protected Hashtable nodelocks = new Hashtable();
+	
+	/** A lock kept in <code>dirlocks</code> or <code>nodelocks</code>, 
+	 * with a count of the threads using it, so that it can be dropped 
+	 * from its table once none is. */
+	static class CountedLock
+	{
+		/** Number of threads holding or waiting for the lock. */
+		int users = 0;
+	}
+	
+	/** Longest time a file opened by handle may go unused before the 
+	 * disk closes it, in milliseconds. */
+	static long SESSION_TIMEOUT = 15*60*1000;
+	
+	/** Longest time a file being received from another disk may wait for
+	 * its next part before the disk drops the transfer, in milliseconds. */
+	static long RECEIVE_TIMEOUT = 15*60*1000;
 
 	/** File name. */
 	protected String servername;
@@ -71,7 +173,9 @@ class Disk extends RemoteServer implements TOSDisk
 	 * <p>The first two arguments represent the name of the disk and the 
 	 * TCP/IP port number it will listen on.  New disks being created have 
 	 * an additional three arguments representing the number of files, 
-	 * the data block size, and the number of data blocks.
+	 * the data block size, and the number of data blocks.  Disks with more
+	 * than one block-size pool have a further block size and number of 
+	 * blocks for each additional pool.
 	 * @return Argument list.
 	 */	
 	static String[] getArgs()
@@ -105,7 +209,7 @@ class Disk extends RemoteServer implements TOSDisk
 				}
 			}
 			FileReader reader = new FileReader(file);
-			int length = 80;
+			int length = 256;
 			int readlen;
 			char[] line = new char[length];
 			readlen = reader.read(line,0,length);
@@ -144,13 +248,19 @@ class Disk extends RemoteServer implements TOSDisk
 			{
 				fs = new Disk(filename,launchport);
 			}
-			else if (fsargs.length==5) // New disk
+			else if (fsargs.length>=5 && fsargs.length%2==1) // New disk
 			{
 				int numfiles = (new Integer(fsargs[2])).intValue();
-				int blocksize = (new Integer(fsargs[3])).intValue();
-				int numblocks = (new Integer(fsargs[4])).intValue();
+				int numpools = (fsargs.length-3)/2;
+				int[] blocksizes = new int[numpools];
+				int[] numblocks = new int[numpools];
+				for (int i=0; i<numpools; i++)
+				{
+					blocksizes[i] = (new Integer(fsargs[3+2*i])).intValue();
+					numblocks[i] = (new Integer(fsargs[4+2*i])).intValue();
+				}
 				fs = new Disk(filename,launchport,
-							  numfiles,blocksize,numblocks);
+							  numfiles,blocksizes,numblocks);
 			}
 			else
 			{
@@ -187,18 +297,33 @@ class Disk extends RemoteServer implements TOSDisk
 	 */
 	public Disk(String filename, int launchport, int numfiles, 
 				int blocksize, int numblocks) throws RemoteException
+	{
+		this(filename,launchport,numfiles,
+			 new int[] { blocksize },new int[] { numblocks });
+	}
+	
+	/** Constructor called on creation of a new disk with one or more
+	 * block-size pools.  The first pool is the default one.
+	 * @param filename Disk name.
+	 * @param launchport TCP/IP port to listen on.
+	 * @param numfiles Maximum number of files in the new disk.
+	 * @param blocksizes Size of data blocks in each pool.
+	 * @param numblocks Number of data blocks in each pool.
+	 * @exception RemoteException if an RMI error occurs.
+	 */
+	public Disk(String filename, int launchport, int numfiles, 
+				int[] blocksizes, int[] numblocks) throws RemoteException
 	{
 		super();
 		try {
 			startup(filename,launchport);
-			superblock = new Superblock(numfiles, blocksize, numblocks);
+			superblock = new Superblock(numfiles, blocksizes, numblocks);
 			file = new FileStore(filename,superblock);
 			superblock.commit(file);
-			freelist = new FreeList(superblock,file);
-			freelist.initialize();
-			freelist.commit();
+			initializePools(true);
 			initializeInodes();
 			root = createFile(0,"/");
+			startReclaimer();
 		} catch (Exception e) {
 			Debug.ErrorMessage("Disk error","Error on disk startup");
 		}
@@ -215,10 +340,12 @@ class Disk extends RemoteServer implements TOSDisk
 		try {
 			startup(filename,launchport);
 			file = new FileStore(filename);				
-			superblock = new Superblock();
-			superblock.retrieve(file);
-			freelist = new FreeList(superblock,file);
-			freelist.retrieve();
+			// share the superblock the file read, so that extents and
+			// pools added later are seen by both
+			superblock = file.superblock;
+			initializePools(false);
+			startReclaimer();
+			scanInodes();
 			TOSFileNameServer fn = launcher.getFileNameServer();
 			fn.mount(servername,superblock.mountpt);
 		} catch (Exception e) {
@@ -265,6 +392,183 @@ class Disk extends RemoteServer implements TOSDisk
 		}
 	}
 
+	/** Sets up the free list and fragment list of each block-size pool.
+	 * @param isNew <code>true</code> if the disk is being created, in 
+	 *              which case every block is free; otherwise the free 
+	 *              lists are read from disk.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void initializePools(boolean isNew) throws IOException
+	{
+		BlockPool[] pools = superblock.pools;
+		freelists = new FreeList[pools.length];
+		fragments = new FragmentList[pools.length];
+		for (int i=0; i<pools.length; i++)
+		{
+			freelists[i] = new FreeList(superblock,pools[i],file);
+			if (isNew)
+			{
+				freelists[i].initialize();
+				freelists[i].commit();
+			}
+			else
+				freelists[i].retrieve();
+			fragments[i] = new FragmentList(pools[i],freelists[i]);
+		}
+	}
+	
+	/** Returns the index of the pool a block belongs to.
+	 * @param blocknum Block number.
+	 * @return index of the block's pool.
+	 * @exception IOException if the number is outside every pool.
+	 */
+	int poolIndex(int blocknum) throws IOException
+	{
+		BlockPool[] pools = superblock.pools;
+		for (int i=0; i<pools.length; i++)
+			if (blocknum>=pools[i].firstblock 
+				&& blocknum<pools[i].firstblock+pools[i].numblocks)
+				return i;
+		throw new IOException("Block number out of range: " + blocknum);
+	}
+	
+	/** Returns the free list covering a block.
+	 * @param blocknum Block number.
+	 * @return free list of the block's pool.
+	 * @exception IOException if the number is outside every pool.
+	 */
+	FreeList freelistFor(int blocknum) throws IOException
+	{
+		return freelists[poolIndex(blocknum)];
+	}
+	
+	/** Returns the fragment list of the pool a block belongs to.
+	 * @param blocknum Block number.
+	 * @return fragment list of the block's pool.
+	 * @exception IOException if the number is outside every pool.
+	 */
+	FragmentList fragmentsFor(int blocknum) throws IOException
+	{
+		return fragments[poolIndex(blocknum)];
+	}
+	
+	/** Allocates a block from the given pool, or from another pool of
+	 * the same class if that one is full.
+	 * @param pool Index of the pool.
+	 * @return number of the new block.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if every pool of the class is full.
+	 */
+	int allocateBlock(int pool) throws IOException, DiskFullException
+	{
+		BlockPool[] pools = superblock.pools;
+		FreeList[] freelists = this.freelists;
+		int poolclass = pools[pool].poolclass;
+		for (int i=0; i<pools.length; i++)
+		{
+			int next = (pool+i)%pools.length;
+			if (pools[next].poolclass!=poolclass)
+				continue;
+			try {
+				return freelists[next].allocateSpace();
+			} catch (EmptyStackException e) {
+				// try the next pool of the class
+			}
+		}
+		throw new DiskFullException();
+	}
+	
+	/** Allocates a run of consecutive blocks from the given pool, or from 
+	 * another pool of the same class.
+	 * @param pool Index of the pool.
+	 * @param count Number of blocks needed.
+	 * @return number of the first block of the run, or -1 if no pool of
+	 *         the class has a free run that long.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	int allocateRun(int pool, int count) throws IOException
+	{
+		BlockPool[] pools = superblock.pools;
+		FreeList[] freelists = this.freelists;
+		int poolclass = pools[pool].poolclass;
+		for (int i=0; i<pools.length; i++)
+		{
+			int next = (pool+i)%pools.length;
+			if (pools[next].poolclass!=poolclass)
+				continue;
+			int first = freelists[next].allocateRun(count);
+			if (first>=0)
+				return first;
+		}
+		return -1;
+	}
+	
+	/** Chooses the pool a new file is placed in.
+	 * <p>Files without a size hint go to the default pool.  Otherwise the
+	 * file goes to the pool with the largest block size it will fill at
+	 * least <code>MIN_BLOCKS_PER_FILE</code> blocks of, or to the pool 
+	 * with the smallest block size if it will not fill that many of any.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @return index of the pool.
+	 */
+	int choosePool(long sizehint)
+	{
+		BlockPool[] pools = superblock.pools;
+		if (sizehint<=0)
+			return 0;
+		int best = -1;
+		int smallest = 0;
+		for (int i=0; i<pools.length; i++)
+		{
+			if (pools[i].poolclass!=i)
+				continue;
+			if (pools[i].blocksize<pools[smallest].blocksize)
+				smallest = i;
+			if (pools[i].blocksize <= sizehint/MIN_BLOCKS_PER_FILE &&
+				(best<0 || pools[i].blocksize>pools[best].blocksize))
+				best = i;
+		}
+		if (best<0)
+			return smallest;
+		return best;
+	}
+	
+	/** Starts the thread that frees the blocks of deleted files.
+	 */
+	void startReclaimer()
+	{
+		reclaimer = new Reclaimer(this);
+		Thread thread = new Thread(reclaimer);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+	
+	/** Rebuilds the fragment list from the packed tails recorded in
+	 * the inode list, and queues any dead files for reclaiming.  Called 
+	 * by the restart constructor.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void scanInodes() throws IOException
+	{
+		if (superblock.version==Superblock.LEGACY_VERSION)
+			return;
+		Inode node = new Inode(0);
+		for (int i=0; i<superblock.numfiles; i++)
+		{
+			synchronized (file) {
+				file.goToNode(i);
+				node.retrieve(file,superblock);
+			}
+			if (node.isUsed && node.isDead)
+				reclaimer.add(i);
+			else if (node.isUsed && node.tailblock!=0)
+				fragmentsFor(node.tailblock).reserve(node.tailblock,
+													 node.tailoffset,
+													 node.tailLength());
+		}
+	}
+
 	/** Terminates the disk.
 	 * The disk is unbound from the registry and the physical
 	 * file is closed.
@@ -294,12 +598,7 @@ class Disk extends RemoteServer implements TOSDisk
 													  IOException,
 													  DiskFullException
 	{
-		int blocknum;
-		try {
-			blocknum = freelist.allocateSpace();
-		} catch (EmptyStackException e) {
-			throw new DiskFullException();
-		}
+		int blocknum = allocateBlock(poolIndex(iblock.blocknum));
 		try {
 			iblock.insert(blocknum);
 		} catch (TOSFileException e) {
@@ -317,9 +616,10 @@ class Disk extends RemoteServer implements TOSDisk
 	 */
 	void initializeBlock(int blocknum) throws IOException
 	{
-		byte[] tempblock = new byte[superblock.blocksize];
+		int blocksize = superblock.blockSize(blocknum);
+		byte[] tempblock = new byte[blocksize];
 		int i;
-		for (i=0; i<superblock.blocksize; i++)
+		for (i=0; i<blocksize; i++)
 			tempblock[i] = 0;
 		try {
 			commitDataBlock(blocknum,tempblock);
@@ -336,7 +636,7 @@ class Disk extends RemoteServer implements TOSDisk
 	public void freeSpace(int blocknum) throws RemoteException
 	{
 		try {
-			freelist.freeSpace(blocknum);
+			freelistFor(blocknum).freeSpace(blocknum);
 		} catch (IOException e) {
 			// brush it off for now....have to deal later
 		}
@@ -352,8 +652,8 @@ class Disk extends RemoteServer implements TOSDisk
 		return getNode(0);
 	}
 
-	/** Creates a new file.  The first index block and data block are 
-	 * allocated and assigned to the new inode.
+	/** Creates a new file in the default pool.  The first index block and 
+	 * data block are allocated and assigned to the new inode.
 	 * @param filenum Inode number of new file.
 	 * @param filename Name of new file.
 	 * @exception RemoteException if an RMI error occurs.
@@ -363,18 +663,54 @@ class Disk extends RemoteServer implements TOSDisk
 	public Inode createFile(int filenum, String filename) 
 		throws RemoteException, IOException, DiskFullException
 	{
+		return createFile(filenum,filename,0);
+	}
+	
+	/** Creates a new file in the pool suited to its expected size.  The 
+	 * first index block and data block are allocated and assigned to the 
+	 * new inode.  If the chosen pool is full, the other pools are tried
+	 * in turn.
+	 * @param filenum Inode number of new file.
+	 * @param filename Name of new file.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 * @see #choosePool
+	 */
+	public Inode createFile(int filenum, String filename, long sizehint) 
+		throws RemoteException, IOException, DiskFullException
+	{
+		int pool = choosePool(sizehint);
 		int iblocknum;
-		synchronized (freelist) {
-			iblocknum = freelist.allocateSpace();
+		try {
+			iblocknum = allocateBlock(pool);
+		} catch (DiskFullException e) {
+			pool = -1;
+			iblocknum = -1;
+			FreeList[] freelists = this.freelists;
+			for (int i=0; i<freelists.length && pool<0; i++)
+				if (!freelists[i].empty())
+				{
+					try {
+						iblocknum = allocateBlock(i);
+						pool = i;
+					} catch (DiskFullException f) {
+						// try the next one
+					}
+				}
+			if (pool<0)
+				throw e;
 		}
-		IndexBlock iblock = new IndexBlock(iblocknum,
-										   superblock.iblockarraysize);
+		BlockPool bpool = superblock.poolOf(iblocknum);
+		IndexBlock iblock = new IndexBlock(iblocknum,bpool.iblockarraysize);
 		try {
 			newDataBlock(iblock);
 		} catch (RemoteException e) {
 			// this one won't happen when executed locally
 		}
 		Inode inode = new Inode(filenum, filename, iblock);
+		inode.blocksize = bpool.blocksize;
 		inode.commit(file,superblock);
 		commitIndexBlock(iblock);
 		return inode;
@@ -390,6 +726,12 @@ class Disk extends RemoteServer implements TOSDisk
 	{
 		inode.isUsed = false;
 		try {
+			Inode ondisk = getNode(inode.Number);
+			if (ondisk.tailblock!=0)
+				fragmentsFor(ondisk.tailblock).release(ondisk.tailblock,ondisk.tailoffset,
+								  ondisk.tailLength());
+			inode.tailblock = 0;
+			inode.tailoffset = 0;
 			inode.commit(file,superblock);
 		} catch (IOException e) {
 			// brush off
@@ -409,156 +751,1948 @@ class Disk extends RemoteServer implements TOSDisk
 		return retnode;
 	}
 
-	/** Update the on-disk copy of an inode.  The Modified field is set to
-	 * the current date.
-	 * @param inode Inode to update.
- 	 * @exception RemoteException if an RMI error occurs.
+	/** Pins a file in place while a caller has it open.
+	 * <p>Waits if the defragmenter is moving the file, then returns the
+	 * file's inode as it is once the move is done.
+	 * @param filenum Inode number of the file.
+	 * @return the file's current inode.
+	 * @exception RemoteException if an RMI error occurs.
 	 * @exception IOException if an I/O error occurs.
 	 */
-	public void updateNode(Inode inode) throws RemoteException, IOException
+	public Inode pinFile(int filenum) throws RemoteException, IOException
 	{
-		inode.Modified = new Date();
-		inode.commit(file,superblock);	
+		Integer key = new Integer(filenum);
+		synchronized (pins) {
+			while (moving==filenum)
+			{
+				try {
+					pins.wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			Integer count = (Integer)pins.get(key);
+			if (count==null)
+				pins.put(key,new Integer(1));
+			else
+				pins.put(key,new Integer(count.intValue()+1));
+		}
+		return getNode(filenum);
 	}
-
-	/** Allocates a new inode number.
-	 * @return the new number
- 	 * @exception RemoteException if an RMI error occurs.
- 	 * @exception FilesFullException if there are no more inodes available.
-	 * @exception IOException if an I/O error occurs.
+	
+	/** Releases a pin taken by <code>pinFile</code>.
+	 * @param filenum Inode number of the file.
+	 * @exception RemoteException if an RMI error occurs.
 	 */
-	public int newInode() 
-		throws RemoteException, FilesFullException, IOException
+	public void unpinFile(int filenum) throws RemoteException
 	{
-		// we do a vertical scan of the physical file, looking at each inode
-		// in the file, until we find a one marked unused, allocate it
-		synchronized (file) {
-			file.seek(superblock.inodestart);
-			int num;
-			boolean isUsed;
-			while (file.getFilePointer() < superblock.datastart)
-			{
-				num = file.readInt();
-				isUsed = file.readBoolean();
-				if (!isUsed)
-					return num;
-				file.skipBytes(superblock.inodesize - (4 + 1));
+		Integer key = new Integer(filenum);
+		synchronized (pins) {
+			Integer count = (Integer)pins.get(key);
+			if (count==null)
+				return;
+			if (count.intValue()<=1)
+				pins.remove(key);
+			else
+				pins.put(key,new Integer(count.intValue()-1));
+		}
+	}
+	
+	/** Opens a file and returns a handle for it.
+	 * <p>The disk keeps the file's state until <code>closeFile</code> is
+	 * called, and the file is pinned meanwhile.  Files opened for writing 
+	 * are created if they do not exist.  Directories can only be opened 
+	 * for reading.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param mode "r" to read, "w" to write from an empty file, or "a" to
+	 *             write to the file as it stands.
+	 * @param password File's password, "" if it has none.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @return handle of the open file.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the mode is invalid,
+	 *                        or a directory is opened for writing.
+	 * @exception NotFoundException if the file cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception FilesFullException if there are no more inodes available.
+	 * @exception DiskFullException if the disk is full.
+	 * @see OpenFile
+	 */
+	public int openFile(String path, String mode, String password, 
+						long sizehint) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, FilesFullException, 
+			   DiskFullException
+	{
+		int num;
+		if (mode.equals("w"))
+			num = createFile(path,false,sizehint).Number;
+		else if (mode.equals("r") || mode.equals("a"))
+			num = lookupPath(path);
+		else
+			throw new IOException("Invalid mode");
+		Inode inode = pinFile(num);
+		boolean opened = false;
+		try {
+			if (!inode.isUsed || inode.isDead)
+				throw new NotFoundException();
+			if (inode.isDirectory && !mode.equals("r"))
+				throw new IOException("Directories cannot be written");
+			boolean allowed = mode.equals("r") ? inode.canRead : inode.canWrite;
+			if (!allowed && !inode.Password.equals(password))
+				throw new InvalidPasswordException();
+			if (!mode.equals("r"))
+				inode = unpackTail(num);
+			OpenFile open = new OpenFile(this,inode,mode);
+			int handle;
+			synchronized (sessions) {
+				handle = nexthandle++;
+				sessions.put(new Integer(handle),open);
 			}
-			throw new FilesFullException();
+			opened = true;
+			return handle;
+		} finally {
+			if (!opened)
+				unpinFile(num);
 		}
 	}
 	
-	/** Creates a new index block.
-	 * @param filenum Inode number of the file.
-	 * @param parent Last index block in the file.
-	 * @return the new index block.
-	 * @exception IOException if an I/O error occurs.
+	/** Writes a whole file in one call, creating it if it does not exist.
+	 * <p>Meant for small files: the name is resolved, the file created or
+	 * opened, its contents written into a new chain of blocks and its 
+	 * inode committed, all inside the disk.  Readers see either the old 
+	 * contents or the new ones.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @param data New contents of the file.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the file is a 
+	 *                        directory.
+	 * @exception NotFoundException if the file's directory cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception FilesFullException if there are no more inodes available.
 	 * @exception DiskFullException if the disk is full.
+	 * @see BlockWriter
 	 */
-	public IndexBlock newIndexBlock(int filenum, IndexBlock parent) 
-		throws IOException, DiskFullException
+	public void putFile(String path, String password, byte[] data) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, FilesFullException, 
+			   DiskFullException
 	{
-		int blocknum;
+		int num = createFile(path,false,data.length).Number;
+		Inode inode = pinFile(num);
 		try {
-			synchronized (freelist) {
-				blocknum = freelist.allocateSpace();
-			} 
-		} catch (EmptyStackException e) {
-			throw new DiskFullException();
+			if (!inode.isUsed || inode.isDead)
+				throw new NotFoundException();
+			if (inode.isDirectory)
+				throw new IOException("Directories cannot be written");
+			if (!inode.canWrite && !inode.Password.equals(password))
+				throw new InvalidPasswordException();
+			BlockWriter writer = new BlockWriter(this,inode,data.length);
+			try {
+				writer.write(data,0,data.length);
+				writer.finish();
+			} catch (IOException e) {
+				writer.abort();
+				throw e;
+			} catch (DiskFullException e) {
+				writer.abort();
+				throw e;
+			}
+		} finally {
+			unpinFile(num);
 		}
-		IndexBlock niblock = new IndexBlock(blocknum,
-											superblock.iblockarraysize);
-		parent.setChild(blocknum);
-		return niblock; 
 	}
-
-	/** Retrieves an index block from the disk file.
-	 * @param iblocknum Number of block to retrieve.
- 	 * @exception RemoteException if an RMI error occurs.
-	 * @exception IOException if an I/O error occurs. 
+	
+	/** Reads a whole file in one call.
+	 * <p>Meant for small files: the name is resolved and the contents 
+	 * read inside the disk, and returned together.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @return contents of the file.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the file is too 
+	 *                        large to return in one array.
+	 * @exception NotFoundException if the file cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @see BlockReader
 	 */
-	public IndexBlock retrieveIndexBlock(int iblocknum) 
-		throws RemoteException, IOException
+	public byte[] getFile(String path, String password) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException
 	{
-		IndexBlock iblock = new IndexBlock(iblocknum,
-										   superblock.iblockarraysize);
-		synchronized (file) {
-			file.seek(superblock.datastart+iblocknum*superblock.blocksize);
-			iblock.read(file);
+		int num = lookupPath(path);
+		Inode inode = pinFile(num);
+		try {
+			if (!inode.isUsed || inode.isDead)
+				throw new NotFoundException();
+			if (!inode.canRead && !inode.Password.equals(password))
+				throw new InvalidPasswordException();
+			if (inode.size>Integer.MAX_VALUE)
+				throw new IOException("File too large");
+			BlockReader reader = new BlockReader(this,inode);
+			ByteArrayOutputStream contents = new ByteArrayOutputStream((int)inode.size);
+			byte[] buffer = new byte[reader.bufferSize(COPY_BLOCKS)];
+			int n;
+			while ((n = reader.read(buffer))>=0)
+				contents.write(buffer,0,n);
+			return contents.toByteArray();
+		} finally {
+			unpinFile(num);
 		}
-		return iblock;
 	}
-
-	/** Writes an index block to disk.
-	 * @param iblock Index block to write.
- 	 * @exception RemoteException if an RMI error occurs.
-	 * @exception IOException if an I/O error occurs. 
+	
+	/** Returns the state of an open file.
+	 * @param handle Handle of the file.
+	 * @return the open file.
+	 * @exception IOException if the handle is not that of an open file.
 	 */
-	public void commitIndexBlock(IndexBlock iblock) 
-		throws RemoteException, IOException
+	OpenFile session(int handle) throws IOException
 	{
-		synchronized(file) {
-			file.seek(superblock.datastart+
-					  iblock.blocknum*superblock.blocksize);
-			iblock.write(file);
+		OpenFile open = (OpenFile)sessions.get(new Integer(handle));
+		if (open==null)
+			throw new IOException("Invalid file handle");
+		open.touched = System.currentTimeMillis();
+		return open;
+	}
+	
+	/** Closes the files opened by handle that have gone unused for longer
+	 * than <code>SESSION_TIMEOUT</code>, so that a client that died with 
+	 * a file open does not keep it pinned.  Called by the reclaimer.
+	 */
+	void expireSessions()
+	{
+		long now = System.currentTimeMillis();
+		Vector expired = new Vector();
+		synchronized (sessions) {
+			Enumeration handles = sessions.keys();
+			while (handles.hasMoreElements())
+			{
+				Integer handle = (Integer)handles.nextElement();
+				OpenFile open = (OpenFile)sessions.get(handle);
+				if (now-open.touched>SESSION_TIMEOUT)
+					expired.addElement(handle);
+			}
+		}
+		for (int i=0; i<expired.size(); i++)
+		{
+			try {
+				closeFile(((Integer)expired.elementAt(i)).intValue());
+			} catch (Exception e) {
+				Debug.ErrorMessage("expireSessions",e.toString());
+			}
 		}
-		return;
 	}
-
-	/** Retrieves a data block from disk.
-	 * @param blocknum Number of block to retrieve.
- 	 * @exception RemoteException if an RMI error occurs.
-	 * @exception IOException if an I/O error occurs. 
+	
+	/** Drops the transfers from other disks whose next part has not 
+	 * arrived for longer than <code>RECEIVE_TIMEOUT</code>, so that a 
+	 * sender that died part way does not keep the file pinned and its 
+	 * new blocks taken.  Called by the reclaimer.
 	 */
-	public byte[] retrieveDataBlock(int blocknum) 
-		throws RemoteException, IOException
+	void expireReceivers()
 	{
-		byte[] block = new byte[superblock.blocksize];
-		synchronized (file) {
-			file.seek(superblock.datastart + blocknum * superblock.blocksize);
+		long now = System.currentTimeMillis();
+		Vector expired = new Vector();
+		synchronized (receivers) {
+			Vector keys = new Vector();
+			Enumeration e = receivers.keys();
+			while (e.hasMoreElements())
+				keys.addElement(e.nextElement());
+			for (int i=0; i<keys.size(); i++)
+			{
+				BlockWriter writer = (BlockWriter)receivers.get(keys.elementAt(i));
+				if (now-writer.touched>RECEIVE_TIMEOUT)
+				{
+					receivers.remove(keys.elementAt(i));
+					expired.addElement(writer);
+				}
+			}
+		}
+		for (int i=0; i<expired.size(); i++)
+		{
+			BlockWriter writer = (BlockWriter)expired.elementAt(i);
 			try {
-				file.read(block,0,superblock.blocksize);
-			} catch (NullPointerException e) {
-				Debug.ErrorMessage("retrieve",e.getMessage());
+				writer.abort();
+			} catch (Exception e) {
+				Debug.ErrorMessage("expireReceivers",e.toString());
+			}
+			try {
+				unpinFile(writer.inode.Number);
+			} catch (RemoteException e) {
+				// not thrown locally
 			}
 		}
-		return block;
 	}
-
-	/** Writes a data block to disk.
-	 * @param blocknum Number of block to write.
-	 * @param block Content of data block.
- 	 * @exception RemoteException if an RMI error occurs.
-	 * @exception IOException if an I/O error occurs. 
+	
+	/** Reads from an open file.
+	 * @param handle Handle of the file.
+	 * @param offset Position in the file to read from.
+	 * @param length Greatest number of bytes to read.
+	 * @return the bytes read, fewer than asked for only at the end of the
+	 *         file, and none past it.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the handle is 
+	 *                        invalid.
 	 */
-	public void commitDataBlock(int blocknum, byte[] block) 
+	public byte[] readFile(int handle, long offset, int length) 
 		throws RemoteException, IOException
 	{
-		synchronized (file)
-		{
-			file.seek(superblock.datastart+blocknum*superblock.blocksize);
-			file.write(block);
+		return session(handle).read(offset,length);
+	}
+	
+	/** Writes to an open file.
+	 * @param handle Handle of the file.
+	 * @param offset Position in the file to write at, no further than its
+	 *               current end.
+	 * @param data Bytes to write.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the handle is 
+	 *                        invalid, the file is open for reading only,
+	 *                        or the offset is past the end of the file.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	public void writeFile(int handle, long offset, byte[] data) 
+		throws RemoteException, IOException, DiskFullException
+	{
+		session(handle).write(offset,data);
+	}
+	
+	/** Returns the current length of an open file.
+	 * @param handle Handle of the file.
+	 * @return length of the file in bytes.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if the handle is invalid.
+	 */
+	public long getFileLength(int handle) throws RemoteException, IOException
+	{
+		return session(handle).size;
+	}
+	
+	/** Closes an open file, writing back its index blocks and inode, and
+	 * releases its handle.
+	 * @param handle Handle of the file.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the handle is 
+	 *                        invalid.
+	 */
+	public void closeFile(int handle) throws RemoteException, IOException
+	{
+		OpenFile open;
+		synchronized (sessions) {
+			open = session(handle);
+			sessions.remove(new Integer(handle));
+		}
+		try {
+			open.close();
+		} finally {
+			unpinFile(open.inode.Number);
 		}
-
 	}
 	
-	/** Writes a mount point to the superblock.
-	 * @param mountpt New mount point.
-	 * @exception RemoteException if an RMI problem occurs.	 
+	/** Starts a background defragmentation pass, unless one is running.
+	 * @param throttle Pause after each block copied, in milliseconds.
+	 * @return <code>true</code> if a new pass was started.
+	 * @exception RemoteException if an RMI error occurs.
 	 */
-	public void mount(String mountpt) throws RemoteException, IOException
+	public synchronized boolean startDefragmenter(long throttle) 
+		throws RemoteException
 	{
-		superblock.mount(mountpt);
-		superblock.commit(file);
+		if (defragmenter!=null && defragmenter.running)
+			return false;
+		defragmenter = new Defragmenter(this,throttle);
+		Thread thread = new Thread(defragmenter);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+		return true;
 	}
 	
-	/** Returns the size of a data block in this disk.
-	 * @return the size of a data block in this disk.
-	 * @exception RemoteException if an RMI problem occurs.	 
+	/** Stops the background defragmentation pass, if one is running.
+	 * The file being moved, if any, is finished first.
+	 * @exception RemoteException if an RMI error occurs.
 	 */
-	public int getBlockSize() throws RemoteException
+	public synchronized void stopDefragmenter() throws RemoteException
 	{
-		return superblock.blocksize;
+		if (defragmenter!=null)
+			defragmenter.running = false;
+	}
+	
+	/** Returns the fragmentation score of a file.
+	 * <p>The score is the fraction of the file's blocks, index blocks 
+	 * included, that do not directly follow the block read before them.
+	 * A contiguous file scores 0, a completely scattered one 1.
+	 * @param filenum Inode number of the file.
+	 * @return the file's fragmentation score.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public double getFragmentation(int filenum) throws RemoteException, 
+													   IOException
+	{
+		int[] score = countBreaks(indexChain(getNode(filenum)));
+		if (score[1]==0)
+			return 0;
+		return (double)score[0]/score[1];
+	}
+	
+	/** Returns the fragmentation score of the disk.
+	 * <p>This is the score over the blocks of all regular files taken 
+	 * together, so large files weigh more than small ones.  Directories
+	 * are left out, as the defragmenter does not move them.
+	 * @return the disk's fragmentation score.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public double getFragmentation() throws RemoteException, IOException
+	{
+		int breaks = 0;
+		int pairs = 0;
+		for (int i=1; i<superblock.numfiles; i++)
+		{
+			Inode node = getNode(i);
+			if (!node.isUsed || node.isDead || node.isDirectory)
+				continue;
+			int[] score = countBreaks(indexChain(node));
+			breaks += score[0];
+			pairs += score[1];
+		}
+		if (pairs==0)
+			return 0;
+		return (double)breaks/pairs;
+	}
+	
+	/** Returns the index blocks of a file, in order.
+	 * @param inode Inode of the file.
+	 * @return <code>Vector</code> of <code>IndexBlock</code>s.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	Vector indexChain(Inode inode) throws IOException
+	{
+		Vector chain = new Vector();
+		IndexBlock iblock = retrieveIndexBlock(inode.firstindexblock);
+		chain.addElement(iblock);
+		while (iblock.blocknum!=inode.lastindexblock 
+			   && iblock.BlocksUsed[iblock.size-1]!=IndexBlock.UNUSED)
+		{
+			iblock = retrieveIndexBlock(iblock.BlocksUsed[iblock.size-1]);
+			chain.addElement(iblock);
+		}
+		return chain;
+	}
+	
+	/** Counts the breaks in a file's blocks, in the order they are read.
+	 * @param chain Index blocks of the file.
+	 * @return a two-element array of the number of blocks that do not
+	 *         follow the one before, and the number of blocks after the
+	 *         first.
+	 */
+	int[] countBreaks(Vector chain)
+	{
+		int[] score = { 0, 0 };
+		int prev = -1;
+		for (int i=0; i<chain.size(); i++)
+		{
+			IndexBlock iblock = (IndexBlock)chain.elementAt(i);
+			for (int j=-1; j<iblock.size-1; j++)
+			{
+				int blocknum;
+				if (j<0)
+					blocknum = iblock.blocknum;
+				else
+					blocknum = iblock.BlocksUsed[j];
+				if (blocknum==IndexBlock.UNUSED || blocknum==IndexBlock.TAIL)
+					break;
+				if (prev>=0)
+				{
+					score[1]++;
+					if (blocknum!=prev+1)
+						score[0]++;
+				}
+				prev = blocknum;
+			}
+		}
+		return score;
+	}
+	
+	/** Moves a file's blocks into a contiguous run.
+	 * <p>Each index block is placed just before the data blocks it lists.
+	 * The blocks are copied into the new run and the new index blocks 
+	 * written before the inode is switched over to them; the old blocks 
+	 * are freed afterward.  A crash part way through leaves the file as 
+	 * it was.  Open files and directories are left alone.
+	 * @param filenum Inode number of the file.
+	 * @param throttle Pause after each block copied, in milliseconds.
+	 * @return <code>true</code> if the file was moved.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception InterruptedException if the pass is interrupted.
+	 */
+	boolean defragmentFile(int filenum, long throttle) 
+		throws IOException, InterruptedException
+	{
+		synchronized (pins) {
+			if (pins.containsKey(new Integer(filenum)))
+				return false;
+			moving = filenum;
+		}
+		try {
+			Inode inode = getNode(filenum);
+			if (!inode.isUsed || inode.isDead || inode.isDirectory)
+				return false;
+			Vector chain = indexChain(inode);
+			int[] score = countBreaks(chain);
+			if (score[0]==0)
+				return false;
+			int count = score[1]+1;
+			int first = allocateRun(poolIndex(inode.firstindexblock),count);
+			if (first<0)
+				return false;
+			
+			IndexBlock[] newchain = new IndexBlock[chain.size()];
+			Vector oldblocks = new Vector();
+			int lastindexblock = inode.lastindexblock;
+			int next = first;
+			try {
+				for (int i=0; i<chain.size(); i++)
+				{
+					IndexBlock iblock = (IndexBlock)chain.elementAt(i);
+					newchain[i] = new IndexBlock(next++,iblock.size);
+					if (i>0)
+						newchain[i-1].setChild(newchain[i].blocknum);
+					if (iblock.blocknum==inode.lastindexblock)
+						lastindexblock = newchain[i].blocknum;
+					oldblocks.addElement(new Integer(iblock.blocknum));
+					for (int j=0; j<iblock.size-1; j++)
+					{
+						int blocknum = iblock.BlocksUsed[j];
+						if (blocknum==IndexBlock.UNUSED)
+							break;
+						if (blocknum==IndexBlock.TAIL)
+						{
+							newchain[i].BlocksUsed[j] = IndexBlock.TAIL;
+							break;
+						}
+						commitDataBlock(next,retrieveDataBlock(blocknum));
+						newchain[i].BlocksUsed[j] = next++;
+						oldblocks.addElement(new Integer(blocknum));
+						if (throttle>0)
+							Thread.sleep(throttle);
+					}
+				}
+				for (int i=0; i<newchain.length; i++)
+					commitIndexBlock(newchain[i]);
+			} catch (InterruptedException e) {
+				freeRun(first,count);
+				throw e;
+			} catch (IOException e) {
+				freeRun(first,count);
+				throw e;
+			}
+			
+			// a rename or link may have changed the inode meanwhile
+			Object lock = holdNodeLock(filenum);
+			try {
+				synchronized (lock) {
+					inode = getNode(filenum);
+					inode.firstindexblock = newchain[0].blocknum;
+					inode.lastindexblock = lastindexblock;
+					inode.iblock = newchain[0];
+					inode.commit(file,superblock);
+				}
+			} finally {
+				dropNodeLock(filenum);
+			}
+			freeBlocks(oldblocks);
+			return true;
+		} finally {
+			synchronized (pins) {
+				moving = -1;
+				pins.notifyAll();
+			}
+		}
+	}
+	
+	/** Returns the index and data blocks of a file.  A packed tail is 
+	 * not included.
+	 * @param inode Inode of the file.
+	 * @return <code>Vector</code> of <code>Integer</code> block numbers.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	Vector fileBlocks(Inode inode) throws IOException
+	{
+		Vector blocks = new Vector();
+		Vector chain = indexChain(inode);
+		for (int i=0; i<chain.size(); i++)
+		{
+			IndexBlock iblock = (IndexBlock)chain.elementAt(i);
+			blocks.addElement(new Integer(iblock.blocknum));
+			for (int j=0; j<iblock.size-1; j++)
+			{
+				int blocknum = iblock.BlocksUsed[j];
+				if (blocknum==IndexBlock.UNUSED || blocknum==IndexBlock.TAIL)
+					break;
+				blocks.addElement(new Integer(blocknum));
+			}
+		}
+		return blocks;
+	}
+	
+	/** Reads a run of consecutive blocks of one pool with a single 
+	 * positional read.
+	 * @param first First block of the run.
+	 * @param count Number of blocks.
+	 * @param buffer Buffer to read into.
+	 * @param off Offset in the buffer.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void readBlocks(int first, int count, byte[] buffer, int off) 
+		throws IOException
+	{
+		BlockPool pool = superblock.poolOf(first);
+		ByteBuffer buf = ByteBuffer.wrap(buffer,off,count*pool.blocksize);
+		long position = pool.offset(first);
+		FileChannel channel = file.getChannel();
+		while (buf.hasRemaining())
+		{
+			if (channel.read(buf,position+buf.position()-off)<0)
+				break; // past the end of the file, leave zeroes
+		}
+	}
+	
+	/** Writes a run of consecutive blocks of one pool with a single
+	 * positional write.
+	 * @param first First block of the run.
+	 * @param count Number of blocks.
+	 * @param buffer Buffer to write from.
+	 * @param off Offset in the buffer.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void writeBlocks(int first, int count, byte[] buffer, int off) 
+		throws IOException
+	{
+		BlockPool pool = superblock.poolOf(first);
+		ByteBuffer buf = ByteBuffer.wrap(buffer,off,count*pool.blocksize);
+		long position = pool.offset(first);
+		FileChannel channel = file.getChannel();
+		while (buf.hasRemaining())
+			channel.write(buf,position+buf.position()-off);
+	}
+	
+	/** Copies the contents of one file on this disk over another.
+	 * <p>The copy is made entirely inside the disk.  The destination gets
+	 * a new chain of blocks from its own pool class, and its old blocks
+	 * are freed once the copy is complete.  Both files are pinned while 
+	 * the copy is made.
+	 * @param srcnum Inode number of the source file.
+	 * @param destnum Inode number of the destination file.
+	 * @return the destination's updated inode.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 * @see BlockReader
+	 * @see BlockWriter
+	 */
+	public Inode copyFile(int srcnum, int destnum) 
+		throws RemoteException, IOException, DiskFullException
+	{
+		if (srcnum==destnum)
+			return getNode(destnum);
+		Inode src = pinFile(srcnum);
+		try {
+			Inode dest = pinFile(destnum);
+			try {
+				BlockReader reader = new BlockReader(this,src);
+				BlockWriter writer = new BlockWriter(this,dest,src.size);
+				byte[] buffer = new byte[reader.bufferSize(COPY_BLOCKS)];
+				try {
+					int n;
+					while ((n = reader.read(buffer))>=0)
+						writer.write(buffer,0,n);
+					return writer.finish();
+				} catch (IOException e) {
+					writer.abort();
+					throw e;
+				} catch (DiskFullException e) {
+					writer.abort();
+					throw e;
+				}
+			} finally {
+				unpinFile(destnum);
+			}
+		} finally {
+			unpinFile(srcnum);
+		}
+	}
+	
+	/** Copies the contents of a file on this disk over a file on another 
+	 * disk.
+	 * <p>The file is read here and streamed to the other disk with 
+	 * <code>receiveFile</code>, <code>COPY_BLOCKS</code> blocks at a time.
+	 * @param srcnum Inode number of the source file.
+	 * @param dest Disk holding the destination file.
+	 * @param destnum Inode number of the destination file.
+	 * @return the destination's updated inode.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the destination disk is full.
+	 */
+	public Inode sendFile(int srcnum, TOSDisk dest, int destnum) 
+		throws RemoteException, IOException, DiskFullException
+	{
+		Inode src = pinFile(srcnum);
+		try {
+			BlockReader reader = new BlockReader(this,src);
+			byte[] buffer = new byte[reader.bufferSize(COPY_BLOCKS)];
+			long offset = 0;
+			int n;
+			while ((n = reader.read(buffer))>=0)
+			{
+				byte[] chunk = buffer;
+				if (n<buffer.length)
+				{
+					chunk = new byte[n];
+					System.arraycopy(buffer,0,chunk,0,n);
+				}
+				dest.receiveFile(destnum,src.size,offset,chunk,false);
+				offset += n;
+			}
+			return dest.receiveFile(destnum,src.size,offset,new byte[0],true);
+		} finally {
+			unpinFile(srcnum);
+		}
+	}
+	
+	/** Receives part of a file streamed from another disk.
+	 * <p>The first part, at offset 0, starts new contents for the file,
+	 * dropping any earlier transfer to it that was not completed.  The 
+	 * file keeps its old contents until the last part arrives.  A 
+	 * transfer whose next part does not arrive within 
+	 * <code>RECEIVE_TIMEOUT</code> is dropped by 
+	 * <code>expireReceivers</code>.
+	 * @param filenum Inode number of the destination file.
+	 * @param size Size of the whole file, in bytes.
+	 * @param offset Offset of this part within the file.
+	 * @param data Contents of this part.
+	 * @param last <code>true</code> if this is the last part.
+	 * @return the file's updated inode after the last part, otherwise 
+	 *         <code>null</code>.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the part does not
+	 *                        follow on from the one before.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	public Inode receiveFile(int filenum, long size, long offset, 
+							 byte[] data, boolean last) 
+		throws RemoteException, IOException, DiskFullException
+	{
+		Integer key = new Integer(filenum);
+		// pinning may wait for the defragmenter, so it is done before
+		// taking the receivers' lock
+		Inode pinned = null;
+		if (offset==0)
+			pinned = pinFile(filenum);
+		BlockWriter writer;
+		try {
+			synchronized (receivers) {
+				writer = (BlockWriter)receivers.remove(key);
+				if (offset==0)
+				{
+					if (writer!=null)
+					{
+						writer.abort();
+						unpinFile(filenum);
+					}
+					writer = new BlockWriter(this,pinned,size);
+					pinned = null;
+				}
+				else if (writer==null || writer.size!=offset)
+				{
+					if (writer!=null)
+					{
+						writer.abort();
+						unpinFile(filenum);
+					}
+					throw new IOException("File transfer out of sequence");
+				}
+			}
+		} finally {
+			if (pinned!=null)
+				unpinFile(filenum);
+		}
+		try {
+			writer.write(data,0,data.length);
+			if (!last)
+			{
+				writer.touched = System.currentTimeMillis();
+				receivers.put(key,writer);
+				return null;
+			}
+			Inode inode = writer.finish();
+			unpinFile(filenum);
+			return inode;
+		} catch (IOException e) {
+			writer.abort();
+			unpinFile(filenum);
+			throw e;
+		} catch (DiskFullException e) {
+			writer.abort();
+			unpinFile(filenum);
+			throw e;
+		}
+	}
+	
+	/** Returns the inode number of a file, given its path on this disk.
+	 * @param path Path relative to the disk's root.
+	 * @return inode number.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception NotFoundException if there is no such file.
+	 */
+	int lookupPath(String path) throws IOException, NotFoundException
+	{
+		int num = 0;
+		StringTokenizer names = new StringTokenizer(path,TOSFile.separator);
+		while (names.hasMoreTokens())
+		{
+			num = lookupEntry(num,names.nextToken());
+			if (num<0)
+				throw new NotFoundException();
+		}
+		return num;
+	}
+	
+	/** Returns the path of a file's parent directory.
+	 * @param path Path of the file.
+	 * @return path of its parent, "" for the root.
+	 */
+	static String parentPath(String path)
+	{
+		int loc = path.lastIndexOf(TOSFile.separator);
+		if (loc<0)
+			return "";
+		return path.substring(0,loc);
+	}
+	
+	/** Returns the last component of a path.
+	 * @param path Path of a file.
+	 * @return the file's name within its directory.
+	 */
+	static String baseName(String path)
+	{
+		return path.substring(path.lastIndexOf(TOSFile.separator)
+							  + TOSFile.separator.length());
+	}
+	
+	/** Returns the lock held while a directory is read or changed on the
+	 * disk's behalf.  Where two directories must be locked at once, the 
+	 * one with the lower inode number is locked first.
+	 * <p>Every call must be matched by a call to <code>dropDirLock</code>
+	 * once the caller has finished with the lock, so that locks of 
+	 * directories no longer in use are forgotten.
+	 * @param dirnum Inode number of the directory.
+	 * @return the directory's lock.
+	 */
+	Object holdDirLock(int dirnum)
+	{
+		return holdLock(dirlocks,dirnum);
+	}
+	
+	/** Gives up a lock obtained with <code>holdDirLock</code>.
+	 * @param dirnum Inode number of the directory.
+	 */
+	void dropDirLock(int dirnum)
+	{
+		dropLock(dirlocks,dirnum);
+	}
+	
+	/** Returns the lock held while an inode is read, changed and written
+	 * back, so that callers changing different fields of it do not undo 
+	 * each other's changes.  No directory lock may be taken while it is
+	 * held.
+	 * <p>Every call must be matched by a call to <code>dropNodeLock</code>.
+	 * @param filenum Inode number of the file.
+	 * @return the inode's lock.
+	 */
+	Object holdNodeLock(int filenum)
+	{
+		return holdLock(nodelocks,filenum);
+	}
+	
+	/** Gives up a lock obtained with <code>holdNodeLock</code>.
+	 * @param filenum Inode number of the file.
+	 */
+	void dropNodeLock(int filenum)
+	{
+		dropLock(nodelocks,filenum);
+	}
+	
+	/** Returns the lock of a number from a table of counted locks, 
+	 * creating it if need be, and counts the caller as a user.
+	 * @param locks Table of locks.
+	 * @param num Number the lock is kept under.
+	 * @return the lock.
+	 */
+	static Object holdLock(Hashtable locks, int num)
+	{
+		Integer key = new Integer(num);
+		synchronized (locks) {
+			CountedLock lock = (CountedLock)locks.get(key);
+			if (lock==null)
+			{
+				lock = new CountedLock();
+				locks.put(key,lock);
+			}
+			lock.users++;
+			return lock;
+		}
+	}
+	
+	/** Stops counting the caller as a user of a lock, and drops the lock
+	 * from its table once it has no users.
+	 * @param locks Table of locks.
+	 * @param num Number the lock is kept under.
+	 */
+	static void dropLock(Hashtable locks, int num)
+	{
+		Integer key = new Integer(num);
+		synchronized (locks) {
+			CountedLock lock = (CountedLock)locks.get(key);
+			if (--lock.users==0)
+				locks.remove(key);
+		}
+	}
+	
+	/** Reads a directory and checks that it is a live directory.  The 
+	 * caller must hold the directory's lock.
+	 * @param dirnum Inode number of the directory.
+	 * @return the directory's entries.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception NotFoundException if it is not a directory, or has been
+	 *                              deleted.
+	 */
+	Directory openDirectory(int dirnum) throws IOException, NotFoundException
+	{
+		Inode dir = getNode(dirnum);
+		if (!dir.isUsed || dir.isDead || !dir.isDirectory)
+			throw new NotFoundException();
+		return new Directory(this,dir);
+	}
+	
+	/** Checks that a name may be given to a directory entry.
+	 * @param name Name of the entry.
+	 * @exception IOException if the name is empty or too long.
+	 */
+	static void checkName(String name) throws IOException
+	{
+		if (name.length()==0 || name.length()>Inode.MAX_LENGTH)
+			throw new IOException("Invalid file name");
+	}
+	
+	/** Opens a file, creating it if it does not exist.
+	 * <p>The inode and the directory entry are made in one call, under 
+	 * the lock of the parent directory, so concurrent creators in the 
+	 * same directory cannot overwrite each other's entries, and two 
+	 * creators of the same name get the same file.  The inode is written
+	 * before the entry, so a crash in between leaves an unreachable inode
+	 * rather than an entry pointing at nothing.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param isDirectory <code>true</code> to create a directory.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @return the inode of the file, new or existing.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the name is 
+	 *                        invalid.
+	 * @exception NotFoundException if the parent directory cannot be 
+	 *                              found.
+	 * @exception FilesFullException if there are no more inodes available.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	public Inode createFile(String path, boolean isDirectory, long sizehint)
+		throws RemoteException, IOException, NotFoundException, 
+			   FilesFullException, DiskFullException
+	{
+		String name = baseName(path);
+		checkName(name);
+		int parentnum = lookupPath(parentPath(path));
+		Object lock = holdDirLock(parentnum);
+		try {
+			synchronized (lock) {
+				Directory parent = openDirectory(parentnum);
+				int num = parent.lookup(name);
+				if (num>=0)
+					return getNode(num);
+				Inode inode;
+				// the inode is not marked used until createFile commits it
+				synchronized (superblock) {
+					num = newInode();
+					inode = createFile(num,name,sizehint);
+				}
+				if (isDirectory)
+				{
+					inode.isDirectory = true;
+					inode.commit(file,superblock);
+				}
+				parent.add(name,num);
+				try {
+					parent.store();
+				} catch (IOException e) {
+					discardFile(inode);
+					throw e;
+				} catch (DiskFullException e) {
+					discardFile(inode);
+					throw e;
+				}
+				return inode;
+			}
+		} finally {
+			dropDirLock(parentnum);
+		}
+	}
+	
+	/** Gives a file another name.
+	 * <p>A new entry naming the file is added to a directory, and the 
+	 * file's count of extra names increased; the file is then only 
+	 * reclaimed when every name has been deleted.  The count is raised
+	 * before the entry is written, so a crash in between can at worst
+	 * keep the file from ever being reclaimed.  Directories cannot be 
+	 * linked, and legacy disks, which cannot store the count, do not 
+	 * support links at all.
+	 * @param existing Path of the file, relative to the disk's root.
+	 * @param path New path for the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the new name exists 
+	 *                        or is invalid, or the file is a directory.
+	 * @exception NotFoundException if the file or the new name's 
+	 *                              directory cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	public void linkFile(String existing, String path, String password) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, DiskFullException
+	{
+		if (superblock.version==Superblock.LEGACY_VERSION)
+			throw new IOException("Links are not supported on legacy disks");
+		String srcname = baseName(existing);
+		String destname = baseName(path);
+		checkName(destname);
+		int srcparent = lookupPath(parentPath(existing));
+		int destparent = lookupPath(parentPath(path));
+		int first = Math.min(srcparent,destparent);
+		int second = Math.max(srcparent,destparent);
+		Object firstlock = holdDirLock(first);
+		Object secondlock = holdDirLock(second);
+		try {
+			synchronized (firstlock) {
+				synchronized (secondlock) {
+					Directory from = openDirectory(srcparent);
+					int num = from.lookup(srcname);
+					if (num<0)
+						throw new NotFoundException();
+					Inode inode = getNode(num);
+					if (!inode.canWrite && !inode.Password.equals(password))
+						throw new InvalidPasswordException();
+					if (inode.isDirectory)
+						throw new IOException("Cannot link a directory");
+					Directory to = from;
+					if (destparent!=srcparent)
+						to = openDirectory(destparent);
+					if (to.lookup(destname)>=0)
+						throw new IOException("Destination exists");
+					addLinks(num,1);
+					to.add(destname,num);
+					try {
+						to.store();
+					} catch (IOException e) {
+						addLinks(num,-1);
+						throw e;
+					} catch (DiskFullException e) {
+						addLinks(num,-1);
+						throw e;
+					}
+				}
+			}
+		} finally {
+			dropDirLock(second);
+			dropDirLock(first);
+		}
+	}
+	
+	/** Renames or moves a file within this disk.
+	 * <p>Only the directory entries and the inode's name are changed; the
+	 * file's blocks stay where they are, so the cost does not depend on 
+	 * the file's size.  The entry is added to the destination directory
+	 * before it is removed from the source, so a crash in between leaves
+	 * the file reachable by both names rather than by neither.
+	 * @param source Path of the file, relative to the disk's root.
+	 * @param dest New path of the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the destination 
+	 *                        exists, or a directory would be moved into
+	 *                        itself.
+	 * @exception NotFoundException if the source or the destination's 
+	 *                              directory cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	public void renameFile(String source, String dest, String password) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, DiskFullException
+	{
+		String srcname = baseName(source);
+		String destname = baseName(dest);
+		checkName(destname);
+		int srcparent = lookupPath(parentPath(source));
+		int destparent = lookupPath(parentPath(dest));
+		int first = Math.min(srcparent,destparent);
+		int second = Math.max(srcparent,destparent);
+		Object firstlock = holdDirLock(first);
+		Object secondlock = holdDirLock(second);
+		try {
+			synchronized (firstlock) {
+				synchronized (secondlock) {
+					Directory from = openDirectory(srcparent);
+					int num = from.lookup(srcname);
+					if (num<0)
+						throw new NotFoundException();
+					Inode inode = getNode(num);
+					if (!inode.canWrite && !inode.Password.equals(password))
+						throw new InvalidPasswordException();
+					if (inode.isDirectory && (dest+TOSFile.separator).startsWith(source+TOSFile.separator))
+						throw new IOException("Cannot move a directory into itself");
+					Directory to = from;
+					if (destparent!=srcparent)
+						to = openDirectory(destparent);
+					if (to.lookup(destname)>=0)
+						throw new IOException("Destination exists");
+					to.add(destname,num);
+					if (to!=from)
+						to.store();
+					from.remove(srcname);
+					from.store();
+					Object lock = holdNodeLock(num);
+					try {
+						synchronized (lock) {
+							inode = getNode(num);
+							inode.Filename = destname;
+							inode.commit(file,superblock);
+						}
+					} finally {
+						dropNodeLock(num);
+					}
+				}
+			}
+		} finally {
+			dropDirLock(second);
+			dropDirLock(first);
+		}
+	}
+	
+	/** Deletes a file.
+	 * <p>The file's directory entry is removed, under the lock of its 
+	 * directory.  If the file has other names, only its count of extra 
+	 * names is lowered.  Otherwise its inode is marked dead, after which
+	 * the call returns; the reclaimer frees the file's blocks later.  The
+	 * entry goes first, so a crash in between leaves an unreachable inode
+	 * rather than an entry pointing at a freed one.  Legacy disks cannot 
+	 * record the dead mark, so there the blocks are freed before the call
+	 * returns.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the file is a 
+	 *                        directory that is not empty.
+	 * @exception NotFoundException if the file cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	public void deleteFile(String path, String password) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, DiskFullException
+	{
+		String name = baseName(path);
+		int parentnum = lookupPath(parentPath(path));
+		int num = lookupEntry(parentnum,name);
+		while (true)
+		{
+			if (num<=0)
+				throw new NotFoundException();
+			// a directory is locked too, to keep files from being created
+			// in it while it is checked and deleted; the lower number is 
+			// locked first, so the entry is found again once both are held
+			int first = Math.min(parentnum,num);
+			int second = Math.max(parentnum,num);
+			Object firstlock = holdDirLock(first);
+			Object secondlock = holdDirLock(second);
+			try {
+				synchronized (firstlock) {
+					synchronized (secondlock) {
+						Directory parent = openDirectory(parentnum);
+						int found = parent.lookup(name);
+						if (found!=num)
+						{
+							num = found;
+							continue;
+						}
+						// waits for the defragmenter to finish with the file
+						Inode inode = pinFile(num);
+						try {
+							if (!inode.canWrite && !inode.Password.equals(password))
+								throw new InvalidPasswordException();
+							if (inode.isDirectory && (new Directory(this,inode)).names.size()>0)
+								throw new IOException("Directory not empty");
+							parent.remove(name);
+							parent.store();
+							Object lock = holdNodeLock(num);
+							try {
+								synchronized (lock) {
+									// read again, in case an open file 
+									// was closed meanwhile
+									inode = getNode(num);
+									if (inode.extralinks>0)
+									{
+										inode.extralinks--;
+										inode.commit(file,superblock);
+									}
+									else
+										discardFile(inode);
+								}
+							} finally {
+								dropNodeLock(num);
+							}
+						} finally {
+							unpinFile(num);
+						}
+						return;
+					}
+				}
+			} finally {
+				dropDirLock(second);
+				dropDirLock(first);
+			}
+		}
+	}
+	
+	/** Looks up a name in a directory, under the directory's lock.
+	 * @param dirnum Inode number of the directory.
+	 * @param name Name to look up.
+	 * @return inode number of the entry, or a negative number if there 
+	 *         is none.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception NotFoundException if the directory cannot be found.
+	 */
+	int lookupEntry(int dirnum, String name) throws IOException, NotFoundException
+	{
+		Object lock = holdDirLock(dirnum);
+		try {
+			synchronized (lock) {
+				return openDirectory(dirnum).lookup(name);
+			}
+		} finally {
+			dropDirLock(dirnum);
+		}
+	}
+	
+	/** Changes a file's count of extra names, under the inode's lock.
+	 * @param filenum Inode number of the file.
+	 * @param change Amount to add to the count.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void addLinks(int filenum, int change) throws IOException
+	{
+		Object lock = holdNodeLock(filenum);
+		try {
+			synchronized (lock) {
+				Inode inode = getNode(filenum);
+				inode.extralinks += change;
+				inode.commit(file,superblock);
+			}
+		} finally {
+			dropNodeLock(filenum);
+		}
+	}
+	
+	/** Marks a file dead and has its blocks freed.  The file must no 
+	 * longer be named by any directory entry, and the caller must hold 
+	 * the inode's lock if the file may be open.
+	 * @param inode Inode of the file.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void discardFile(Inode inode) throws IOException
+	{
+		if (inode.tailblock!=0)
+			fragmentsFor(inode.tailblock).release(inode.tailblock,
+												  inode.tailoffset,
+												  inode.tailLength());
+		inode.tailblock = 0;
+		inode.tailoffset = 0;
+		inode.isDead = true;
+		inode.commit(file,superblock);
+		if (superblock.version==Superblock.LEGACY_VERSION)
+			freeChain(inode);
+		else
+			reclaimer.add(inode.Number);
+	}
+	
+	/** Frees the blocks of a dead file, unless it is still open.
+	 * @param filenum Inode number of the file.
+	 * @return <code>true</code> if the file was reclaimed, 
+	 *         <code>false</code> if it is open and must be tried again.
+	 * @exception IOException if an I/O error occurs.
+	 * @see #freeChain
+	 */
+	boolean reclaimFile(int filenum) throws IOException
+	{
+		synchronized (pins) {
+			if (pins.containsKey(new Integer(filenum)) || moving==filenum)
+				return false;
+		}
+		Inode inode = getNode(filenum);
+		// legacy disks do not store the dead mark, so a file queued 
+		// there is freed on the strength of being queued
+		if (inode.isUsed && (inode.isDead || 
+							 superblock.version==Superblock.LEGACY_VERSION))
+			freeChain(inode);
+		return true;
+	}
+	
+	/** Frees the blocks a file used before its contents were replaced,
+	 * unless the file is still open.
+	 * @param leftover Blocks to free.
+	 * @return <code>true</code> if the blocks were freed, 
+	 *         <code>false</code> if the file is open and they must be 
+	 *         tried again.
+	 * @exception IOException if an I/O error occurs.
+	 * @see BlockWriter#finish
+	 */
+	boolean reclaimBlocks(Reclaimer.Leftover leftover) throws IOException
+	{
+		synchronized (pins) {
+			if (pins.containsKey(new Integer(leftover.filenum)) 
+				|| moving==leftover.filenum)
+				return false;
+		}
+		freeBlocks(leftover.blocks);
+		if (leftover.tailblock!=0)
+			fragmentsFor(leftover.tailblock).release(leftover.tailblock,
+													 leftover.tailoffset,
+													 leftover.taillength);
+		return true;
+	}
+	
+	/** Frees the blocks of a dead file and marks its inode unused.
+	 * <p>The blocks are freed one index block's worth at a time.  Before
+	 * each batch is freed the inode is moved on to the next index block 
+	 * and committed, so no batch is ever reachable from the inode once 
+	 * freed; a crash can at worst leak the batch being freed.
+	 * @param inode Inode of the file.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void freeChain(Inode inode) throws IOException
+	{
+		IndexBlock iblock = inode.iblock;
+		while (true)
+		{
+			Vector batch = new Vector();
+			batch.addElement(new Integer(iblock.blocknum));
+			for (int j=0; j<iblock.size-1; j++)
+			{
+				int blocknum = iblock.BlocksUsed[j];
+				if (blocknum==IndexBlock.UNUSED || blocknum==IndexBlock.TAIL)
+					break;
+				batch.addElement(new Integer(blocknum));
+			}
+			int child = iblock.BlocksUsed[iblock.size-1];
+			boolean last = (iblock.blocknum==inode.lastindexblock 
+							|| child==IndexBlock.UNUSED);
+			if (last)
+			{
+				inode.isUsed = false;
+				inode.isDead = false;
+				inode.size = 0;
+			}
+			else
+				inode.firstindexblock = child;
+			inode.commit(file,superblock);
+			freeBlocks(batch);
+			if (last)
+				return;
+			iblock = retrieveIndexBlock(child);
+			Thread.yield();
+		}
+	}
+	
+	/** Returns a batch of blocks to the free lists of their pools, with
+	 * one free list write for each run of consecutive blocks.
+	 * @param blocks <code>Vector</code> of <code>Integer</code> block 
+	 *               numbers.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void freeBlocks(Vector blocks) throws IOException
+	{
+		FreeList[] freelists = this.freelists;
+		int[][] batches = byPool(blocks);
+		for (int p=0; p<batches.length; p++)
+			if (batches[p]!=null)
+				freelists[p].freeBlocks(batches[p]);
+	}
+	
+	/** Leases a batch of free blocks to a caller writing a file.
+	 * <p>The caller places the blocks in the file's index blocks itself, 
+	 * instead of asking for each block as it needs it.  A leased block is
+	 * recorded as used on disk only when an index block listing it is 
+	 * committed, so the blocks of a lease never used, because the caller
+	 * crashed, are free again once the disk restarts.  Unused blocks 
+	 * should be given back with <code>returnBlocks</code>.
+	 * @param iblocknum An index block of the file; the blocks are taken 
+	 *                  from its pool class.
+	 * @param count Number of blocks wanted.
+	 * @return numbers of the leased blocks; there may be fewer than asked
+	 *         for, but at least one.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if the index block number is invalid.
+	 * @exception DiskFullException if the pool class has no free blocks.
+	 */
+	public int[] leaseBlocks(int iblocknum, int count) 
+		throws RemoteException, IOException, DiskFullException
+	{
+		BlockPool[] pools = superblock.pools;
+		FreeList[] freelists = this.freelists;
+		int pool = poolIndex(iblocknum);
+		int poolclass = pools[pool].poolclass;
+		count = Math.min(count,MAX_LEASE);
+		for (int i=0; i<pools.length; i++)
+		{
+			int next = (pool+i)%pools.length;
+			if (pools[next].poolclass!=poolclass)
+				continue;
+			synchronized (leased) {
+				int[] blocks = freelists[next].lease(count);
+				for (int j=0; j<blocks.length; j++)
+					leased.put(new Integer(blocks[j]),Boolean.TRUE);
+				if (blocks.length>0)
+					return blocks;
+			}
+		}
+		throw new DiskFullException();
+	}
+	
+	/** Gives back leased blocks that were not used.  Blocks that have 
+	 * been used since, or were never leased, are ignored.
+	 * @param blocks Numbers of the blocks.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public void returnBlocks(int[] blocks) throws RemoteException, IOException
+	{
+		Vector unused = new Vector();
+		synchronized (leased) {
+			for (int i=0; i<blocks.length; i++)
+			{
+				Integer key = new Integer(blocks[i]);
+				if (leased.remove(key)!=null)
+					unused.addElement(key);
+			}
+		}
+		int[][] batches = byPool(unused);
+		for (int p=0; p<batches.length; p++)
+			if (batches[p]!=null)
+				freelists[p].unlease(batches[p]);
+	}
+	
+	/** Records as used on disk any leased blocks an index block lists, 
+	 * itself included.  Called before the index block is written.
+	 * @param iblock Index block about to be written.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void claimLeased(IndexBlock iblock) throws IOException
+	{
+		if (leased.isEmpty())
+			return;
+		Vector claimed = new Vector();
+		synchronized (leased) {
+			Integer self = new Integer(iblock.blocknum);
+			if (leased.remove(self)!=null)
+				claimed.addElement(self);
+			for (int j=0; j<iblock.size; j++)
+			{
+				Integer key = new Integer(iblock.BlocksUsed[j]);
+				if (leased.remove(key)!=null)
+					claimed.addElement(key);
+			}
+		}
+		int[][] batches = byPool(claimed);
+		for (int p=0; p<batches.length; p++)
+			if (batches[p]!=null)
+				freelists[p].markUsed(batches[p]);
+	}
+	
+	/** Sorts a list of blocks by the pool they belong to.
+	 * @param blocks <code>Vector</code> of <code>Integer</code> block 
+	 *               numbers.
+	 * @return the blocks of each pool, indexed by pool, or 
+	 *         <code>null</code> for pools with none.
+	 * @exception IOException if a number is outside every pool.
+	 */
+	int[][] byPool(Vector blocks) throws IOException
+	{
+		int[][] batches = new int[freelists.length][];
+		int[] pool = new int[blocks.size()];
+		int[] count = new int[batches.length];
+		for (int i=0; i<pool.length; i++)
+		{
+			pool[i] = poolIndex(((Integer)blocks.elementAt(i)).intValue());
+			count[pool[i]]++;
+		}
+		for (int p=0; p<batches.length; p++)
+		{
+			if (count[p]==0)
+				continue;
+			batches[p] = new int[count[p]];
+			int n = 0;
+			for (int i=0; i<pool.length; i++)
+				if (pool[i]==p)
+					batches[p][n++] = ((Integer)blocks.elementAt(i)).intValue();
+		}
+		return batches;
+	}
+	
+	/** Returns a run of blocks to the free list.
+	 * @param first First block of the run.
+	 * @param count Number of blocks.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void freeRun(int first, int count) throws IOException
+	{
+		int[] run = new int[count];
+		for (int i=0; i<count; i++)
+			run[i] = first+i;
+		freelistFor(first).freeBlocks(run);
+	}
+	
+	/** Update the on-disk copy of an inode.  The Modified field is set to
+	 * the current date.  Only the fields describing the file's blocks are
+	 * taken from the given inode; see <code>commitChain</code>.
+	 * @param inode Inode to update.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public void updateNode(Inode inode) throws RemoteException, IOException
+	{
+		commitChain(inode);
+	}
+	
+	/** Writes back the contents of a file changed by a writer.
+	 * <p>The writer's copy of the inode was read when the file was 
+	 * opened, so only the fields describing the file's blocks are taken 
+	 * from it.  They are copied onto the inode as it now stands on disk,
+	 * under the inode's lock, so that a link, rename or delete made 
+	 * meanwhile is kept.  A file deleted meanwhile stays dead, with the 
+	 * new blocks recorded so that the reclaimer frees them too, and its 
+	 * tail is not packed.
+	 * @param changed Writer's copy of the inode.
+	 * @return the inode as written.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	Inode commitChain(Inode changed) throws IOException
+	{
+		Object lock = holdNodeLock(changed.Number);
+		try {
+			synchronized (lock) {
+				Inode inode = getNode(changed.Number);
+				if (!inode.isUsed)
+					return inode;
+				copyChain(changed,inode);
+				inode.Modified = new Date();
+				inode.commit(file,superblock);
+				if (!inode.isDead)
+					packTail(inode);
+				return inode;
+			}
+		} finally {
+			dropNodeLock(changed.Number);
+		}
+	}
+	
+	/** Copies the fields describing a file's blocks from one copy of its
+	 * inode to another.
+	 * @param from Inode to copy from.
+	 * @param to Inode to copy to.
+	 */
+	static void copyChain(Inode from, Inode to)
+	{
+		to.size = from.size;
+		to.firstindexblock = from.firstindexblock;
+		to.iblock = from.iblock;
+		to.lastindexblock = from.lastindexblock;
+		to.lastindexentry = from.lastindexentry;
+		to.lastdataentry = from.lastdataentry;
+		to.tailblock = from.tailblock;
+		to.tailoffset = from.tailoffset;
+	}
+	
+	/** Commits a file being closed: its last data block, its last index
+	 * block and its inode, in one call.
+	 * <p>The three are written under the disk file's lock, so no other 
+	 * caller sees one without the others.  The data and index blocks are
+	 * forced out to the host's disk before the inode is written, so after
+	 * a crash the inode never records an end of file that its blocks do
+	 * not yet hold.
+	 * @param inode Inode of the file, with its end recorded.
+	 * @param iblock Last index block of the file.
+	 * @param blocknum Number of the last data block.
+	 * @param block Contents of the last data block.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the last data 
+	 *                        block is a packed tail or unused.
+	 */
+	public void commitFile(Inode inode, IndexBlock iblock, int blocknum, 
+						   byte[] block) throws RemoteException, IOException
+	{
+		if (blocknum==IndexBlock.TAIL || blocknum==IndexBlock.UNUSED)
+			throw new IOException("Last data block is not a block");
+		synchronized (file) {
+			commitDataBlock(blocknum,block);
+			commitIndexBlock(iblock);
+			file.getChannel().force(false);
+		}
+		commitChain(inode);
+	}
+
+	/** Packs the tail of a file into a fragment block, if it is worth it.
+	 * <p>Only regular files whose last data block is at most half used 
+	 * are packed; directories are appended to too often.  The tail is 
+	 * copied and the inode committed before the index entry is switched
+	 * to <code>IndexBlock.TAIL</code>, so a crash part way through leaves
+	 * the file readable from its old block.  Callers that read the file 
+	 * before it was packed may still hold the old block's number, so the
+	 * block is handed to the reclaimer, which frees it once the file is 
+	 * no longer pinned.
+	 * @param inode Inode of a file that has just been closed.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void packTail(Inode inode) throws IOException
+	{
+		int length = inode.tailLength();
+		int pool = poolIndex(inode.firstindexblock);
+		if (!fragments[pool].enabled() || inode.isDirectory 
+			|| inode.tailblock!=0 || length<=0 
+			|| length>superblock.pools[pool].blocksize/2)
+			return;
+		IndexBlock iblock = retrieveIndexBlock(inode.lastindexblock);
+		int blocknum = iblock.BlocksUsed[inode.lastindexentry];
+		if (blocknum<=0)
+			return;
+		int[] spot;
+		try {
+			spot = fragments[pool].allocate(length);
+		} catch (DiskFullException e) {
+			return; // the tail stays where it is
+		}
+		byte[] block = retrieveDataBlock(blocknum);
+		synchronized (file) {
+			file.seek(superblock.blockOffset(spot[0]) + spot[1]);
+			file.write(block,0,length);
+		}
+		inode.tailblock = spot[0];
+		inode.tailoffset = spot[1];
+		inode.commit(file,superblock);
+		iblock.BlocksUsed[inode.lastindexentry] = IndexBlock.TAIL;
+		commitIndexBlock(iblock);
+		Vector old = new Vector(1);
+		old.addElement(new Integer(blocknum));
+		reclaimer.add(new Reclaimer.Leftover(inode.Number,old));
+	}
+
+	/** Returns the packed tail of a file, padded to a full data block.
+	 * @param filenum Inode number of the file.
+	 * @return the tail, as a data block.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs. 
+	 */
+	public byte[] retrieveTail(int filenum) throws RemoteException, IOException
+	{
+		Inode inode = getNode(filenum);
+		byte[] block = new byte[inode.blocksize];
+		if (inode.tailblock==0)
+			return block;
+		synchronized (file) {
+			file.seek(superblock.blockOffset(inode.tailblock) 
+					  + inode.tailoffset);
+			file.readFully(block,0,inode.tailLength());
+		}
+		return block;
+	}
+
+	/** Moves a packed tail back into a data block of its own so that the
+	 * file can be written to.  Files without a packed tail are left alone.
+	 * @param filenum Inode number of the file.
+	 * @return the file's inode, as it stands afterward.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs. 
+ 	 * @exception DiskFullException if the disk is full.
+	 */
+	public Inode unpackTail(int filenum) 
+		throws RemoteException, IOException, DiskFullException
+	{
+		Object lock = holdNodeLock(filenum);
+		try {
+			synchronized (lock) {
+				Inode inode = getNode(filenum);
+				if (inode.tailblock==0)
+					return inode;
+				int blocknum = allocateBlock(poolIndex(inode.firstindexblock));
+				commitDataBlock(blocknum,retrieveTail(filenum));
+				IndexBlock iblock = retrieveIndexBlock(inode.lastindexblock);
+				iblock.BlocksUsed[inode.lastindexentry] = blocknum;
+				commitIndexBlock(iblock);
+				fragmentsFor(inode.tailblock).release(inode.tailblock,
+													  inode.tailoffset,
+													  inode.tailLength());
+				inode.tailblock = 0;
+				inode.tailoffset = 0;
+				inode.commit(file,superblock);
+				return getNode(filenum);
+			}
+		} finally {
+			dropNodeLock(filenum);
+		}
+	}
+
+	/** Allocates a new inode number.
+	 * @return the new number
+ 	 * @exception RemoteException if an RMI error occurs.
+ 	 * @exception FilesFullException if there are no more inodes available.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public int newInode() 
+		throws RemoteException, FilesFullException, IOException
+	{
+		// we do a vertical scan of the physical file, looking at each inode
+		// in the file, until we find a one marked unused, allocate it
+		synchronized (file) {
+			int numfiles = superblock.numfiles;
+			int num;
+			boolean isUsed;
+			for (int i=0; i<numfiles; i++)
+			{
+				file.goToNode(i);
+				num = file.readInt();
+				isUsed = file.readBoolean();
+				if (!isUsed)
+					return num;
+			}
+			throw new FilesFullException();
+		}
+	}
+	
+	/** Creates a new index block.
+	 * @param filenum Inode number of the file.
+	 * @param parent Last index block in the file.
+	 * @return the new index block.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	public IndexBlock newIndexBlock(int filenum, IndexBlock parent) 
+		throws IOException, DiskFullException
+	{
+		int pool = poolIndex(parent.blocknum);
+		int blocknum = allocateBlock(pool);
+		IndexBlock niblock = new IndexBlock(blocknum,
+											superblock.pools[pool].iblockarraysize);
+		parent.setChild(blocknum);
+		return niblock; 
+	}
+
+	/** Retrieves an index block from the disk file.
+	 * @param iblocknum Number of block to retrieve.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs. 
+	 */
+	public IndexBlock retrieveIndexBlock(int iblocknum) 
+		throws RemoteException, IOException
+	{
+		BlockPool pool = superblock.poolOf(iblocknum);
+		IndexBlock iblock = new IndexBlock(iblocknum,pool.iblockarraysize);
+		synchronized (file) {
+			file.seek(pool.offset(iblocknum));
+			iblock.read(file);
+		}
+		return iblock;
+	}
+
+	/** Writes an index block to disk.
+	 * @param iblock Index block to write.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs. 
+	 */
+	public void commitIndexBlock(IndexBlock iblock) 
+		throws RemoteException, IOException
+	{
+		claimLeased(iblock);
+		synchronized(file) {
+			file.seek(superblock.blockOffset(iblock.blocknum));
+			iblock.write(file);
+		}
+		return;
+	}
+
+	/** Retrieves a data block from disk.
+	 * @param blocknum Number of block to retrieve.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs. 
+	 */
+	public byte[] retrieveDataBlock(int blocknum) 
+		throws RemoteException, IOException
+	{
+		BlockPool pool = superblock.poolOf(blocknum);
+		byte[] block = new byte[pool.blocksize];
+		synchronized (file) {
+			file.seek(pool.offset(blocknum));
+			try {
+				file.read(block,0,pool.blocksize);
+			} catch (NullPointerException e) {
+				Debug.ErrorMessage("retrieve",e.getMessage());
+			}
+		}
+		return block;
+	}
+
+	/** Writes a data block to disk.
+	 * @param blocknum Number of block to write.
+	 * @param block Content of data block.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs. 
+	 */
+	public void commitDataBlock(int blocknum, byte[] block) 
+		throws RemoteException, IOException
+	{
+		synchronized (file)
+		{
+			file.seek(superblock.blockOffset(blocknum));
+			file.write(block);
+		}
+
+	}
+	
+	/** Writes a mount point to the superblock.
+	 * @param mountpt New mount point.
+	 * @exception RemoteException if an RMI problem occurs.	 
+	 */
+	public void mount(String mountpt) throws RemoteException, IOException
+	{
+		superblock.mount(mountpt);
+		superblock.commit(file);
+	}
+	
+	/** Returns the size of a data block in this disk's default pool.
+	 * The size of the blocks of a particular file is given by its inode.
+	 * @return the size of a data block in this disk.
+	 * @exception RemoteException if an RMI problem occurs.	 
+	 */
+	public int getBlockSize() throws RemoteException
+	{
+		return superblock.blocksize;
+	}
+	
+	/** Adds data blocks to the disk while it is running.
+	 * <p>The new blocks form a pool at the end of the disk file, with 
+	 * their free list entries just before them.  If the disk already
+	 * has a pool of the same block size, the new pool joins its class and
+	 * its files may use the new blocks; otherwise it is a new class that
+	 * size hints may steer files to.  The superblock is written last, so
+	 * a failure part way through leaves the disk as it was.
+	 * @param blocksize Size of the new data blocks.
+	 * @param numblocks Number of new data blocks.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the disk is a 
+	 *                        legacy disk, or it has the maximum number of 
+	 *                        pools.
+	 */
+	public void addBlocks(int blocksize, int numblocks) 
+		throws RemoteException, IOException
+	{
+		synchronized (superblock) {
+			if (superblock.version==Superblock.LEGACY_VERSION)
+				throw new IOException("Legacy disks cannot grow");
+			BlockPool[] oldpools = superblock.pools;
+			if (oldpools.length>=Superblock.MAX_POOLS)
+				throw new IOException("Disk has the maximum number of pools");
+			BlockPool pool = new BlockPool(blocksize,numblocks,
+										   Superblock.fragmentSizeFor(blocksize));
+			pool.poolclass = oldpools.length;
+			for (int i=0; i<oldpools.length; i++)
+				if (oldpools[i].poolclass==i && oldpools[i].blocksize==blocksize)
+				{
+					pool.poolclass = i;
+					pool.fragmentsize = oldpools[i].fragmentsize;
+					break;
+				}
+			pool.firstblock = superblock.numblocks;
+			pool.freeliststart = superblock.size;
+			pool.datastart = superblock.size + numblocks;
+			
+			FreeList freelist = new FreeList(superblock,pool,file);
+			freelist.initialize();
+			synchronized (file) {
+				file.setLength(pool.datastart + (long)numblocks*blocksize);
+				freelist.commit();
+			}
+			
+			BlockPool[] newpools = new BlockPool[oldpools.length+1];
+			FreeList[] newfreelists = new FreeList[newpools.length];
+			FragmentList[] newfragments = new FragmentList[newpools.length];
+			System.arraycopy(oldpools,0,newpools,0,oldpools.length);
+			System.arraycopy(freelists,0,newfreelists,0,oldpools.length);
+			System.arraycopy(fragments,0,newfragments,0,oldpools.length);
+			newpools[oldpools.length] = pool;
+			newfreelists[oldpools.length] = freelist;
+			newfragments[oldpools.length] = new FragmentList(pool,freelist);
+			// the lists must be in place before a block of the pool can
+			// be looked up
+			freelists = newfreelists;
+			fragments = newfragments;
+			superblock.pools = newpools;
+			superblock.version = Math.max(superblock.version,
+										  Superblock.GROWTH_VERSION);
+			superblock.calculate();
+			superblock.commit(file);
+		}
+	}
+	
+	/** Adds inodes to the disk while it is running.
+	 * <p>The new inodes form an extent at the end of the disk file.  They
+	 * are written out as unused before the superblock is updated to make 
+	 * them available.
+	 * @param numfiles Number of new inodes.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the disk is a 
+	 *                        legacy disk, or it has the maximum number of 
+	 *                        extents.
+	 */
+	public void addInodes(int numfiles) throws RemoteException, IOException
+	{
+		synchronized (superblock) {
+			if (superblock.version==Superblock.LEGACY_VERSION)
+				throw new IOException("Legacy disks cannot grow");
+			InodeExtent[] oldextents = superblock.extents;
+			if (oldextents.length>=Superblock.MAX_EXTENTS)
+				throw new IOException("Disk has the maximum number of extents");
+			InodeExtent extent = new InodeExtent(superblock.numfiles,numfiles,
+												 superblock.size);
+			InodeExtent[] newextents = new InodeExtent[oldextents.length+1];
+			System.arraycopy(oldextents,0,newextents,0,oldextents.length);
+			newextents[oldextents.length] = extent;
+			superblock.extents = newextents;
+			for (int i=extent.firstinode; i<extent.firstinode+numfiles; i++)
+				(new Inode(i)).commit(file,superblock);
+			// the inodes are not handed out until numfiles covers them
+			superblock.version = Math.max(superblock.version,
+										  Superblock.GROWTH_VERSION);
+			superblock.numfiles += numfiles;
+			superblock.calculate();
+			superblock.commit(file);
+		}
 	}
 
 		/** Sets the standard output to point to a log file.
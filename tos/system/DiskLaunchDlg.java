@@ -3,12 +3,15 @@ package tos.system;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.*;
 import com.sun.java.swing.*;
 
 import javax.swing.*;
 
 /** This dialog, which does not fit the two <code>AdminDlg</code>-based
  * templates, is used to enter the parameters for creating a new disk.
+ * <p>A disk with several block-size pools is created by entering 
+ * comma-separated lists of block sizes and numbers of blocks.
  */
 
 public class DiskLaunchDlg extends ConstrainDlg implements ActionListener
@@ -31,6 +34,12 @@ public class DiskLaunchDlg extends ConstrainDlg implements ActionListener
 	/** Number of data blocks.  */
 	int numblocks;
 	
+	/** Data block size of each pool. */
+	int[] blocksizes;
+	
+	/** Number of data blocks in each pool. */
+	int[] poolblocks;
+	
 	/** Text field to enter disk name.	 */
 	JTextField namebox = new JTextField();
 	
@@ -120,12 +129,19 @@ public class DiskLaunchDlg extends ConstrainDlg implements ActionListener
 			try 
 			{
 				numfiles = (new Integer(numfilesbox.getText())).intValue();
-				blocksize = (new Integer(blocksizebox.getText())).intValue();
-				numblocks = (new Integer(numblocksbox.getText())).intValue();
+				blocksizes = parseList(blocksizebox.getText());
+				poolblocks = parseList(numblocksbox.getText());
 			} catch (NumberFormatException f) {
 				JOptionPane.showMessageDialog(this,"The number of files, block size, and number of blocks must be numbers.","Bad format",JOptionPane.ERROR_MESSAGE);
 				return;
 			}
+			if (blocksizes.length!=poolblocks.length)
+			{
+				JOptionPane.showMessageDialog(this,"There must be a number of blocks for each block size.","Bad format",JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			blocksize = blocksizes[0];
+			numblocks = poolblocks[0];
 			isOK = true;
 			dispose();
 		}
@@ -135,4 +151,21 @@ public class DiskLaunchDlg extends ConstrainDlg implements ActionListener
 		}
 	
 	}
+	
+	/** Parses a comma-separated list of numbers.
+	 * @param text Text entered by the user.
+	 * @return the numbers in the list.
+	 * @exception NumberFormatException if an entry is not a number, or
+	 *                                  the list is empty.
+	 */
+	int[] parseList(String text) throws NumberFormatException
+	{
+		StringTokenizer tokens = new StringTokenizer(text,",");
+		int[] retval = new int[tokens.countTokens()];
+		if (retval.length==0)
+			throw new NumberFormatException();
+		for (int i=0; i<retval.length; i++)
+			retval[i] = (new Integer(tokens.nextToken().trim())).intValue();
+		return retval;
+	}
 }
@@ -73,7 +73,7 @@ class Editor extends JFrame implements ActionListener
 		try {
 			TOSFile file = new TOSFile(launcher);
 			file.open(filename,"r",password);
-			size = file.getSize();
+			size = (int)file.getSize();
 			filetext = new char[size+1];
 			try {
 				for (i=0; i<size; i++)
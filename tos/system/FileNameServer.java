@@ -19,6 +19,10 @@ import tos.api.*;
  * derived from <code>TOSServer</code>.  That class' <code>objectTable</code> is 
  * here used only as an amalgam of the two table that the filename server
  * actually uses, <code>MountTable</code> and <code>NameTable</code>.
+ * <p>Every change to either table raises a version number.  Clients that
+ * cache the tables register a <code>TOSMountListener</code>, which a 
+ * <a href="MountNotifier.html">MountNotifier</a> thread calls with the 
+ * new version, or long-poll with <code>waitForChange</code>.
  */
 
 class FileNameServer extends Server implements TOSFileNameServer
@@ -31,6 +35,18 @@ class FileNameServer extends Server implements TOSFileNameServer
 	 * stubs to the disks are the values. */
 	protected Hashtable NameTable = new Hashtable();
 
+	/** Index of <code>MountTable</code> used to resolve names.  It is 
+	 * rebuilt whenever the mount table changes and never modified, so it
+	 * may be read without locking. */
+	protected volatile MountTrie trie = new MountTrie(MountTable);
+
+	/** Remote stubs of clients to be told when either table changes.  
+	 * Also the lock guarding <code>version</code>. */
+	protected Vector listeners = new Vector();
+
+	/** Version of the mount and name tables, raised on every change. */
+	protected long version = 0;
+
 	/** The standard Java entry function.  It simply calls the constructor.
 	 */
 	public static final void main(String args[])
@@ -55,6 +71,9 @@ class FileNameServer extends Server implements TOSFileNameServer
 			// MountTable and NameTable
 			if (!parent.getLocation().equals(getLocation()))
 				setTables();
+			Thread notifier = new Thread(new MountNotifier(this));
+			notifier.setDaemon(true);
+			notifier.start();
 		} catch (Exception e) {
 			Debug.DisplayException("FileNameServer",e);
 		}
@@ -63,44 +82,21 @@ class FileNameServer extends Server implements TOSFileNameServer
 	/** Returns the pathname within the disk corresponding to a name in the global namespace.
 	 * <p>This function is the workhorse of this class, and over the course
 	 * of most TOS instantiations it will be called more than any other.
-	 * <p>When a name is passed in, each successively shorter prefix is searched for in the 
-	 * mounting table.  So if <code>name</code> is <i>/one/two/three/filename</i>, the function
-	 * will first search for a disk mounted to <i>/one/two/three</i>, then
-	 * <i>/one/two</i>, finally <i>/one</i>.  If none can be found, an exception
+	 * <p>The name is looked up in <code>trie</code>, which finds the disk
+	 * mounted to the longest directory in the name without taking any 
+	 * locks.  So if <code>name</code> is <i>/one/two/three/filename</i>, 
+	 * a disk mounted to <i>/one/two/three</i> is chosen over one mounted to 
+	 * <i>/one/two</i> or <i>/one</i>.  If none can be found, an exception
 	 * is thrown.
 	 * @param name Location-independent file name.
 	 * @return location-dependent file name.
 	 * @exception RemoteException if there is a Java RMI problem.
 	 * @exception NoDiskException if there is no disk with a mountpoint in the file's path.
+	 * @see MountTrie#resolve
 	 */
 	public String resolveFileName(String name) throws RemoteException, NoDiskException
 	{
-		// Algorithm....try succeedingly large namees until filesize
-		// is exhausted
-		
-		int seplength = TOSFile.separator.length();
-		String prefix = name;
-		if (!prefix.substring(prefix.length()-seplength).equals(TOSFile.separator))
-			prefix = prefix + TOSFile.separator;
-		int pos;
-		do
-		{
-			pos = prefix.lastIndexOf(TOSFile.separator);
-			if (pos>0)
-				prefix = prefix.substring(0,pos);
-			else
-				prefix = TOSFile.separator;
-			synchronized (MountTable) {
-				if (MountTable.containsKey(prefix))
-				{
-					String retval =  MountTable.get(prefix) + TOSFile.servermark + name.substring(pos);
-					if (retval.indexOf(TOSFile.separator)==-1)
-						retval = retval + TOSFile.separator;
-					return retval;
-				}
-			}
-		} while (!prefix.equals(TOSFile.separator));
-		throw new NoDiskException();
+		return trie.resolve(name);
 	}
 
 	/** Mounts a disk to the given mount point.
@@ -130,6 +126,8 @@ class FileNameServer extends Server implements TOSFileNameServer
 			}
 			if (!mountpt.equals(""))
 				MountTable.put(mountpt,diskname);
+			trie = new MountTrie(MountTable);
+			changed();
 		}
 		// must synchronize IMMEDIATELY with local host
 		
@@ -140,7 +138,6 @@ class FileNameServer extends Server implements TOSFileNameServer
 		} catch (IOException e) {
 			Debug.DisplayException("Mount",e);
 		}
-
 	}
 	
 	/** Unmounts a disk.
@@ -162,6 +159,90 @@ class FileNameServer extends Server implements TOSFileNameServer
 	{
 		synchronized (NameTable) {																	
 			NameTable.put(diskname,stub);
+			changed();
+		}
+	}
+
+	/** Returns a copy of the mount table together with its version.
+	 * @return the mount table and its version.
+	 * @exception RemoteException if there is an RMI problem.
+	 */
+	public MountSnapshot getMountSnapshot() throws RemoteException
+	{
+		synchronized (MountTable) {
+			return new MountSnapshot(getMountVersion(),
+									 (Hashtable)MountTable.clone());
+		}
+	}
+
+	/** Returns the version of the mount and name tables.
+	 * @return the version.
+	 * @exception RemoteException if there is an RMI problem.
+	 */
+	public long getMountVersion() throws RemoteException
+	{
+		synchronized (listeners) {
+			return version;
+		}
+	}
+
+	/** Waits until the tables change from a known version.
+	 * @param known Version the caller knows.
+	 * @param timeout Longest time to wait, in milliseconds.
+	 * @return the current version.
+	 * @exception RemoteException if there is an RMI problem.
+	 */
+	public long waitForChange(long known, long timeout) throws RemoteException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (listeners) {
+			try {
+				while (version<=known)
+				{
+					long left = deadline - System.currentTimeMillis();
+					if (left<=0)
+						break;
+					listeners.wait(left);
+				}
+			} catch (InterruptedException e) {
+			}
+			return version;
+		}
+	}
+
+	/** Registers a client to be told when the mount table or the name 
+	 * table changes.
+	 * @param listener Remote stub of the client's listener.
+	 * @return the current version of the tables.
+	 * @exception RemoteException if there is an RMI problem.
+	 */
+	public long addMountListener(TOSMountListener listener) 
+		throws RemoteException
+	{
+		synchronized (listeners) {
+			listeners.addElement(listener);
+			return version;
+		}
+	}
+	
+	/** Stops telling a client about changes.
+	 * @param listener Remote stub of the client's listener.
+	 * @exception RemoteException if there is an RMI problem.
+	 */
+	public void removeMountListener(TOSMountListener listener) 
+		throws RemoteException
+	{
+		listeners.removeElement(listener);
+	}
+	
+	/** Raises the version of the tables and wakes the notifier and any 
+	 * callers of <code>waitForChange</code>.
+	 */
+	void changed()
+	{
+		synchronized (listeners) {
+			version++;
+			listeners.notifyAll();
 		}
 	}
 
@@ -189,23 +270,7 @@ class FileNameServer extends Server implements TOSFileNameServer
 	 */
 	public String getDiskName(String dirname) throws RemoteException
 	{
-		String output = "";
-		String mapdir;
-		String temp;
-		synchronized (MountTable) {
-			Enumeration keyTable = MountTable.keys();
-			while (keyTable.hasMoreElements())
-			{
-				mapdir = (String)keyTable.nextElement();
-				if (mapdir.startsWith(dirname))
-				{
-					temp = mapdir.substring(dirname.length());
-					if (temp.indexOf(TOSFile.separator)==-1 && temp.length()>0)
-						output = output + (String)MountTable.get(mapdir) + "\n";
-				}
-			}
-		}
-		return output;
+		return trie.getDiskNames(dirname);
 	}
 
 	/** Returns the mount table.
@@ -230,6 +295,17 @@ class FileNameServer extends Server implements TOSFileNameServer
 		return dummy;
 	}	
 	
+	/** Copies the parent's tables.  The filename server's object table is
+	 * only a holder for its two tables, so it is copied whole rather than
+	 * a page at a time.
+	 * @param source Server to copy from.
+	 * @exception RemoteException if there is an RMI problem.
+	 */
+	void copyObjectTable(TOSServer source) throws RemoteException
+	{
+		objectTable = source.getObjectTable();
+	}
+	
 	/** Used to set the mount and name tables from a parent.
 	 * <p> This function extracts the mount table and name table
 	 * from the <code>objectTable</code> passed from its parent
@@ -239,6 +315,7 @@ class FileNameServer extends Server implements TOSFileNameServer
 	{
 		MountTable = (Hashtable)objectTable.get("Mount");
 		NameTable = (Hashtable)objectTable.get("Name");
+		trie = new MountTrie(MountTable);
 	}
 
 
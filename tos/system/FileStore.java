@@ -52,7 +52,7 @@ class FileStore extends RandomAccessFile
 	 */
 	synchronized void goToNode(int inode) throws IOException
 	{
-		seek(superblock.inodestart + inode*superblock.inodesize);
+		seek(superblock.nodeOffset(inode));
 	}
 	
 	/** Moves the file pointer to the beginning of a data block.
@@ -61,7 +61,7 @@ class FileStore extends RandomAccessFile
 	 */
 	synchronized void goToBlock(int block) throws IOException
 	{
-		seek(superblock.datastart + superblock.blocksize*block);
+		seek(superblock.blockOffset(block));
 	}
 	
     /**
@@ -0,0 +1,175 @@
+//
+//
+// FragmentList
+//
+//
+package tos.system;
+
+import java.util.*;
+import java.io.*;
+import tos.api.*;
+
+/** This class keeps track of the shared blocks that file tails are
+ * packed into.
+ * <p>A fragment block is an ordinary data block, taken from the
+ * <a href="FreeList.html">FreeList</a> of a block-size pool, divided 
+ * into units of that pool's <code>fragmentsize</code> bytes.  Each pool 
+ * has a fragment list of its own, and a file's tail is packed into 
+ * the pool the file lives in.  A packed tail occupies a
+ * run of consecutive units in one fragment block.  Its location is
+ * recorded in the owning file's inode and nowhere else, so the in-memory
+ * map of used units is rebuilt from the inode list whenever a disk
+ * is restarted.
+ * <p>When the last tail leaves a fragment block, the block is returned
+ * to the free list.
+ */
+
+class FragmentList
+{
+	/** Table mapping fragment block numbers to a <code>BitSet</code> of
+	 * their used units. */
+	protected Hashtable blocks = new Hashtable();
+
+	/** Size of a unit, in bytes. */
+	int fragmentsize;
+
+	/** Number of units in a block. */
+	int units;
+
+	/** Free list the fragment blocks are taken from. */
+	FreeList freelist;
+
+	/** Constructor.
+	 * @param pool Block-size pool the fragment blocks come from.
+	 * @param freelist Free list of that pool.
+	 */
+	public FragmentList(BlockPool pool, FreeList freelist)
+	{
+		fragmentsize = pool.fragmentsize;
+		if (fragmentsize>0)
+			units = pool.blocksize/fragmentsize;
+		this.freelist = freelist;
+	}
+
+	/** Returns <code>true</code> if tails may be packed on this disk.
+	 * @return <code>true</code> if tail packing is enabled.
+	 */
+	boolean enabled()
+	{
+		return fragmentsize>0;
+	}
+
+	/** Returns the number of units needed to hold a tail.
+	 * @param length Length of the tail, in bytes.
+	 * @return number of units.
+	 */
+	int unitsFor(int length)
+	{
+		return (length + fragmentsize - 1)/fragmentsize;
+	}
+
+	/** Marks the units of an existing tail as used.
+	 * <p>Called for every packed inode when a disk is restarted.
+	 * @param blocknum Fragment block holding the tail.
+	 * @param offset Byte offset of the tail within the block.
+	 * @param length Length of the tail, in bytes.
+	 */
+	synchronized void reserve(int blocknum, int offset, int length)
+	{
+		Integer key = new Integer(blocknum);
+		BitSet used = (BitSet)blocks.get(key);
+		if (used==null)
+		{
+			used = new BitSet(units);
+			blocks.put(key,used);
+		}
+		int first = offset/fragmentsize;
+		int count = unitsFor(length);
+		for (int i=first; i<first+count; i++)
+			used.set(i);
+	}
+
+	/** Finds room for a tail.
+	 * <p>The existing fragment blocks are searched first; a new block
+	 * is taken from the free list only if none has a long enough run of
+	 * free units.
+	 * @param length Length of the tail, in bytes.
+	 * @return a two-element array of the fragment block number and
+	 *         the byte offset of the tail within it.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if a new fragment block is needed and
+	 *                              the disk is full.
+	 */
+	synchronized int[] allocate(int length) throws IOException, DiskFullException
+	{
+		int count = unitsFor(length);
+		Enumeration keys = blocks.keys();
+		while (keys.hasMoreElements())
+		{
+			Integer key = (Integer)keys.nextElement();
+			BitSet used = (BitSet)blocks.get(key);
+			int first = findRun(used,count);
+			if (first>=0)
+			{
+				for (int i=first; i<first+count; i++)
+					used.set(i);
+				int[] retval = { key.intValue(), first*fragmentsize };
+				return retval;
+			}
+		}
+		int blocknum;
+		try {
+			blocknum = freelist.allocateSpace();
+		} catch (EmptyStackException e) {
+			throw new DiskFullException();
+		}
+		BitSet used = new BitSet(units);
+		for (int i=0; i<count; i++)
+			used.set(i);
+		blocks.put(new Integer(blocknum),used);
+		int[] retval = { blocknum, 0 };
+		return retval;
+	}
+
+	/** Releases the units of a tail.
+	 * If the fragment block is left empty it is returned to the free list.
+	 * @param blocknum Fragment block holding the tail.
+	 * @param offset Byte offset of the tail within the block.
+	 * @param length Length of the tail, in bytes.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	synchronized void release(int blocknum, int offset, int length) throws IOException
+	{
+		Integer key = new Integer(blocknum);
+		BitSet used = (BitSet)blocks.get(key);
+		if (used==null)
+			return;
+		int first = offset/fragmentsize;
+		int count = unitsFor(length);
+		for (int i=first; i<first+count; i++)
+			used.clear(i);
+		if (used.isEmpty())
+		{
+			blocks.remove(key);
+			freelist.freeSpace(blocknum);
+		}
+	}
+
+	/** Returns the first unit of a run of free units.
+	 * @param used Used units of a fragment block.
+	 * @param count Length of the run needed.
+	 * @return first unit of the run, or -1 if there is none.
+	 */
+	int findRun(BitSet used, int count)
+	{
+		int start = used.nextClearBit(0);
+		while (start+count<=units)
+		{
+			int next = used.nextSetBit(start);
+			if (next<0 || next>=start+count)
+				return start;
+			start = used.nextClearBit(next);
+		}
+		return -1;
+	}
+}
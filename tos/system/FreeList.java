@@ -18,6 +18,10 @@ import java.io.*;
  * <p>For maximum reliability, every change to the free
  * list from an allocation or deallocation is written to disk 
  * at once.
+ * <p>Each block-size pool of a disk has a free list of its own, 
+ * covering that pool's range of block numbers.  The on-disk array of 
+ * the pools made with the disk is shared, indexed by block number; a 
+ * pool added later has its own array at the end of the disk file.
  */
 
 class FreeList
@@ -28,26 +32,40 @@ class FreeList
 	/** Free blocks. */
 	static byte FREE = 1;
 	
+	/** Block that is never freed once handed out.  It goes to the root
+	 * directory when the disk is made, and its number also marks an unused
+	 * index block entry and an inode without a packed tail, so it must not
+	 * come back as a data or fragment block when the root moves off it.
+	 */
+	static int RESERVED = 0;
+	
 	/** Stack containing free blocks. */
 	protected Stack stack = new Stack();
 	
 	/** Number of available data blocks.	 */
 	int numblocks; 
 	
-	/** Location of the free list in the disk file.	 */
-	int freeliststart;
+	/** Number of the first block in the list.	 */
+	int firstblock;
+	
+	/** Location in the disk file of the entry block 0 would have in 
+	 * this list, so that a block's entry is at 
+	 * <code>freeliststart+blocknum</code>.	 */
+	long freeliststart;
 	
 	/** Disk file.	 */
 	FileStore file;
 
 	/** Constructor.
 	 * @param superblock Superblock of the disk.
+	 * @param pool Block-size pool the list covers.
 	 * @param file Physical file of the disk.
 	 */
-	public FreeList(Superblock superblock, FileStore file)
+	public FreeList(Superblock superblock, BlockPool pool, FileStore file)
 	{
-		numblocks = superblock.numblocks;
-		freeliststart = superblock.freeliststart;
+		numblocks = pool.numblocks;
+		firstblock = pool.firstblock;
+		freeliststart = pool.freeliststart - pool.firstblock;
 		this.file = file;
 	}
 
@@ -67,7 +85,7 @@ class FreeList
 	{
 		int i;
 		synchronized (stack) {
-			for (i=numblocks-1; i>=0; i--)
+			for (i=firstblock+numblocks-1; i>=firstblock; i--)
 				stack.push(new Integer(i));
 		}
 	}
@@ -84,15 +102,15 @@ class FreeList
 		byte blockused;
 		synchronized (file) {
 			long oldpos = file.getFilePointer();
-			file.seek(freeliststart);
-			for (i=0; i<numblocks; i++)
+			file.seek(freeliststart+firstblock);
+			for (i=firstblock; i<firstblock+numblocks; i++)
 			{
 				try {
 				blockused = file.readByte();
 				} catch (IOException e) {
 					throw e;
 				}
-				if (blockused==FREE)
+				if (blockused==FREE && i!=RESERVED)
 					synchronized (stack) {
 						stack.push(new Integer(i));
 					}
@@ -109,10 +127,10 @@ class FreeList
 	{
 		synchronized (file) {
 			long oldpos = file.getFilePointer();
-			file.seek(freeliststart);
+			file.seek(freeliststart+firstblock);
 			int i;
 			byte blockused;
-			for (i=0; i<numblocks; i++)
+			for (i=firstblock; i<firstblock+numblocks; i++)
 			{
 				boolean isthere;
 				synchronized (stack) {
@@ -149,13 +167,54 @@ class FreeList
 		return newblock;
 	}
 
+	/** Allocates a run of consecutive data blocks.
+	 * <p>Used by the defragmenter.  The blocks are found by scanning the
+	 * stack for the lowest-numbered run of free blocks long enough.
+	 * @param count Number of blocks needed.
+	 * @return Number of the first block of the run, or -1 if there is 
+	 *         no run that long.
+	 * @exception IOException if there is an I/O error.
+	 */
+	int allocateRun(int count) throws IOException
+	{
+		int start;
+		synchronized (stack) {
+			BitSet free = new BitSet(numblocks);
+			for (int i=0; i<stack.size(); i++)
+				free.set(((Integer)stack.elementAt(i)).intValue()-firstblock);
+			start = free.nextSetBit(0);
+			while (start>=0)
+			{
+				int end = free.nextClearBit(start);
+				if (end-start>=count)
+					break;
+				start = free.nextSetBit(end);
+			}
+			if (start<0)
+				return -1;
+			start += firstblock;
+			for (int i=start; i<start+count; i++)
+				stack.removeElement(new Integer(i));
+		}
+		synchronized (file) {
+			long oldpos = file.getFilePointer();
+			file.seek(freeliststart+start);
+			for (int i=0; i<count; i++)
+				file.writeByte(USED);
+			file.seek(oldpos);
+		}
+		return start;
+	}
+
 	/** Returns a data block to the free list.
 	 * <p>The function pushes the data block on the stack and writes its
-	 * on-disk free list entry as free.
+	 * on-disk free list entry as free.  The reserved block is kept.
 	 * @exception IOException if there is an I/O error.
 	 */
 	void freeSpace(int oldblock) throws IOException
 	{
+		if (oldblock==RESERVED)
+			return;
 		long oldpos = file.getFilePointer();
 		stack.push(new Integer(oldblock));
 		file.seek(freeliststart+oldblock);
@@ -163,5 +222,96 @@ class FreeList
 		file.seek(oldpos);
 	}
 
+	/** Returns a batch of data blocks to the free list.
+	 * <p>The blocks are pushed on the stack together, lowest on top so
+	 * that they are handed out again in order, and their on-disk entries
+	 * are written with one write for each run of consecutive blocks 
+	 * rather than one for each block.  The reserved block is kept.
+	 * @param blocks Numbers of the blocks, all covered by this list.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void freeBlocks(int[] blocks) throws IOException
+	{
+		int[] sorted = blocks.clone();
+		Arrays.sort(sorted);
+		if (sorted.length>0 && sorted[0]==RESERVED)
+			sorted = Arrays.copyOfRange(sorted,1,sorted.length);
+		synchronized (stack) {
+			for (int i=sorted.length-1; i>=0; i--)
+				stack.push(new Integer(sorted[i]));
+		}
+		writeRuns(sorted,FREE);
+	}
+
+	/** Writes the on-disk entries of a sorted list of blocks, with one 
+	 * write for each run of consecutive blocks.
+	 * @param sorted Numbers of the blocks, in ascending order.
+	 * @param value Value to write, <code>USED</code> or <code>FREE</code>.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void writeRuns(int[] sorted, byte value) throws IOException
+	{
+		synchronized (file) {
+			long oldpos = file.getFilePointer();
+			int start = 0;
+			while (start<sorted.length)
+			{
+				int end = start+1;
+				while (end<sorted.length && sorted[end]==sorted[end-1]+1)
+					end++;
+				byte[] run = new byte[end-start];
+				Arrays.fill(run,value);
+				file.seek(freeliststart+sorted[start]);
+				file.write(run);
+				start = end;
+			}
+			file.seek(oldpos);
+		}
+	}
+
+	/** Leases a batch of blocks to a caller.
+	 * <p>The blocks are taken off the stack, but their on-disk entries 
+	 * are left free until <code>markUsed</code> is called for them.  A 
+	 * lease not used before the disk stops is thus returned to the free 
+	 * list when the disk restarts.
+	 * @param count Greatest number of blocks to lease.
+	 * @return numbers of the blocks, possibly fewer than asked for.
+	 */
+	int[] lease(int count)
+	{
+		synchronized (stack) {
+			int n = Math.min(count,stack.size());
+			int[] blocks = new int[n];
+			for (int i=0; i<n; i++)
+				blocks[i] = ((Integer)stack.pop()).intValue();
+			return blocks;
+		}
+	}
+
+	/** Records leased blocks as used on disk.
+	 * @param blocks Numbers of the blocks, all covered by this list.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void markUsed(int[] blocks) throws IOException
+	{
+		int[] sorted = blocks.clone();
+		Arrays.sort(sorted);
+		writeRuns(sorted,USED);
+	}
+
+	/** Puts unused leased blocks back on the stack.  Their on-disk 
+	 * entries are already free.
+	 * @param blocks Numbers of the blocks, all covered by this list.
+	 */
+	void unlease(int[] blocks)
+	{
+		int[] sorted = blocks.clone();
+		Arrays.sort(sorted);
+		synchronized (stack) {
+			for (int i=sorted.length-1; i>=0; i--)
+				stack.push(new Integer(sorted[i]));
+		}
+	}
+
 }
 
@@ -32,6 +32,10 @@ public class IndexBlock implements Serializable
 {
 	/** Special constant used for unneeded entries in an index block.	 */
 	public static char UNUSED = 0;
+	
+	/** Entry standing in for a last data block whose contents have been 
+	 * packed into a shared fragment block.  The inode records where. */
+	public static int TAIL = -1;
 
 	/** Array where each value is the address of a data block. */
 	public int BlocksUsed[]; 
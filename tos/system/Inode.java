@@ -20,6 +20,12 @@ import tos.api.*;
  * inode are padded with null characters to a fixed length to maintain this.  
  * Date objects are converted to <code>long</code> values before being
  * committed to the physical file.
+ * <p>On disks newer than <code>Superblock.LEGACY_VERSION</code>, the 
+ * original fields are followed by a fixed-size extension area.  It 
+ * records where the file's tail is packed, if it has been, the high
+ * word of the file's size, whether the file is dead, and how many extra
+ * names it has.  The original size field holds the low word,
+ * so files on legacy disks are limited to 2 GB.
  */
 
 
@@ -59,7 +65,7 @@ public class Inode implements Serializable
 	Date Modified;
 	
 	/** Size of file. */
-	public int size;
+	public long size;
 
 	/** First index block for the file.	 */
 	public int firstindexblock;
@@ -76,6 +82,26 @@ public class Inode implements Serializable
 	/** Index block currently being used. */
 	public IndexBlock iblock;
 	
+	/** Shared data block holding the file's packed tail, 
+	 * or 0 if the tail is not packed. */
+	public int tailblock;
+	
+	/** Byte offset of the packed tail within <code>tailblock</code>. */
+	public int tailoffset;
+	
+	/** Whether the file has been deleted but its blocks not yet all 
+	 * reclaimed.  A dead inode stays in use until they have been.  Not
+	 * kept on legacy disks. */
+	public boolean isDead = false;
+	
+	/** Number of directory entries naming the file besides the first.
+	 * Not kept on legacy disks, which do not support links. */
+	public int extralinks = 0;
+	
+	/** Size of the file's data blocks.  Not stored on disk; it is that 
+	 * of the pool holding the first index block. */
+	public int blocksize;
+	
 	/** Maximum length of an inode string. */
 	static int MAX_LENGTH = 255;
 	
@@ -85,8 +111,14 @@ public class Inode implements Serializable
 	/** Size of a Java <code>Date</code> object. */
 	static int DATE_SIZE = 8;
 	
+	/** Total size of an inode on a legacy disk.	 */
+	static int LEGACY_SIZE = 4 + 1 + 1 + 1 + 1 + 1 + 1 + STRING_SIZE + STRING_SIZE + DATE_SIZE + DATE_SIZE + 4 + 4 + 4 + 4 + 4;	
+
+	/** Size of the extension area, including room for later fields. */
+	static int EXTENSION_SIZE = 64;
+	
 	/** Total size of an inode.	 */
-	static int INODE_SIZE = 4 + 1 + 1 + 1 + 1 + 1 + 1 + STRING_SIZE + STRING_SIZE + DATE_SIZE + DATE_SIZE + 4 + 4 + 4 + 4 + 4;	
+	static int INODE_SIZE = LEGACY_SIZE + EXTENSION_SIZE;
 
 	/** Constructor used only at Disk startup to create blank inodes.
 	 * @param num Number of inode.
@@ -117,9 +149,11 @@ public class Inode implements Serializable
 		Number = num;
 		synchronized(file) {
 			file.goToNode(Number);
-			retrieve(file,superblock.iblockarraysize);
-			iblock = new IndexBlock(firstindexblock,superblock.iblockarraysize);
-			file.seek(superblock.datastart + superblock.blocksize * firstindexblock);
+			retrieve(file,superblock);
+			BlockPool pool = superblock.poolOf(firstindexblock);
+			blocksize = pool.blocksize;
+			iblock = new IndexBlock(firstindexblock,pool.iblockarraysize);
+			file.seek(pool.offset(firstindexblock));
 			iblock.read(file);
 		}
 	}
@@ -222,12 +256,21 @@ public class Inode implements Serializable
 		return date;
 	}
 	
+	/** Returns the number of bytes in the last data block, which is 
+	 * the length of the tail if it is packed.
+	 * @return length of the file's tail.
+	 */
+	public int tailLength()
+	{
+		return lastdataentry + 1;
+	}
+	
 	/** Retrieves an inode from the physical disk file.
 	 * @param file TOS physical disk file.
-	 * @param iblockarraysize Number of entries in an index block.
+	 * @param superblock Superblock of the disk.
 	 * @exception IOException if an I/O error occurs.
 	 */
-	void retrieve(FileStore file,int iblockarraysize) throws IOException
+	void retrieve(FileStore file,Superblock superblock) throws IOException
 	{
 		synchronized (file) {
 			long start = file.getFilePointer();
@@ -242,11 +285,21 @@ public class Inode implements Serializable
 			Password = readString(file);
 			Created = readDate(file);
 			Modified = readDate(file);
-			size = file.readInt();
+			int lowsize = file.readInt();
 			firstindexblock = file.readInt();
 			lastindexentry = file.readInt();
 			lastindexblock = file.readInt();
 			lastdataentry = file.readInt();
+			if (superblock.version!=Superblock.LEGACY_VERSION)
+			{
+				tailblock = file.readInt();
+				tailoffset = file.readInt();
+				size = ((long)file.readInt()<<32) | (lowsize & 0xFFFFFFFFL);
+				isDead = file.readBoolean();
+				extralinks = file.readInt();
+			}
+			else
+				size = lowsize;
 		}
 	}
 
@@ -279,10 +332,13 @@ public class Inode implements Serializable
 	/** Writes an inode to the physical disk file.
 	 * @param file TOS disk file to write to.
 	 * @param superblock Superblock of the disk.
-	 * @exception IOException if an I/O error occurs.
+	 * @exception IOException if an I/O error occurs, or the file is too
+	 *                        large for a legacy disk.
 	 */
 	void commit(FileStore file,Superblock superblock) throws IOException
 	{
+		if (superblock.version==Superblock.LEGACY_VERSION && size>Integer.MAX_VALUE)
+			throw new IOException("File too large for a legacy disk");
 		synchronized(file) {
 			long oldpos = file.getFilePointer();
 			file.goToNode(Number);
@@ -298,11 +354,20 @@ public class Inode implements Serializable
 			writeString(file,Password);
 			writeDate(file,Created);
 			writeDate(file,Modified);
-			file.writeInt(size);
+			file.writeInt((int)size);
 			file.writeInt(firstindexblock);
 			file.writeInt(lastindexentry);
 			file.writeInt(lastindexblock);
 			file.writeInt(lastdataentry);
+			if (superblock.version!=Superblock.LEGACY_VERSION)
+			{
+				file.writeInt(tailblock);
+				file.writeInt(tailoffset);
+				file.writeInt((int)(size>>>32));
+				file.writeBoolean(isDead);
+				file.writeInt(extralinks);
+				file.write(new byte[EXTENSION_SIZE - 4 - 4 - 4 - 1 - 4]);
+			}
 			file.seek(oldpos);
 		}
 	}
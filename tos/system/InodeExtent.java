@@ -0,0 +1,58 @@
+//
+//
+// InodeExtent
+//
+//
+package tos.system;
+
+/** This class describes a run of inodes added to a disk after it was
+ * created.
+ * <p>The inode list made when a disk is created lies between the free
+ * list and the data blocks, and cannot grow in place.  Inodes added 
+ * later are placed in extents at the end of the disk file instead.  
+ * Inode numbers continue on from those of the original list, so an 
+ * extent covers a consecutive range of them.
+ */
+
+class InodeExtent
+{
+	/** Number of the first inode in the extent. */
+	int firstinode;
+
+	/** Number of inodes in the extent. */
+	int numfiles;
+
+	/** Location of the extent's first inode. */
+	long start;
+
+	/** Constructor.
+	 * @param firstinode Number of the first inode.
+	 * @param numfiles Number of inodes.
+	 * @param start Location of the first inode in the disk file.
+	 */
+	InodeExtent(int firstinode, int numfiles, long start)
+	{
+		this.firstinode = firstinode;
+		this.numfiles = numfiles;
+		this.start = start;
+	}
+
+	/** Returns <code>true</code> if an inode belongs to this extent.
+	 * @param inode Inode number.
+	 * @return <code>true</code> if the inode is in this extent.
+	 */
+	boolean contains(int inode)
+	{
+		return inode>=firstinode && inode<firstinode+numfiles;
+	}
+
+	/** Returns the location of an inode in the disk file.
+	 * @param inode Inode number.
+	 * @param inodesize Size of an inode, in bytes.
+	 * @return offset of the inode from the start of the disk file.
+	 */
+	long offset(int inode, int inodesize)
+	{
+		return start + (long)(inode-firstinode)*inodesize;
+	}
+}
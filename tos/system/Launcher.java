@@ -1025,16 +1025,30 @@ public class Launcher extends Server implements TOSLauncher, LauncherAdmin
 	 */
 	public void createDisk(String name,String hostname,int numfiles,int blocksize,int numblocks) throws RemoteException, NoLauncherException, IOException
 	{
-		DiskRecord fsrec = new DiskRecord(name,hostname,numfiles,blocksize,numblocks);
+		createDisk(name,hostname,numfiles,new int[] { blocksize },new int[] { numblocks });
+	}
+	
+	/** Creates a new disk with one or more block-size pools.
+	 * The first pool is the disk's default pool, and is the one recorded
+	 * in the <code>DiskTable</code>.
+	 * @param name Name of disk.
+	 * @param hostname Host disk will run on.
+	 * @param numfiles Maximum number of files disk can hold.
+	 * @param blocksizes Size of data blocks in each pool.
+	 * @param numblocks Number of data blocks in each pool.
+	 * @exception RemoteException if there is an RMI problem.
+	 * @exception NoLauncherException if no launcher exists on that host.
+	 * @exception IOException if an I/O problem develops during disk creation.
+	 * @see Administrator#OnDCreate
+	 */
+	public void createDisk(String name,String hostname,int numfiles,int[] blocksizes,int[] numblocks) throws RemoteException, NoLauncherException, IOException
+	{
+		DiskRecord fsrec = new DiskRecord(name,hostname,numfiles,blocksizes[0],numblocks[0]);
 		synchronized (DiskTable) {
 			fsrec.pos = DiskTable.size();
 			DiskTable.addElement(fsrec);
 		}
 		commit();
-		String NumFiles = " " + (new Integer(numfiles)).toString();
-		String BlockSize = " " + (new Integer(blocksize)).toString();
-		String NumBlocks = " " + (new Integer(numblocks)).toString();
-		//launchServer("Disk " + name + NumFiles + BlockSize + NumBlocks,hostname);
 		Host runhost;
 		try {
 			runhost = getHost(hostname);
@@ -1043,14 +1057,14 @@ public class Launcher extends Server implements TOSLauncher, LauncherAdmin
 		}
 
 		if (host.equals(runhost))
-			createDisk(name,numfiles,blocksize,numblocks);
+			createDisk(name,numfiles,blocksizes,numblocks);
 		else
 		{
 			LauncherAdmin launcher;
 			launcher = (LauncherAdmin)LauncherHostMap.get(hostname);
 			if (launcher==null)
 				throw new NoLauncherException("Launcher not found on remote host");
-			launcher.createDisk(name,numfiles,blocksize,numblocks);
+			launcher.createDisk(name,numfiles,blocksizes,numblocks);
 		}
 	}
 	
@@ -1085,13 +1099,32 @@ public class Launcher extends Server implements TOSLauncher, LauncherAdmin
 	 * the new process.
 	 */
 	public void createDisk(String name,int numfiles,int blocksize,int numblocks) throws RemoteException, IOException
+	{
+		createDisk(name,numfiles,new int[] { blocksize },new int[] { numblocks });
+	}
+	
+	/** Creates a new disk with one or more block-size pools.
+	 * The block size and number of blocks of each pool are written to the
+	 * initialization file in pairs.
+	 * @param name Name of new disk.
+	 * @param numfiles Maximum number of files.
+	 * @param blocksizes Size of data blocks in each pool.
+	 * @param numblocks Number of data blocks in each pool.
+	 * @exception RemoteException if there is an RMI problem.
+	 * @exception IOException if the maximum number of disks has been launched 
+	 * <b>or</b> an I/O problem occurs when writing the initialization file or starting
+	 * the new process.
+	 */
+	public void createDisk(String name,int numfiles,int[] blocksizes,int[] numblocks) throws RemoteException, IOException
 	{
 		try {
 			String filename;
 			filename = nextDiskInitName();
 			File file = new File(filename);
 			FileWriter writer = new FileWriter(file);
-			String outstr = name+" "+String.valueOf(portnum)+" "+String.valueOf(numfiles)+" "+String.valueOf(blocksize)+" "+String.valueOf(numblocks);
+			String outstr = name+" "+String.valueOf(portnum)+" "+String.valueOf(numfiles);
+			for (int i=0; i<blocksizes.length; i++)
+				outstr += " "+String.valueOf(blocksizes[i])+" "+String.valueOf(numblocks[i]);
 			char[] outchr = outstr.toCharArray();
 			writer.write(outchr,0,outchr.length);
 			writer.close();
@@ -106,6 +106,18 @@ interface LauncherAdmin extends Remote
 	void createDisk(String name,int numfiles,int blocksize,int numblocks) 
 		throws RemoteException, IOException, NoLauncherException;
 	
+	/** Creates a new disk with one or more block-size pools on this host.
+	 * @param name Name of disk.
+	 * @param numfiles Maximum number of files disk can hold.
+	 * @param blocksizes Size of data blocks in each pool.
+	 * @param numblocks Number of data blocks in each pool.
+	 * @exception RemoteException if there is an RMI problem.
+	 * @exception NoLauncherException if no launcher exists on that host.
+	 * @exception IOException if an I/O problem develops during disk creation.
+	 */
+	void createDisk(String name,int numfiles,int[] blocksizes,int[] numblocks) 
+		throws RemoteException, IOException, NoLauncherException;
+	
 	/** Creates a new disk on the specified host.
 	 * @param name Name of new disk.
 	 * @param hostname Host disk will run on.
@@ -120,6 +132,21 @@ interface LauncherAdmin extends Remote
 	void createDisk(String name,String hostname,int numfiles,int blocksize,int numblocks) 
 		throws RemoteException, NoLauncherException, IOException;
 	
+	/** Creates a new disk with one or more block-size pools on the 
+	 * specified host.
+	 * @param name Name of new disk.
+	 * @param hostname Host disk will run on.
+	 * @param numfiles Maximum number of files.
+	 * @param blocksizes Size of data blocks in each pool.
+	 * @param numblocks Number of data blocks in each pool.
+	 * @exception RemoteException if there is an RMI problem.
+	 * @exception IOException if the maximum number of disks has been launched 
+	 * <b>or</b> an I/O problem occurs when writing the initialization file or starting
+	 * the new process.
+	 */
+	void createDisk(String name,String hostname,int numfiles,int[] blocksizes,int[] numblocks) 
+		throws RemoteException, NoLauncherException, IOException;
+	
 	/** Restarts a previously running disk.
 	 * @param servername Name of disk.
 	 * @exception RemoteException if there is an RMI problem.
@@ -15,19 +15,24 @@ import tos.api.*;
  * them, to act as RMI servers.  Every TOSProcess-derived class will have
  * a single Listener object whose purpose is to receive calls
  * from TOS servers to deal with the user's threads in some way.
+ * <p>The listener also keeps the process's leases on mutexes, and gives
+ * them back when the sync server revokes them.
  */
 
 public class Listener extends RemoteObject implements TOSListener
 {
-	/** List of threads in the process.	 */
-	protected Vector threadlist = new Vector();
-	
 	/** TOS identifier of the process. */
 	protected int procid;
 	
 	/** Remote stub of launcher. */
 	TOSLauncher launcher;
 	
+	/** Leases on mutexes, keyed by the name of the mutex. */
+	protected Hashtable leases = new Hashtable();
+	
+	/** Listeners exported by this process, keyed by their remote stubs. */
+	protected static Hashtable local = new Hashtable();
+	
 	/** Constructor.
 	 * <p>The constructor merely calls that of the superclass.
 	 * @exception RemoteException if an RMI error occurs.
@@ -45,58 +50,61 @@ public class Listener extends RemoteObject implements TOSListener
 	{
 		procid = id;
 	}
-		
-	/** Suspends a user thread.
-	 * @param threadName Thread to suspend.
-	 * @exception RemoteException if there has been an RMI error.
+	
+	/** Records the remote stub the listener was exported with, so that 
+	 * objects holding the stub can find the listener with 
+	 * <code>local</code>.
+	 * <p> This function cannot be called remotely.
+	 * @param stub Remote stub of this listener.
 	 */
-	public void suspend(String threadName) throws RemoteException
+	public void setStub(TOSListener stub)
 	{
-		try {
-			Thread lthread = Thread.currentThread();
-			ThreadGroup tgroup = lthread.getThreadGroup();
-			while (tgroup.getParent()!=null)
-				tgroup = tgroup.getParent();
-			Thread[] tarray = new Thread[tgroup.activeCount()];
-			int count = tgroup.enumerate(tarray,true);
-			for (int i=0; i<count; i++)
-			{
-				String newname = tarray[i].getName();
-				if (threadName.equals(newname))
-				{
-					threadlist.addElement(tarray[i]);
-					tarray[i].suspend();
-					break;
-				}
-			}																  		
-		} catch (Exception e) {
-			System.out.println(e);
-		}
+		local.put(stub,this);
 	}
 	
-	/** Resumes a suspended thread.
-	 * @param Concatenated TOS process identifier and thread name.
-	 * @exception RemoteException if there has been an RMI error.
-	 * @exception SyncException if an error occurs with the sync object.
+	/** Returns the listener of this process with the given stub.
+	 * @param stub Remote stub of a listener.
+	 * @return the listener, or <code>null</code> if it belongs to another
+	 *         process.
 	 */
-	public void resume(String name) throws RemoteException, SyncException
+	public static Listener local(TOSListener stub)
 	{
-		if (!name.startsWith(String.valueOf(procid)))
-			throw new SyncException("Wrong process");
-		String threadName = name.substring(String.valueOf(procid).length());
-		Thread curthread;
-		int i;
-		for (i=0; i<threadlist.size(); i++)
-		{
-			curthread = (Thread)threadlist.elementAt(i);
-			if (threadName.equals(curthread.getName()))
+		return (Listener)local.get(stub);
+	}
+	
+	/** Returns the process's lease on a mutex, creating it if need be.
+	 * <p> This function cannot be called remotely.
+	 * @param name Name of the mutex.
+	 * @param server Remote stub of the server holding the mutex.
+	 * @return the lease.
+	 */
+	public MutexLease getLease(String name, TOSSyncServer server)
+	{
+		synchronized (leases) {
+			MutexLease lease = (MutexLease)leases.get(name);
+			if (lease==null)
 			{
-				curthread.resume();
-				threadlist.removeElementAt(i);
-				return;
+				lease = new MutexLease(name,server);
+				leases.put(name,lease);
 			}
+			return lease;
 		}
-		throw (new SyncException("No thread found of given name."));
+	}
+		
+	/** Asks the process to give back its lease on a mutex.
+	 * <p>The lease is given back at once unless a thread holds the mutex,
+	 * in which case it is given back when the thread releases it.
+	 * @param name Name of the mutex.
+	 * @param type Type of the object.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	public void revoke(String name, int type) throws RemoteException
+	{
+		if (type!=TOSSyncServer.MUTEX)
+			return;
+		MutexLease lease = (MutexLease)leases.get(name);
+		if (lease!=null)
+			lease.revoke();
 	}
 	
 	/** Kills a process.
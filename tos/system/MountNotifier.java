@@ -0,0 +1,66 @@
+//
+//
+// MountNotifier
+//
+//
+package tos.system;
+
+import java.rmi.*;
+import java.util.*;
+
+/** This class tells a filename server's listeners about changes in the
+ * background.
+ * <p>A change to the mount or name table only raises the server's 
+ * version, so that <code>mount</code> does not wait on clients.  The 
+ * notifier waits for the version to move and then calls every listener
+ * with the new version.  Changes made while it is calling are delivered
+ * together, as one notice carrying the latest version.  Listeners that 
+ * cannot be reached are dropped.
+ * @see FileNameServer#addMountListener
+ */
+
+class MountNotifier implements Runnable
+{
+	/** Server whose listeners are notified. */
+	FileNameServer server;
+	
+	/** Constructor.
+	 * @param server Server whose listeners are notified.
+	 */
+	MountNotifier(FileNameServer server)
+	{
+		this.server = server;
+	}
+	
+	/** Delivers notices until the thread is interrupted.
+	 */
+	public void run()
+	{
+		long delivered = 0;
+		while (true)
+		{
+			long version;
+			Vector current;
+			synchronized (server.listeners) {
+				try {
+					while (server.version<=delivered)
+						server.listeners.wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+				version = server.version;
+				current = (Vector)server.listeners.clone();
+			}
+			for (int i=0; i<current.size(); i++)
+			{
+				TOSMountListener listener = (TOSMountListener)current.elementAt(i);
+				try {
+					listener.mountChanged(version);
+				} catch (RemoteException e) {
+					server.listeners.removeElement(listener);
+				}
+			}
+			delivered = version;
+		}
+	}
+}
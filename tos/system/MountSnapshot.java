@@ -0,0 +1,35 @@
+//
+//
+// MountSnapshot
+//
+//
+package tos.system;
+
+import java.io.*;
+import java.util.*;
+
+/** A copy of a filename server's mount table together with its version.
+ * <p>The version is the one the server had when the copy was made, so a
+ * client holding a snapshot can tell whether a change notice it receives
+ * is already reflected in it.
+ * @see TOSFileNameServer#getMountSnapshot
+ */
+
+public class MountSnapshot implements Serializable
+{
+	/** Version of the tables the copy was made from. */
+	public long version;
+	
+	/** Mount table, with mount points as keys and disk names as values. */
+	public Hashtable mounts;
+	
+	/** Constructor.
+	 * @param version Version of the tables.
+	 * @param mounts Copy of the mount table.
+	 */
+	public MountSnapshot(long version, Hashtable mounts)
+	{
+		this.version = version;
+		this.mounts = mounts;
+	}
+}
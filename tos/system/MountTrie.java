@@ -0,0 +1,215 @@
+//
+//
+// MountTrie
+//
+//
+package tos.system;
+
+import java.util.*;
+import tos.api.*;
+
+/** Read-only index of a mount table, by path component.
+ * <p>Each node of the trie stands for a directory in the global 
+ * namespace and holds the name of the disk mounted there, if any.  A 
+ * name is resolved by walking down the trie one component at a time, 
+ * remembering the deepest mount passed, so that the cost depends on the
+ * depth of the path and not on the number of mounts.  Children are 
+ * found by hashing the component where it lies in the name, so that no
+ * strings are made during the walk.
+ * <p>A trie is never changed once built.  The filename server builds a 
+ * new one whenever the mount table changes and replaces the old one in
+ * a single assignment, so that readers need no locks.
+ */
+
+public class MountTrie
+{
+	/** One directory of the namespace. */
+	static class Node
+	{
+		/** Name of the disk mounted here, or <code>null</code>. */
+		String disk;
+		
+		/** Children while the trie is built, keyed by name. */
+		Hashtable building = new Hashtable();
+		
+		/** Names of the children, in a hash table with open addressing;
+		 * <code>null</code> entries are empty. */
+		String[] names;
+		
+		/** Children, in the same slots as their names. */
+		Node[] children;
+		
+		/** Hash codes of the names, in the same slots. */
+		int[] hashes;
+		
+		/** Moves the children from <code>building</code> into the hash 
+		 * table used by lookups, here and below. */
+		void freeze()
+		{
+			int slots = 1;
+			while (slots<building.size()*2)
+				slots *= 2;
+			names = new String[slots];
+			children = new Node[slots];
+			hashes = new int[slots];
+			Enumeration keys = building.keys();
+			while (keys.hasMoreElements())
+			{
+				String name = (String)keys.nextElement();
+				Node child = (Node)building.get(name);
+				int hash = name.hashCode();
+				int slot = hash & (slots-1);
+				while (names[slot]!=null)
+					slot = (slot+1) & (slots-1);
+				names[slot] = name;
+				children[slot] = child;
+				hashes[slot] = hash;
+				child.freeze();
+			}
+			building = null;
+		}
+		
+		/** Finds the child named by part of a string.
+		 * @param path String holding the name.
+		 * @param start Index of the first character of the name.
+		 * @param end Index after the last character of the name.
+		 * @return the child, or <code>null</code> if there is none.
+		 */
+		Node child(String path, int start, int end)
+		{
+			int hash = 0;
+			for (int i=start; i<end; i++)
+				hash = 31*hash + path.charAt(i);
+			int mask = names.length-1;
+			int len = end-start;
+			for (int slot=hash & mask; names[slot]!=null; slot=(slot+1) & mask)
+			{
+				if (hashes[slot]==hash && names[slot].length()==len &&
+					path.regionMatches(start,names[slot],0,len))
+					return children[slot];
+			}
+			return null;
+		}
+	}
+	
+	/** Node for the root directory. */
+	protected Node root = new Node();
+	
+	/** Separator between path components. */
+	static char sep = TOSFile.separator.charAt(0);
+	
+	/** Builds a trie from a mount table.
+	 * @param table Mount table, with mount points as keys and disk names
+	 *              as values.
+	 */
+	public MountTrie(Hashtable table)
+	{
+		synchronized (table) {
+			Enumeration keys = table.keys();
+			while (keys.hasMoreElements())
+			{
+				String mountpt = (String)keys.nextElement();
+				add(mountpt,(String)table.get(mountpt));
+			}
+		}
+		root.freeze();
+	}
+	
+	/** Adds a mount point while the trie is being built.  A separator at
+	 * the end of the mount point, other than for the root, counts as an 
+	 * empty last component.
+	 * @param mountpt Mount point.
+	 * @param disk Name of the disk mounted there.
+	 */
+	void add(String mountpt, String disk)
+	{
+		Node node = root;
+		int start = (mountpt.length()>0 && mountpt.charAt(0)==sep) ? 1 : 0;
+		int end = (start<mountpt.length()) ? start : -1;
+		while (end!=-1)
+		{
+			end = mountpt.indexOf(sep,start);
+			String name = mountpt.substring(start,
+											(end==-1) ? mountpt.length() : end);
+			Node child = (Node)node.building.get(name);
+			if (child==null)
+			{
+				child = new Node();
+				node.building.put(name,child);
+			}
+			node = child;
+			start = end+1;
+		}
+		node.disk = disk;
+	}
+	
+	/** Returns the pathname within the disk corresponding to a name in 
+	 * the global namespace.
+	 * <p>The disk is the one mounted to the longest directory in the 
+	 * name, or to the name itself.  So if <code>name</code> is 
+	 * <i>/one/two/three/filename</i> and disks are mounted to <i>/one</i>
+	 * and <i>/one/two</i>, the latter is chosen.
+	 * @param name Location-independent file name.
+	 * @return location-dependent file name.
+	 * @exception NoDiskException if there is no disk with a mountpoint in 
+	 *                            the file's path.
+	 */
+	public String resolve(String name) throws NoDiskException
+	{
+		Node node = root;
+		String disk = root.disk;
+		int pos = 0;
+		int start = (name.length()>0 && name.charAt(0)==sep) ? 1 : 0;
+		while (start<name.length())
+		{
+			int end = name.indexOf(sep,start);
+			if (end==-1)
+				end = name.length();
+			node = node.child(name,start,end);
+			if (node==null)
+				break;
+			if (node.disk!=null)
+			{
+				disk = node.disk;
+				pos = end;
+			}
+			start = end+1;
+		}
+		if (disk==null)
+			throw new NoDiskException();
+		if (pos==name.length())
+			return disk + TOSFile.servermark + TOSFile.separator;
+		return disk + TOSFile.servermark + name.substring(pos);
+	}
+	
+	/** Returns the names of all disks mounted to points within a given 
+	 * directory, one per line.
+	 * <p>If <code>dirname</code> does not end with a separator, the last
+	 * component is taken as the start of the names looked for.
+	 * @param dirname Directory to search.
+	 * @return Newline-delimited list of disks.
+	 */
+	public String getDiskNames(String dirname)
+	{
+		Node node = root;
+		int start = (dirname.length()>0 && dirname.charAt(0)==sep) ? 1 : 0;
+		int end;
+		while ((end = dirname.indexOf(sep,start))!=-1)
+		{
+			node = node.child(dirname,start,end);
+			if (node==null)
+				return "";
+			start = end+1;
+		}
+		String partial = dirname.substring(start);
+		StringBuffer output = new StringBuffer();
+		for (int slot=0; slot<node.names.length; slot++)
+		{
+			String name = node.names[slot];
+			if (name!=null && node.children[slot].disk!=null &&
+				name.length()>partial.length() && name.startsWith(partial))
+				output.append(node.children[slot].disk).append("\n");
+		}
+		return output.toString();
+	}
+}
@@ -0,0 +1,178 @@
+//
+//
+// MutexLease
+//
+//
+package tos.system;
+
+import java.rmi.*;
+
+/** A process's lease on a mutex.
+ * <p>When a thread takes a mutex that nobody else is waiting for, the 
+ * sync server may lease it to the thread's process.  The process then 
+ * keeps the mutex after the thread releases it, and its threads take 
+ * and release it again without calling the server, until the server 
+ * revokes the lease because a thread of another process wants the mutex.
+ * A revoked lease is handed back as soon as no thread of the process 
+ * holds the mutex.
+ * <p>Only one thread of a process asks the server for the mutex at a 
+ * time; the others wait here, so that they can take the mutex locally if
+ * it is leased.
+ * <p>None of these functions can be called remotely.
+ * @see TOSSyncServer#acquireLease
+ */
+
+public class MutexLease
+{
+	/** Name of the mutex. */
+	String name;
+	
+	/** Remote stub of the server holding the mutex. */
+	TOSSyncServer server;
+	
+	/** Set to <code>true</code> while the process holds the lease. */
+	boolean isHeld = false;
+	
+	/** Set to <code>true</code> when the server has asked for the mutex. */
+	boolean isRevoked = false;
+	
+	/** Set to <code>true</code> while a thread holds the mutex under the
+	 * lease. */
+	boolean isLocked = false;
+	
+	/** Set to <code>true</code> while a thread is asking the server for 
+	 * the mutex. */
+	boolean isAcquiring = false;
+	
+	/** Returned by <code>lock</code> if the mutex was taken under the 
+	 * lease. */
+	public static int LOCKED = 1;
+	
+	/** Returned by <code>lock</code> if the caller must ask the server. */
+	public static int ACQUIRING = 2;
+	
+	/** Returned by <code>lock</code> if the time ran out. */
+	public static int EXPIRED = 0;
+	
+	/** Constructor.
+	 * @param name Name of the mutex.
+	 * @param server Remote stub of the server holding the mutex.
+	 */
+	MutexLease(String name, TOSSyncServer server)
+	{
+		this.name = name;
+		this.server = server;
+	}
+	
+	/** Takes the mutex under the lease, or makes the caller the thread 
+	 * that asks the server for it.
+	 * <p>Blocks while another thread holds the mutex under the lease or 
+	 * is asking the server, for at most the given time.  A caller that 
+	 * gets <code>ACQUIRING</code> must call <code>acquired</code> or 
+	 * <code>failed</code> once it has asked.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>LOCKED</code> if the mutex was taken under the lease,
+	 *         <code>ACQUIRING</code> if the caller must ask the server, or 
+	 *         <code>EXPIRED</code> if the time ran out.
+	 */
+	public synchronized int lock(long timeout)
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		boolean isInterrupted = false;
+		try {
+			while (true)
+			{
+				if (isHeld && !isRevoked && !isLocked)
+				{
+					isLocked = true;
+					return LOCKED;
+				}
+				if (!isHeld && !isAcquiring)
+				{
+					isAcquiring = true;
+					return ACQUIRING;
+				}
+				long left = 0;
+				if (timeout>=0)
+				{
+					left = deadline - System.currentTimeMillis();
+					if (left<=0)
+						return EXPIRED;
+				}
+				try {
+					wait(left);
+				} catch (InterruptedException e) {
+					isInterrupted = true;
+				}
+			}
+		} finally {
+			if (isInterrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	/** Records that the server has granted the mutex to the caller.
+	 * @param isLeased <code>true</code> if the server leased the mutex 
+	 *                 to the process.
+	 */
+	public synchronized void acquired(boolean isLeased)
+	{
+		isAcquiring = false;
+		if (isLeased)
+		{
+			isHeld = true;
+			isLocked = true;
+		}
+		notifyAll();
+	}
+	
+	/** Records that the caller could not ask the server for the mutex, 
+	 * or was not granted it in time, so that another thread may ask.
+	 */
+	public synchronized void failed()
+	{
+		isAcquiring = false;
+		notifyAll();
+	}
+	
+	/** Releases the mutex under the lease.
+	 * <p>If the process holds no lease, or the lease has been revoked, 
+	 * the lease is given up and the caller must release the mutex on the
+	 * server.
+	 * @return <code>true</code> if the mutex was released locally, 
+	 *         <code>false</code> if the caller must call the server.
+	 */
+	public synchronized boolean unlock()
+	{
+		if (!isHeld)
+			return false;
+		isLocked = false;
+		if (isRevoked)
+		{
+			isHeld = false;
+			isRevoked = false;
+		}
+		notifyAll();
+		return isHeld;
+	}
+	
+	/** Gives the lease back to the server.
+	 * <p>If a thread holds the mutex, the lease is given back when it
+	 * releases it.  A revocation that arrives before the process has 
+	 * learned of its lease is kept, and applies to the next one.
+	 * @exception RemoteException if the server could not be reached.
+	 */
+	public void revoke() throws RemoteException
+	{
+		synchronized (this) {
+			isRevoked = true;
+			if (!isHeld || isLocked)
+				return;
+			isHeld = false;
+			isRevoked = false;
+			notifyAll();
+		}
+		server.Release(name,TOSSyncServer.MUTEX);
+	}
+}
@@ -0,0 +1,284 @@
+//
+//
+// OpenFile
+//
+//
+package tos.system;
+
+import java.io.*;
+import java.util.*;
+import tos.api.*;
+
+/** This class holds the state of a file opened on a disk by handle.
+ * <p>While the file is open the disk keeps its inode, its chain of index
+ * blocks and the list of its data blocks in memory, so that callers need
+ * only pass the handle, an offset and the bytes to read or write.  Data
+ * blocks are written as they are changed; changed index blocks and the 
+ * inode are written when the file is closed.
+ * <p>A file opened for writing ("w") starts out empty and keeps its old 
+ * blocks for reuse; those it does not reach again are freed when it is
+ * closed.  A file opened for appending ("a") starts out at its full 
+ * length.  Either may be written anywhere up to its current end.  A 
+ * packed tail is moved back into a block of its own before a file is 
+ * opened for either.
+ * @see Disk#openFile
+ */
+
+class OpenFile
+{
+	/** Disk holding the file. */
+	Disk disk;
+
+	/** Inode of the file. */
+	Inode inode;
+
+	/** Mode the file was opened in: "r", "w" or "a". */
+	String mode;
+
+	/** Index of the pool new blocks are taken from. */
+	int pool;
+
+	/** Size of the file's data blocks. */
+	int blocksize;
+
+	/** Number of data block entries in each index block. */
+	int entries;
+
+	/** Index blocks of the file, in order. */
+	Vector chain;
+
+	/** Data blocks of the file, in order, as <code>Integer</code>s.  The 
+	 * last may be <code>IndexBlock.TAIL</code> in a file open for 
+	 * reading. */
+	Vector blocks = new Vector();
+
+	/** Index blocks changed since the file was opened. */
+	Vector dirty = new Vector();
+
+	/** Current length of the file. */
+	long size;
+
+	/** Contents of the packed tail, once read. */
+	byte[] tail;
+
+	/** Time the file was opened or last used by handle, in milliseconds. */
+	long touched = System.currentTimeMillis();
+
+	/** Constructor.  Reads the file's index blocks.
+	 * @param disk Disk holding the file.
+	 * @param inode Inode of the file.
+	 * @param mode Mode to open the file in: "r", "w" or "a".
+	 * @exception IOException if an I/O error occurs.
+	 */
+	OpenFile(Disk disk, Inode inode, String mode) throws IOException
+	{
+		this.disk = disk;
+		this.inode = inode;
+		this.mode = mode;
+		pool = disk.poolIndex(inode.firstindexblock);
+		blocksize = disk.superblock.blockSize(inode.firstindexblock);
+		chain = disk.indexChain(inode);
+		entries = ((IndexBlock)chain.elementAt(0)).size - 1;
+		int count = (chain.size()-1)*entries + inode.lastindexentry + 1;
+		for (int k=0; k<count; k++)
+		{
+			IndexBlock iblock = (IndexBlock)chain.elementAt(k/entries);
+			blocks.addElement(new Integer(iblock.BlocksUsed[k%entries]));
+		}
+		if (mode.equals("w"))
+			size = 0;
+		else
+			size = (long)(count-1)*blocksize + inode.lastdataentry + 1;
+	}
+
+	/** Returns the number of the given data block of the file.
+	 * @param k Position of the block in the file.
+	 * @return the block's number.
+	 */
+	int block(int k)
+	{
+		return ((Integer)blocks.elementAt(k)).intValue();
+	}
+
+	/** Reads from the file.
+	 * <p>Runs of consecutive blocks are read with a single positional 
+	 * read, up to <code>Disk.COPY_BLOCKS</code> blocks at a time.
+	 * @param offset Position in the file to read from.
+	 * @param length Greatest number of bytes to read.
+	 * @return the bytes read, fewer than asked for only at the end of the
+	 *         file.
+	 * @exception IOException if an I/O error occurs, or the offset is
+	 *                        negative.
+	 */
+	synchronized byte[] read(long offset, int length) throws IOException
+	{
+		if (offset<0 || length<0)
+			throw new IOException("Invalid offset");
+		if (offset>=size)
+			return new byte[0];
+		int n = (int)Math.min(length,size-offset);
+		byte[] data = new byte[n];
+		int done = 0;
+		while (done<n)
+		{
+			long pos = offset + done;
+			int k = (int)(pos/blocksize);
+			int within = (int)(pos%blocksize);
+			int first = block(k);
+			if (first==IndexBlock.TAIL)
+			{
+				if (tail==null)
+					tail = disk.retrieveTail(inode.Number);
+				int m = Math.min(n-done,tail.length-within);
+				if (m<=0)
+					break;
+				System.arraycopy(tail,within,data,done,m);
+				done += m;
+				continue;
+			}
+			int needed = (within+n-done+blocksize-1)/blocksize;
+			int run = 1;
+			while (run<needed && run<Disk.COPY_BLOCKS && k+run<blocks.size()
+				   && block(k+run)==first+run 
+				   && disk.poolIndex(first+run)==disk.poolIndex(first))
+				run++;
+			byte[] buffer = new byte[run*blocksize];
+			disk.readBlocks(first,run,buffer,0);
+			int m = Math.min(n-done,buffer.length-within);
+			System.arraycopy(buffer,within,data,done,m);
+			done += m;
+		}
+		return data;
+	}
+
+	/** Writes to the file.
+	 * <p>Blocks that are only partly overwritten are read in first, unless
+	 * they lie past the end of the file.  New blocks are taken from the 
+	 * file's pool class as they are needed.
+	 * @param offset Position in the file to write at, no further than its
+	 *               current end.
+	 * @param data Bytes to write.
+	 * @exception IOException if an I/O error occurs, the file is not open 
+	 *                        for writing, or the offset is past the end 
+	 *                        of the file.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	synchronized void write(long offset, byte[] data) 
+		throws IOException, DiskFullException
+	{
+		if (mode.equals("r"))
+			throw new IOException("File not open for writing");
+		if (offset<0 || offset>size)
+			throw new IOException("Invalid offset");
+		int done = 0;
+		byte[] buffer = new byte[blocksize];
+		while (done<data.length)
+		{
+			long pos = offset + done;
+			int k = (int)(pos/blocksize);
+			int within = (int)(pos%blocksize);
+			int m = Math.min(blocksize-within,data.length-done);
+			int blocknum;
+			if (k<blocks.size())
+			{
+				blocknum = block(k);
+				if (m<blocksize && (long)k*blocksize<size)
+					disk.readBlocks(blocknum,1,buffer,0);
+				else
+					Arrays.fill(buffer,(byte)0);
+			}
+			else
+			{
+				blocknum = appendBlock();
+				Arrays.fill(buffer,(byte)0);
+			}
+			System.arraycopy(data,done,buffer,within,m);
+			disk.writeBlocks(blocknum,1,buffer,0);
+			done += m;
+			if (pos+m>size)
+				size = pos + m;
+		}
+	}
+
+	/** Adds a new data block to the end of the file, and a new index 
+	 * block if the last one is full.
+	 * @return number of the new data block.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	int appendBlock() throws IOException, DiskFullException
+	{
+		int k = blocks.size();
+		if (k/entries>=chain.size())
+		{
+			IndexBlock last = (IndexBlock)chain.lastElement();
+			IndexBlock iblock = new IndexBlock(disk.allocateBlock(pool),last.size);
+			last.setChild(iblock.blocknum);
+			markDirty(last);
+			chain.addElement(iblock);
+			markDirty(iblock);
+		}
+		IndexBlock iblock = (IndexBlock)chain.elementAt(k/entries);
+		int blocknum = disk.allocateBlock(pool);
+		iblock.BlocksUsed[k%entries] = blocknum;
+		markDirty(iblock);
+		blocks.addElement(new Integer(blocknum));
+		return blocknum;
+	}
+
+	/** Records that an index block must be written when the file is 
+	 * closed.
+	 * @param iblock Changed index block.
+	 */
+	void markDirty(IndexBlock iblock)
+	{
+		if (!dirty.contains(iblock))
+			dirty.addElement(iblock);
+	}
+
+	/** Closes the file, writing back its index blocks and inode.
+	 * <p>Blocks past the new end of the file are cut from the chain.  The
+	 * index blocks are forced out to the host's disk before the inode is 
+	 * written, as in <code>Disk.commitFile</code>, and both are written 
+	 * before the cut blocks are freed, so that a crash leaves them leaked
+	 * rather than shared.
+	 * @return the file's inode.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	synchronized Inode close() throws IOException
+	{
+		if (mode.equals("r"))
+			return inode;
+		int count = (int)((size+blocksize-1)/blocksize);
+		if (count==0)
+			count = 1;
+		int lastentry = (count-1)%entries;
+		IndexBlock last = (IndexBlock)chain.elementAt((count-1)/entries);
+		Vector freed = new Vector();
+		for (int k=count; k<blocks.size(); k++)
+			freed.addElement(blocks.elementAt(k));
+		for (int i=(count-1)/entries+1; i<chain.size(); i++)
+			freed.addElement(new Integer(((IndexBlock)chain.elementAt(i)).blocknum));
+		if (!freed.isEmpty())
+		{
+			for (int j=lastentry+1; j<entries; j++)
+				last.BlocksUsed[j] = IndexBlock.UNUSED;
+			last.BlocksUsed[last.size-1] = IndexBlock.UNUSED;
+			markDirty(last);
+		}
+		for (int i=0; i<dirty.size(); i++)
+		{
+			IndexBlock iblock = (IndexBlock)dirty.elementAt(i);
+			if (chain.indexOf(iblock)<=(count-1)/entries)
+				disk.commitIndexBlock(iblock);
+		}
+		disk.file.getChannel().force(false);
+		inode.lastindexblock = last.blocknum;
+		inode.lastindexentry = lastentry;
+		inode.lastdataentry = (int)(size-(long)(count-1)*blocksize) - 1;
+		inode.size = size;
+		inode = disk.commitChain(inode);
+		disk.freeBlocks(freed);
+		return inode;
+	}
+}
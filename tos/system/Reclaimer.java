@@ -0,0 +1,177 @@
+//
+//
+// Reclaimer
+//
+//
+package tos.system;
+
+import java.util.*;
+
+/** This class frees the blocks of deleted files in the background.
+ * <p>Deleting a file only removes its directory entry and marks its 
+ * inode dead, so that the caller need not wait for the blocks to be 
+ * freed.  The reclaimer takes dead files from its queue one at a time
+ * and has the disk free their blocks, an index block's worth at a time.
+ * Files still open elsewhere are put back at the end of the queue and
+ * tried again later.
+ * <p>The reclaimer also frees the old blocks of files whose contents 
+ * were replaced or whose tails were packed, once no caller has the file
+ * pinned.
+ * <p>Between files the reclaimer also has the disk close the files left
+ * open by handle for too long, and drop the transfers from other disks
+ * left unfinished for too long, so that their pins do not keep dead 
+ * files from being reclaimed for ever.
+ * @see Disk#reclaimFile
+ */
+
+class Reclaimer implements Runnable
+{
+	/** Disk whose files are reclaimed. */
+	Disk disk;
+	
+	/** Work waiting: inode numbers of dead files, as 
+	 * <code>Integer</code>s, and <code>Leftover</code>s. */
+	Vector queue = new Vector();
+	
+	/** Pause before trying again when only open files are waiting, in
+	 * milliseconds. */
+	static long RETRY_DELAY = 1000;
+	
+	/** Time between checks for idle open files, in milliseconds. */
+	static long SESSION_CHECK = 60*1000;
+	
+	/** Time of the last check for idle open files. */
+	long checked = 0;
+
+	/** Constructor.
+	 * @param disk Disk whose files are reclaimed.
+	 */
+	Reclaimer(Disk disk)
+	{
+		this.disk = disk;
+	}
+
+	/** Blocks a file used before its contents were replaced or its tail
+	 * was packed. */
+	static class Leftover
+	{
+		/** Inode number of the file. */
+		int filenum;
+		
+		/** Index and data blocks, as <code>Integer</code>s. */
+		Vector blocks;
+		
+		/** Block holding the packed tail, 0 if there was none. */
+		int tailblock;
+		
+		/** Offset of the packed tail in its block. */
+		int tailoffset;
+		
+		/** Length of the packed tail. */
+		int taillength;
+		
+		/** Constructor, for blocks without a packed tail.
+		 * @param filenum Inode number of the file.
+		 * @param blocks Blocks the file no longer uses.
+		 */
+		Leftover(int filenum, Vector blocks)
+		{
+			this.filenum = filenum;
+			this.blocks = blocks;
+		}
+		
+		/** Constructor.
+		 * @param old Inode of the file before its contents were replaced.
+		 * @param blocks Index and data blocks the inode lists.
+		 */
+		Leftover(Inode old, Vector blocks)
+		{
+			filenum = old.Number;
+			this.blocks = blocks;
+			tailblock = old.tailblock;
+			tailoffset = old.tailoffset;
+			if (tailblock!=0)
+				taillength = old.tailLength();
+		}
+	}
+
+	/** Queues a dead file to have its blocks freed.
+	 * @param filenum Inode number of the file.
+	 */
+	void add(int filenum)
+	{
+		queue(new Integer(filenum));
+	}
+
+	/** Queues the old blocks of a file to be freed.
+	 * @param leftover Blocks to free.
+	 */
+	void add(Leftover leftover)
+	{
+		queue(leftover);
+	}
+	
+	/** Adds work to the queue, unless it is there already.
+	 * @param entry Work to add.
+	 */
+	void queue(Object entry)
+	{
+		synchronized (queue) {
+			if (!queue.contains(entry))
+				queue.addElement(entry);
+			queue.notify();
+		}
+	}
+
+	/** Frees the blocks of queued files until the thread is interrupted.
+	 */
+	public void run()
+	{
+		int skipped = 0;
+		while (true)
+		{
+			if (System.currentTimeMillis()-checked>=SESSION_CHECK)
+			{
+				checked = System.currentTimeMillis();
+				disk.expireSessions();
+				disk.expireReceivers();
+			}
+			Object entry;
+			try {
+				synchronized (queue) {
+					if (queue.isEmpty())
+					{
+						skipped = 0;
+						queue.wait(SESSION_CHECK);
+						continue;
+					}
+					if (skipped>=queue.size())
+					{
+						skipped = 0;
+						queue.wait(RETRY_DELAY);
+					}
+					entry = queue.elementAt(0);
+					queue.removeElementAt(0);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				boolean done;
+				if (entry instanceof Leftover)
+					done = disk.reclaimBlocks((Leftover)entry);
+				else
+					done = disk.reclaimFile(((Integer)entry).intValue());
+				if (done)
+					skipped = 0;
+				else
+				{
+					skipped++;
+					queue(entry);
+				}
+			} catch (Exception e) {
+				Debug.ErrorMessage("Reclaimer",e.toString());
+			}
+		}
+	}
+}
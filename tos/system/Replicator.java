@@ -0,0 +1,139 @@
+//
+//
+// Replicator
+//
+//
+package tos.system;
+
+import java.rmi.*;
+import java.util.*;
+
+/** This class sends a server's object table changes to one other server
+ * in the background.
+ * <p>A server has one replicator for each other server of its type, so 
+ * that a request that changes the object table only queues the change, 
+ * and a slow server delays nobody but itself.  The replicator sends the
+ * changes waiting in its queue in batches, in the order they were made.
+ * A batch that fails is sent again after a pause, until the other 
+ * server is removed from the server table.
+ * @see Server#replicate
+ */
+
+class Replicator implements Runnable
+{
+	/** Server whose changes are sent. */
+	Server server;
+	
+	/** Server the changes are sent to. */
+	TOSServer peer;
+	
+	/** Changes waiting to be sent, as <code>TableChange</code>s in order.
+	 * A batch stays in the queue until the peer has applied it. */
+	Vector queue = new Vector();
+	
+	/** Sequence number of the last change the peer has applied. */
+	long acked = 0;
+	
+	/** Set to <code>true</code> when the peer leaves the server table. */
+	boolean isStopped = false;
+	
+	/** Most changes sent in one call. */
+	static int BATCH_SIZE = 64;
+	
+	/** Pause before sending a failed batch again, in milliseconds. */
+	static long RETRY_DELAY = 1000;
+
+	/** Constructor.
+	 * @param server Server whose changes are sent.
+	 * @param peer Server to send them to.
+	 */
+	Replicator(Server server, TOSServer peer)
+	{
+		this.server = server;
+		this.peer = peer;
+	}
+
+	/** Queues a change to be sent.
+	 * @param change The change.
+	 */
+	void add(TableChange change)
+	{
+		synchronized (queue) {
+			queue.addElement(change);
+			queue.notify();
+		}
+	}
+	
+	/** Stops the replicator, discarding any changes still queued.
+	 */
+	void stop()
+	{
+		synchronized (queue) {
+			isStopped = true;
+			queue.notify();
+		}
+	}
+	
+	/** Returns the number of changes not yet applied by the peer.
+	 * @return the number of changes.
+	 */
+	int pending()
+	{
+		return queue.size();
+	}
+	
+	/** Returns how long the oldest change not yet applied by the peer 
+	 * has been waiting.
+	 * @return the time in milliseconds, 0 if there is no such change.
+	 */
+	long lag()
+	{
+		synchronized (queue) {
+			if (queue.isEmpty())
+				return 0;
+			TableChange oldest = (TableChange)queue.elementAt(0);
+			return System.currentTimeMillis() - oldest.time;
+		}
+	}
+
+	/** Sends queued changes until the thread is interrupted or the peer
+	 * leaves the server table.
+	 */
+	public void run()
+	{
+		while (true)
+		{
+			Vector batch = new Vector();
+			try {
+				synchronized (queue) {
+					while (queue.isEmpty() && !isStopped)
+						queue.wait();
+					if (isStopped)
+						return;
+					int count = Math.min(queue.size(),BATCH_SIZE);
+					for (int i=0; i<count; i++)
+						batch.addElement(queue.elementAt(i));
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				peer.applyChanges(batch);
+			} catch (RemoteException e) {
+				if (isStopped || !server.serverTable.contains(peer))
+					return;
+				try {
+					Thread.sleep(RETRY_DELAY);
+				} catch (InterruptedException ie) {
+					return;
+				}
+				continue;
+			}
+			synchronized (queue) {
+				for (int i=0; i<batch.size(); i++)
+					queue.removeElementAt(0);
+				acked = ((TableChange)batch.lastElement()).seq;
+			}
+		}
+	}
+}
@@ -22,6 +22,14 @@ import tos.api.*;
  * other server of its class.
  * <p>This class also provides functions with which servers can synchronize their 
  * data with other servers, ensuring consistency throughout the TOS system.
+ * Changes to the object table are numbered in sequence and queued for 
+ * each other server, and a <a href="Replicator.html">Replicator</a> 
+ * thread per server sends them in batches, so that the request making
+ * the change does not wait for the other servers.
+ * <p>Every change applied to the object table, whatever its origin, 
+ * raises the table's version and is kept in a log of recent changes.  A
+ * new server copies its parent's table a page at a time and then 
+ * applies the changes made since it started copying.
  */
 
 abstract public class Server extends RemoteServer implements TOSServer
@@ -51,6 +59,60 @@ abstract public class Server extends RemoteServer implements TOSServer
 	/** Extension of initialization files.	 */
 	static String Extension = ".dat";
 	
+	/** Remote stub of this server. */
+	protected TOSServer self;
+	
+	/** Sequence number of the last change made to the object table here. */
+	protected long sequence = 0;
+	
+	/** Time the server started, sent with its changes so that other 
+	 * servers can tell its numbering has started again. */
+	protected long incarnation = System.currentTimeMillis();
+	
+	/** Replicators sending changes to other servers, keyed by their 
+	 * remote stubs.  Also the lock under which changes are numbered. */
+	protected Hashtable replicators = new Hashtable();
+	
+	/** Start time and sequence number of the last change applied from 
+	 * each other server, as a <code>long[2]</code> keyed by its location. */
+	protected Hashtable applied = new Hashtable();
+	
+	/** Version of the object table, raised by every change to it. */
+	protected long tableVersion = 0;
+	
+	/** Most recent changes to the object table, as 
+	 * <code>TableChange</code>s in version order. */
+	protected Vector changeLog = new Vector();
+	
+	/** Keys of the object table being copied out a page at a time, as 
+	 * <code>PageKeys</code> keyed by the version they were taken at, so 
+	 * that servers copying at the same time do not disturb each other. */
+	protected Hashtable pageKeys = new Hashtable();
+	
+	/** The keys of the object table at one version, in the order they 
+	 * are paged out. */
+	static class PageKeys
+	{
+		/** Keys of the table. */
+		Object[] keys;
+		
+		/** Time a page was last taken from them, in milliseconds. */
+		long used;
+	}
+	
+	/** Most changes kept in the log. */
+	static int LOG_SIZE = 1024;
+	
+	/** Most entries in one page of the object table. */
+	static int PAGE_SIZE = 256;
+	
+	/** Most attempts to copy a table that keeps changing too fast. */
+	static int COPY_TRIES = 3;
+	
+	/** Time after which the keys of a copy no longer asked for are 
+	 * dropped, in milliseconds. */
+	static long PAGE_TIMEOUT = 5*60*1000;
+	
 	/** Constructor.
 	 * <p>The constructor calls that of the superclass and instructs the
 	 * Java Virtual Machine to run all <code>finalize()</code> functions on 
@@ -109,6 +171,7 @@ abstract public class Server extends RemoteServer implements TOSServer
 			setStreams(type);
 			int launchport = getPort(type);
 			TOSServer stub = (TOSServer)UnicastRemoteObject.exportObject(this);
+			self = stub;
 			hostname = InetAddress.getLocalHost().getHostName();
 			Registry registry = LocateRegistry.getRegistry(launchport);
 			registry.bind(type,this);
@@ -119,7 +182,7 @@ abstract public class Server extends RemoteServer implements TOSServer
 			if (!parent.getLocation().equals(getLocation()))
 			{
 				serverTable = parent.getServerTable();
-				objectTable = parent.getObjectTable();
+				copyObjectTable(parent);
 			}
 			else
 				addServer(stub);
@@ -149,49 +212,295 @@ abstract public class Server extends RemoteServer implements TOSServer
 	}	
 	
 	/** Add a new entry to the object table.
-	 * <p>If called locally, this function will also update objects
-	 * on all other servers of its type.
+	 * <p>If called locally, this function will also queue the change
+	 * for all other servers of its type.
 	 * @param key New object to add.
 	 * @param Remote stub of server that holds it.
 	 * @exception RemoteException if an RMI problem occurs.
 	 */
 	public void addToObjectTable(Object key, TOSServer stub) throws RemoteException
+	{
+		if (stub==this) 
+			replicate(true,key,stub);
+		else
+			apply(new TableChange(0,0,null,true,key,stub));
+	}
+	
+	/** Remove an entry from the object table.
+	 * <p>If called locally, this function will also queue the change
+	 * for all other servers of its type.
+	 * @param Object being removed.
+	 * @param Remote stub being removed.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	public void deleteFromObjectTable(Object key,TOSServer stub) throws RemoteException
+	{
+		if (stub==this) 
+			replicate(false,key,stub);
+		else
+			apply(new TableChange(0,0,null,false,key,stub));
+	}
+	
+	/** Applies a change to the object table and adds it to the log.
+	 * @param change The change.
+	 */
+	void apply(TableChange change)
 	{
 		synchronized (objectTable) {
-			objectTable.put(key,stub);
+			if (change.isAdd)
+				objectTable.put(change.key,change.stub);
+			else
+				objectTable.remove(change.key);
+			change.version = ++tableVersion;
+			changeLog.addElement(change);
+			if (changeLog.size()>LOG_SIZE)
+				changeLog.removeElementAt(0);
 		}
-
-		if (stub.getLocation().equals(this.getLocation())) 
-		{
-			for (int i=0; i<serverTable.size(); i++)
+	}
+	
+	/** Numbers a change made to the object table here, applies it and 
+	 * queues it for every other server.  Numbering and applying are done
+	 * together, so that other servers apply the changes in the same 
+	 * order.
+	 * @param isAdd <code>true</code> for an addition.
+	 * @param key Key of the entry.
+	 * @param stub Server holding the object.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	void replicate(boolean isAdd, Object key, TOSServer stub) 
+		throws RemoteException
+	{
+		Vector peers = (Vector)serverTable.clone();
+		synchronized (replicators) {
+			TableChange change = new TableChange(++sequence,incarnation,
+												 getLocation(),isAdd,key,stub);
+			apply(change);
+			for (int i=0; i<peers.size(); i++)
 			{
-				TOSServer other = (TOSServer)serverTable.elementAt(i);
-				if (!other.getLocation().equals(stub.getLocation()))
-				{ 					
-					other.addToObjectTable(key,stub);
+				TOSServer other = (TOSServer)peers.elementAt(i);
+				if (other.equals(self))
+					continue;
+				Replicator replicator = (Replicator)replicators.get(other);
+				if (replicator==null)
+				{
+					replicator = new Replicator(this,other);
+					replicators.put(other,replicator);
+					Thread thread = new Thread(replicator);
+					thread.setDaemon(true);
+					thread.start();
 				}
+				replicator.add(change);
 			}
-		}		
+		}
 	}
 	
-	/** Remove an entry from the object table.
-	 * @param Object being removed.
-	 * @param Remote stub being removed.
+	/** Applies a batch of object table changes made by another server.
+	 * @param changes <code>TableChange</code>s, in the order they were 
+	 *                made.
 	 * @exception RemoteException if an RMI problem occurs.
 	 */
-	public void deleteFromObjectTable(Object key,TOSServer stub) throws RemoteException
+	public void applyChanges(Vector changes) throws RemoteException
+	{
+		for (int i=0; i<changes.size(); i++)
+		{
+			TableChange change = (TableChange)changes.elementAt(i);
+			if (markApplied(change))
+				apply(change);
+		}
+	}
+	
+	/** Records a change made by another server as applied, unless a 
+	 * change made at or after it by the same server already was.
+	 * @param change The change.
+	 * @return <code>true</code> if the change had not been applied.
+	 */
+	boolean markApplied(TableChange change)
+	{
+		synchronized (applied) {
+			long[] last = (long[])applied.get(change.origin);
+			if (last!=null && (change.incarnation<last[0] || 
+							   (change.incarnation==last[0] && 
+								change.seq<=last[1])))
+				return false;
+			last = new long[2];
+			last[0] = change.incarnation;
+			last[1] = change.seq;
+			applied.put(change.origin,last);
+			return true;
+		}
+	}
+	
+	/** Returns the version of the object table.
+	 * @return the version.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	public long getTableVersion() throws RemoteException
 	{
 		synchronized (objectTable) {
-			objectTable.remove(key);
+			return tableVersion;
 		}
-		if (stub==this) 
+	}
+	
+	/** Returns the changes made to the object table after a version.
+	 * @param version Version the caller has.
+	 * @return <code>TableChange</code>s in order, or <code>null</code> if
+	 *         the log no longer reaches back to that version.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	public Vector getChangesSince(long version) throws RemoteException
+	{
+		synchronized (objectTable) {
+			if (version>tableVersion)
+				return null;
+			int count = (int)(tableVersion - version);
+			if (count>changeLog.size())
+				return null;
+			Vector changes = new Vector(count);
+			for (int i=changeLog.size()-count; i<changeLog.size(); i++)
+				changes.addElement(changeLog.elementAt(i));
+			return changes;
+		}
+	}
+	
+	/** Returns one page of the object table.
+	 * @param version Version returned by <code>getTableVersion</code> 
+	 *                before the first page was asked for.
+	 * @param start Index of the first entry of the page.
+	 * @return the page.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	public TablePage getTablePage(long version, int start) 
+		throws RemoteException
+	{
+		TablePage page = new TablePage();
+		long now = System.currentTimeMillis();
+		synchronized (objectTable) {
+			Enumeration e = pageKeys.keys();
+			while (e.hasMoreElements())
+			{
+				Object taken = e.nextElement();
+				if (now-((PageKeys)pageKeys.get(taken)).used>PAGE_TIMEOUT)
+					pageKeys.remove(taken);
+			}
+			Long key = new Long(version);
+			PageKeys snapshot = (PageKeys)pageKeys.get(key);
+			if (snapshot==null)
+			{
+				snapshot = new PageKeys();
+				snapshot.keys = new Object[objectTable.size()];
+				Enumeration keys = objectTable.keys();
+				for (int i=0; i<snapshot.keys.length; i++)
+					snapshot.keys[i] = keys.nextElement();
+				pageKeys.put(key,snapshot);
+			}
+			snapshot.used = now;
+			Object[] keys = snapshot.keys;
+			int end = Math.min(start+PAGE_SIZE,keys.length);
+			for (int i=start; i<end; i++)
+			{
+				Object value = objectTable.get(keys[i]);
+				if (value!=null)
+					page.entries.put(keys[i],value);
+			}
+			page.more = end<keys.length;
+		}
+		return page;
+	}
+	
+	/** Copies the object table of another server.
+	 * <p>The table is copied a page at a time, and the changes made while
+	 * it was being copied are applied afterwards.
+	 * @param source Server to copy from.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	void copyObjectTable(TOSServer source) throws RemoteException
+	{
+		for (int tries=0; tries<COPY_TRIES; tries++)
 		{
-			for (int i=0; i<serverTable.size(); i++)
+			long version = source.getTableVersion();
+			Hashtable table = new Hashtable();
+			TablePage page;
+			int start = 0;
+			do
 			{
-				TOSServer other = (TOSServer)serverTable.elementAt(i);
-				other.deleteFromObjectTable(key,stub);
+				page = source.getTablePage(version,start);
+				Enumeration keys = page.entries.keys();
+				while (keys.hasMoreElements())
+				{
+					Object key = keys.nextElement();
+					table.put(key,page.entries.get(key));
+				}
+				start += PAGE_SIZE;
+			} while (page.more);
+			Vector changes = source.getChangesSince(version);
+			if (changes==null)
+				continue;
+			synchronized (objectTable) {
+				objectTable.clear();
+				Enumeration keys = table.keys();
+				while (keys.hasMoreElements())
+				{
+					Object key = keys.nextElement();
+					objectTable.put(key,table.get(key));
+				}
+				// a wholesale copy cannot be told to servers copying 
+				// from this one, so they must copy it all
+				tableVersion++;
+				changeLog.removeAllElements();
+			}
+			catchUp(changes);
+			return;
+		}
+		throw new RemoteException("Object table changing too fast to copy");
+	}
+	
+	/** Applies changes fetched from another server's log.
+	 * @param changes <code>TableChange</code>s in order.
+	 */
+	void catchUp(Vector changes)
+	{
+		for (int i=0; i<changes.size(); i++)
+		{
+			TableChange change = (TableChange)changes.elementAt(i);
+			// so that the same change is not applied again when its 
+			// origin sends it
+			if (change.origin!=null)
+				markApplied(change);
+			apply(change);
+		}
+	}
+	
+	/** Returns how far each other server is behind this one's object 
+	 * table changes.
+	 * @return table with the location of each other server as key and
+	 *         as value a <code>long[]</code> holding the number of 
+	 *         changes it has not applied and the age of the oldest in 
+	 *         milliseconds.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	public Hashtable getReplicationLag() throws RemoteException
+	{
+		Hashtable lag = new Hashtable();
+		Vector current;
+		synchronized (replicators) {
+			current = new Vector();
+			Enumeration e = replicators.elements();
+			while (e.hasMoreElements())
+				current.addElement(e.nextElement());
+		}
+		for (int i=0; i<current.size(); i++)
+		{
+			Replicator replicator = (Replicator)current.elementAt(i);
+			long[] status = new long[2];
+			status[0] = replicator.pending();
+			status[1] = replicator.lag();
+			try {
+				lag.put(replicator.peer.getLocation(),status);
+			} catch (RemoteException e) {
+				lag.put(replicator.peer.toString(),status);
 			}
-		}		
+		}
+		return lag;
 	}
 		
 	/** Adds a new server to the server table.
@@ -275,6 +584,10 @@ abstract public class Server extends RemoteServer implements TOSServer
 	}
 
 	/** Remove a server from the server table.
+	 * <p>The entries of the object table held by that server are removed
+	 * too, each as a change applied here, so that they reach the table's
+	 * version and change log like any other.  Every server is told of 
+	 * the removal and does the same, so the changes are not replicated.
 	 * @param stub Remote stub of the server to remove.
 	 * @exception RemoteException if an RMI problem occurs.
 	 */
@@ -283,16 +596,21 @@ abstract public class Server extends RemoteServer implements TOSServer
 		synchronized (serverTable) {
 			serverTable.removeElement(stub);
 		}
-		synchronized (objectTable) {
-			Enumeration enumeration = objectTable.keys();
-			while (enumeration.hasMoreElements())
-			{
-				Object key = enumeration.nextElement();
-				TOSServer objstub = (TOSServer)objectTable.get(key);
-				if (objstub.getLocation().equals(stub.getLocation()))
-					objectTable.remove(key);
-			}
-		}	
+		synchronized (replicators) {
+			Replicator replicator = (Replicator)replicators.remove(stub);
+			if (replicator!=null)
+				replicator.stop();
+		}
+		String location = stub.getLocation();
+		Hashtable entries = (Hashtable)objectTable.clone();
+		Enumeration enumeration = entries.keys();
+		while (enumeration.hasMoreElements())
+		{
+			Object key = enumeration.nextElement();
+			TOSServer objstub = (TOSServer)entries.get(key);
+			if (objstub.getLocation().equals(location))
+				apply(new TableChange(0,0,null,false,key,objstub));
+		}
 	}
 
 	/** Returns the server table.
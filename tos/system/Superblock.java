@@ -15,6 +15,20 @@ import java.io.*;
  * <li><code>numblocks</code> - The number of data blocks;
  * <li><code>mountpt</code> - A character array storing the mountpoint, if any.
  * </ul>
+ * <p>Disks created by this version of TOS follow these with a magic
+ * number, a format version and any extension fields, such as 
+ * <code>fragmentsize</code> and the table of block-size pools, the whole
+ * padded out to <code>SUPERBLOCK_SIZE</code> bytes.  Disks without the 
+ * magic number are treated as <code>LEGACY_VERSION</code> disks and keep
+ * their original layout.
+ * <p>On a disk with more than one pool, <code>blocksize</code> is that 
+ * of the first (default) pool and <code>numblocks</code> is the total 
+ * over all pools.
+ * <p>A disk that has grown since it was created also records how many 
+ * inodes and pools it was created with, the locations of the pools 
+ * added since, and the <a href="InodeExtent.html">InodeExtent</a>s 
+ * holding the inodes added since.  <code>numfiles</code> is then the 
+ * total over the original inode list and all extents.
  * In memory, auxiliary items are calculated from these.  These are:
  * <ul>
  * <li><code>iblockarraysize</code> - Number of data blocks represented by an index block.
@@ -23,8 +37,11 @@ import java.io.*;
  * <li><code>freeliststart</code> - Location of the beginning of the free list.
  * <li><code>inodestart</code> - Location of the beginning of the inode list.
  * <li><code>datastart</code> - Location of the first data block.
+ * <li><code>pools</code> - The block-size pools, with their locations.
  * <li><code>size</code> - Size of the physical file of the virtual disk.
  * </ul>
+ * <p>Locations within the physical file are <code>long</code> values, so
+ * a disk may be larger than 2 GB.  Block numbers remain <code>int</code>.
  */
 
 class Superblock 
@@ -41,6 +58,27 @@ class Superblock
 	/** Mount point of the disk. */
 	String mountpt = "";
 	
+	/** On-disk format version. */
+	int version = VERSION;
+	
+	/** Size of the units that file tails are packed in, in bytes.  
+	 * Zero if tail packing is disabled on this disk. */
+	int fragmentsize;
+	
+	/** Block-size pools of the disk, in block-number order.  Replaced
+	 * as a whole when the disk grows. */
+	volatile BlockPool[] pools;
+	
+	/** Inodes added to the disk since it was created.  Replaced as a 
+	 * whole when the disk grows. */
+	volatile InodeExtent[] extents = new InodeExtent[0];
+	
+	/** Number of inodes in the inode list made with the disk. */
+	int basefiles;
+	
+	/** Number of pools made with the disk. */
+	int basepools;
+	
 	/** Number of data blocks represented by an index block.	 */
 	int iblockarraysize;
 	
@@ -51,25 +89,76 @@ class Superblock
 	int freelistsize;
 	
 	/**	Location of the beginning of the free list. */
-	int freeliststart;
+	long freeliststart;
 	
 	/**	Location of the beginning of the inode list. */
-	int inodestart;
+	long inodestart;
 	
 	/**	Location of the first data block. */
-	int datastart;
+	long datastart;
 	
 	/**	Size of the physical file of the virtual disk. */
-	int size;
+	long size;
+
+	/** Size of the superblock of a legacy disk, in bytes. */
+	static int LEGACY_SIZE = 12 + 2*Disk.MOUNT_POINT_SIZE; 
 
 	/** Size of the superblock on disk, in bytes. */
-	static int SUPERBLOCK_SIZE = 12 + 2*Disk.MOUNT_POINT_SIZE; 
+	static int SUPERBLOCK_SIZE = 4096; 
+	
+	/** Marks a superblock carrying a format version ("TOSD"). */
+	static int MAGIC = 0x544F5344;
+	
+	/** Format version of disks without a magic number. */
+	static int LEGACY_VERSION = 1;
+	
+	/** First format version with a table of block-size pools. */
+	static int POOLS_VERSION = 3;
+	
+	/** First format version able to grow. */
+	static int GROWTH_VERSION = 4;
+	
+	/** Format version written to new disks. */
+	static int VERSION = 4;
+	
+	/** Maximum number of block-size pools on a disk, including those 
+	 * added when it grows. */
+	static int MAX_POOLS = 32;
+	
+	/** Maximum number of inode extents on a disk. */
+	static int MAX_EXTENTS = 64;
+	
+	/** Number of fragments a data block is divided into for tail packing. */
+	static int FRAGMENTS_PER_BLOCK = 16;
+	
+	/** Smallest fragment worth packing tails into. */
+	static int MIN_FRAGMENT_SIZE = 64;
 	
 	public Superblock(int numfiles, int blocksize, int numblocks)
+	{
+		this(numfiles,new int[] { blocksize },new int[] { numblocks });
+	}
+	
+	/** Constructor for a new disk with one or more block-size pools.
+	 * The first pool is the default one, where files go unless a size 
+	 * hint steers them elsewhere.
+	 * @param numfiles Maximum number of files.
+	 * @param blocksizes Block size of each pool.
+	 * @param numblocks Number of blocks in each pool.
+	 */
+	public Superblock(int numfiles, int[] blocksizes, int[] numblocks)
 	{
 		this.numfiles = numfiles;
-		this.blocksize = blocksize;
-		this.numblocks = numblocks;
+		basefiles = numfiles;
+		int count = Math.min(Math.min(blocksizes.length,numblocks.length),MAX_POOLS);
+		pools = new BlockPool[count];
+		for (int i=0; i<count; i++)
+		{
+			pools[i] = new BlockPool(blocksizes[i],numblocks[i],
+									 fragmentSizeFor(blocksizes[i]));
+			pools[i].poolclass = i;
+		}
+		basepools = count;
 		calculate();
 	}
 	
@@ -78,25 +167,120 @@ class Superblock
 		return;
 	}
 	
+	/** Returns the tail packing unit for a pool of the given block size.
+	 * @param blocksize Block size of the pool.
+	 * @return size of a fragment, or 0 if tails should not be packed.
+	 */
+	static int fragmentSizeFor(int blocksize)
+	{
+		if (blocksize/FRAGMENTS_PER_BLOCK >= MIN_FRAGMENT_SIZE)
+			return blocksize/FRAGMENTS_PER_BLOCK;
+		else
+			return 0;
+	}
+	
 	void calculate()
 	{
-		freelistsize = numblocks;
+		blocksize = pools[0].blocksize;
+		fragmentsize = pools[0].fragmentsize;
+		numblocks = 0;
+		freelistsize = 0;
+		for (int i=0; i<pools.length; i++)
+		{
+			pools[i].firstblock = numblocks;
+			numblocks += pools[i].numblocks;
+			if (i<basepools)
+				freelistsize += pools[i].numblocks;
+		}
 		iblockarraysize = blocksize/4;
-		inodesize = Inode.INODE_SIZE;
+		if (version==LEGACY_VERSION)
+			inodesize = Inode.LEGACY_SIZE;
+		else
+			inodesize = Inode.INODE_SIZE;
 
 		/* Structure of the disk file
-			Superblock - 12 bytes
+			Superblock - SUPERBLOCK_SIZE bytes (LEGACY_SIZE on old disks)
 			Free list - 1 byte per data block
 			Inode list - 1 inode per file
 				each inode contains a description of each file
 			Remaining index blocks are in the data area
-			Data blocks - each of specified blocksize
+			Data blocks - each pool in turn, each of its own blocksize
+			Added pools and inode extents, in the order they were added
 		*/
 		
-		freeliststart = Superblock.SUPERBLOCK_SIZE;
+		if (version==LEGACY_VERSION)
+			freeliststart = Superblock.LEGACY_SIZE;
+		else
+			freeliststart = Superblock.SUPERBLOCK_SIZE;
 		inodestart = freeliststart + freelistsize;
-		datastart = inodestart + inodesize*numfiles;
-		size = datastart + numblocks*blocksize;
+		datastart = inodestart + (long)inodesize*basefiles;
+		size = datastart;
+		for (int i=0; i<basepools; i++)
+		{
+			pools[i].freeliststart = freeliststart + pools[i].firstblock;
+			pools[i].datastart = size;
+			size += (long)pools[i].numblocks*pools[i].blocksize;
+		}
+		// added pools and extents have their locations recorded
+		for (int i=basepools; i<pools.length; i++)
+			size = Math.max(size,pools[i].datastart 
+							+ (long)pools[i].numblocks*pools[i].blocksize);
+		for (int i=0; i<extents.length; i++)
+			size = Math.max(size,extents[i].offset(extents[i].firstinode
+												   +extents[i].numfiles,
+												   inodesize));
+	}
+	
+	/** Returns the location of an inode in the disk file.
+	 * @param inode Inode number.
+	 * @return offset of the inode from the start of the disk file.
+	 * @exception IOException if the number is outside the inode list and
+	 *                        every extent.
+	 */
+	long nodeOffset(int inode) throws IOException
+	{
+		if (inode>=0 && inode<basefiles)
+			return inodestart + (long)inode*inodesize;
+		InodeExtent[] extents = this.extents;
+		for (int i=0; i<extents.length; i++)
+			if (extents[i].contains(inode))
+				return extents[i].offset(inode,inodesize);
+		throw new IOException("Inode number out of range: " + inode);
+	}
+	
+	/** Returns the pool a block belongs to.
+	 * @param blocknum Block number.
+	 * @return the block's pool.
+	 * @exception IOException if the number is outside every pool.
+	 */
+	BlockPool poolOf(int blocknum) throws IOException
+	{
+		BlockPool[] pools = this.pools;
+		for (int i=0; i<pools.length; i++)
+			if (blocknum>=pools[i].firstblock 
+				&& blocknum<pools[i].firstblock+pools[i].numblocks)
+				return pools[i];
+		throw new IOException("Block number out of range: " + blocknum);
+	}
+	
+	/** Returns the location of a block in the disk file.
+	 * @param blocknum Block number.
+	 * @return offset of the block from the start of the disk file.
+	 * @exception IOException if the number is outside every pool.
+	 */
+	long blockOffset(int blocknum) throws IOException
+	{
+		return poolOf(blocknum).offset(blocknum);
+	}
+	
+	/** Returns the size of a block.
+	 * @param blocknum Block number.
+	 * @return size of the block, which is that of its pool.
+	 * @exception IOException if the number is outside every pool.
+	 */
+	int blockSize(int blocknum) throws IOException
+	{
+		return poolOf(blocknum).blocksize;
 	}
 		
 	void mount(String newpt)
@@ -118,6 +302,62 @@ class Superblock
 				buffer.setCharAt(i,file.readChar());
 			mountpt = buffer.toString();
 			mountpt = mountpt.trim();
+			if (file.length()>=LEGACY_SIZE+8 && file.readInt()==MAGIC)
+			{
+				version = file.readInt();
+				fragmentsize = file.readInt();
+			}
+			else
+			{
+				version = LEGACY_VERSION;
+				fragmentsize = 0;
+			}
+			if (version>=GROWTH_VERSION)
+			{
+				basefiles = file.readInt();
+				basepools = file.readInt();
+			}
+			BlockPool[] newpools;
+			if (version>=POOLS_VERSION)
+			{
+				newpools = new BlockPool[file.readInt()];
+				for (int i=0; i<newpools.length; i++)
+				{
+					newpools[i] = new BlockPool(file.readInt(),file.readInt(),
+												file.readInt());
+					newpools[i].poolclass = i;
+					if (version>=GROWTH_VERSION)
+					{
+						newpools[i].poolclass = file.readInt();
+						newpools[i].freeliststart = file.readLong();
+						newpools[i].datastart = file.readLong();
+					}
+				}
+			}
+			else
+			{
+				// older disks have a single pool
+				newpools = new BlockPool[1];
+				newpools[0] = new BlockPool(blocksize,numblocks,fragmentsize);
+			}
+			InodeExtent[] newextents;
+			if (version>=GROWTH_VERSION)
+			{
+				newextents = new InodeExtent[file.readInt()];
+				for (int i=0; i<newextents.length; i++)
+					newextents[i] = new InodeExtent(file.readInt(),
+													file.readInt(),
+													file.readLong());
+			}
+			else
+			{
+				// older disks cannot have grown
+				newextents = new InodeExtent[0];
+				basefiles = numfiles;
+				basepools = newpools.length;
+			}
+			pools = newpools;
+			extents = newextents;
 			file.seek(curpos);
 		}
 		calculate();
@@ -136,6 +376,42 @@ class Superblock
 			buffer.setLength(Disk.MOUNT_POINT_SIZE);
 			for (int i=0; i<Disk.MOUNT_POINT_SIZE; i++)
 				file.writeChar(buffer.charAt(i));
+			if (version!=LEGACY_VERSION)
+			{
+				file.writeInt(MAGIC);
+				file.writeInt(version);
+				file.writeInt(fragmentsize);
+				if (version>=GROWTH_VERSION)
+				{
+					file.writeInt(basefiles);
+					file.writeInt(basepools);
+				}
+				BlockPool[] pools = this.pools;
+				file.writeInt(pools.length);
+				for (int i=0; i<pools.length; i++)
+				{
+					file.writeInt(pools[i].blocksize);
+					file.writeInt(pools[i].numblocks);
+					file.writeInt(pools[i].fragmentsize);
+					if (version>=GROWTH_VERSION)
+					{
+						file.writeInt(pools[i].poolclass);
+						file.writeLong(pools[i].freeliststart);
+						file.writeLong(pools[i].datastart);
+					}
+				}
+				if (version>=GROWTH_VERSION)
+				{
+					InodeExtent[] extents = this.extents;
+					file.writeInt(extents.length);
+					for (int i=0; i<extents.length; i++)
+					{
+						file.writeInt(extents[i].firstinode);
+						file.writeInt(extents[i].numfiles);
+						file.writeLong(extents[i].start);
+					}
+				}
+			}
 			file.seek(curpos);
 		}
 	}
@@ -5,6 +5,17 @@ import java.util.*;
 
 /** This class provides a data structure to encapsulate basic
  * information about a sync object.
+ * <p>The sync server locks a record while it changes its count or its 
+ * queue, so that operations on different objects do not wait for each
+ * other.  The queue is a linked list, so that threads are added and 
+ * released in constant time; it stays with the server that holds the 
+ * object and is not copied with the record.
+ * <p>A read-write lock queues readers and writers together, and the 
+ * record counts the threads holding it.
+ * <p>The record also keeps figures on how many threads have waited and 
+ * for how long, which callers obtain as a {@link SyncStatistics}.  They
+ * count each wait once, from the time the thread joined the queue, 
+ * however many calls it took.
  */
 
 class SyncRecord implements Serializable
@@ -21,8 +32,65 @@ class SyncRecord implements Serializable
 	/** Maximum of the count (always 1 for mutexes)	 */
 	int max;
 	
-	/** Queue of waiting threads */
-	Vector queue = new Vector();
+	/** Number of threads holding a read-write lock shared. */
+	int readers = 0;
+	
+	/** Set to <code>true</code> while a thread holds a read-write lock 
+	 * exclusively. */
+	boolean isWriting = false;
+	
+	/** Set to <code>true</code> if readers of a read-write lock wait while
+	 * a writer is waiting. */
+	boolean preferWriters = false;
+	
+	/** A thread waiting in the queue. */
+	static class Waiter
+	{
+		/** Process identifier and name of the thread. */
+		String id;
+		
+		/** Next thread in the queue, or <code>null</code>. */
+		Waiter next;
+		
+		/** Time the thread joined the queue. */
+		long since;
+		
+		/** Set to <code>true</code> if the thread waits to write to a 
+		 * read-write lock. */
+		boolean isWriter;
+	}
+	
+	/** First thread in the queue of waiting threads, or <code>null</code>. */
+	transient Waiter head;
+	
+	/** Last thread in the queue of waiting threads, or <code>null</code>. */
+	transient Waiter tail;
+		
+	/** Number of threads in the queue. */
+	int length = 0;
+	
+	/** Number of threads in the queue waiting to write. */
+	int writers = 0;
+	
+	/** Number of threads that had to wait and were released. */
+	int waits = 0;
+	
+	/** Number of threads removed from the queue because they gave up. */
+	int timeouts = 0;
+	
+	/** Number of threads removed from the queue because their process 
+	 * stopped asking for the object. */
+	int dropped = 0;
+	
+	/** Total time the released threads waited, in milliseconds. */
+	long totalWait = 0;
+	
+	/** Longest time a released thread waited, in milliseconds. */
+	long maxWait = 0;
+	
+	/** Listener of the process the mutex is leased to, or 
+	 * <code>null</code>. */
+	transient TOSListener leaseholder;
 		
 	/** The process of the first thread in the queue. */
 	String firstproc;
@@ -61,6 +129,34 @@ class SyncRecord implements Serializable
 		return (name.equals(other.name) && type==other.type); 
 	}
 	
+	/** Considers two records equal if their names and types are equal, so
+	 * that copies of a record held by other servers find the same entry 
+	 * in an object table.
+	 * @param other Other object.
+	 * @return <code>true</code> if the other object is a record of the 
+	 * same name and type.
+	 */
+	public boolean equals(Object other)
+	{
+		return (other instanceof SyncRecord) && equals((SyncRecord)other);
+	}
+	
+	/** Returns a hash code consistent with <code>equals</code>.
+	 * @return the hash code.
+	 */
+	public int hashCode()
+	{
+		return name.hashCode()*31 + type;
+	}
+	
+	/** Returns <code>true</code> if no thread is waiting.
+	 * @return <code>true</code> if the queue is empty.
+	 */
+	boolean isEmpty()
+	{
+		return head==null;
+	}
+	
 	/** Fills in the <code>firstproc</code> and <code>firstthread</code> fields.
 	 * This function assumes the process and thread names have been 
 	 * concatenated together and that the first charater in the thread 
@@ -70,7 +166,7 @@ class SyncRecord implements Serializable
 	 */
 	void keepFirst()
 	{
-		String elem = (String)queue.firstElement();
+		String elem = head.id;
 		int pos = 0;
 		while (Character.isDigit(elem.charAt(pos++)));
 		firstproc = elem.substring(0,pos-1);
@@ -83,25 +179,171 @@ class SyncRecord implements Serializable
 	 */
 	public void addElement(String id)
 	{
-		queue.addElement(id);
-		if (queue.size()==1)
-			keepFirst();
+		addElement(id,false);
 	}
 	
-	/** Remove a thread from the queue.
-	 * Called by the server's <code>Release()</code> function.
+	/** Add a new thread to the queue of a read-write lock.
 	 * @param id String containing the waiting thread's process identifier and name.
+	 * @param isWriter <code>true</code> if the thread waits to write.
 	 */
-	public void removeElement(String id)
+	public void addElement(String id, boolean isWriter)
 	{
-		queue.removeElement(id);
-		if (queue.size()>0)
+		Waiter waiter = new Waiter();
+		waiter.id = id;
+		waiter.isWriter = isWriter;
+		if (isWriter)
+			writers++;
+		waiter.since = System.currentTimeMillis();
+		length++;
+		if (tail==null)
+		{
+			head = tail = waiter;
 			keepFirst();
+		}
 		else
 		{
-			firstproc = "";
-			firstthread = "";
+			tail.next = waiter;
+			tail = waiter;
+		}
+	}
+	
+	/** Remove the first thread from the queue.
+	 * Called by the server's <code>Release()</code> function.
+	 * @return String containing the thread's process identifier and name,
+	 *         or <code>null</code> if the queue is empty.
+	 */
+	public String removeFirst()
+	{
+		if (head==null)
+			return null;
+		Waiter waiter = head;
+		unlink(null,waiter);
+		released(waiter);
+		return waiter.id;
+	}
+	
+	/** Returns <code>true</code> if the first thread in the queue waits
+	 * to write to a read-write lock.
+	 * @return <code>true</code> if the first thread is a writer.
+	 */
+	boolean isWriterFirst()
+	{
+		return head!=null && head.isWriter;
+	}
+	
+	/** Remove waiting readers of a read-write lock from the queue, so that
+	 * they can all be released together.
+	 * @param isAll <code>true</code> to remove every reader in the queue,
+	 *              <code>false</code> to remove only those ahead of the 
+	 *              first writer.
+	 * @return the identifiers of the readers removed, in queue order.
+	 */
+	Vector removeReaders(boolean isAll)
+	{
+		Vector ids = new Vector();
+		Waiter prev = null;
+		Waiter waiter = head;
+		while (waiter!=null)
+		{
+			Waiter next = waiter.next;
+			if (waiter.isWriter)
+			{
+				if (!isAll)
+					break;
+				prev = waiter;
+			}
+			else
+			{
+				unlink(prev,waiter);
+				released(waiter);
+				ids.addElement(waiter.id);
+			}
+			waiter = next;
 		}
+		return ids;
+	}
+	
+	/** Remove a thread that has given up waiting from the queue.
+	 * Called by the server when a thread's timeout expires, or when its 
+	 * process is taken to have died.
+	 * @param id String containing the thread's process identifier and name.
+	 * @param isTimeout <code>true</code> if the thread's timeout expired,
+	 *                  <code>false</code> if its process died.
+	 * @return <code>true</code> if the thread was in the queue.
+	 */
+	public boolean remove(String id, boolean isTimeout)
+	{
+		Waiter prev = null;
+		for (Waiter waiter=head; waiter!=null; waiter=waiter.next)
+		{
+			if (waiter.id.equals(id))
+			{
+				unlink(prev,waiter);
+				if (isTimeout)
+					timeouts++;
+				else
+					dropped++;
+				return true;
+			}
+			prev = waiter;
+		}
+		return false;
+	}
+	
+	/** Takes a thread out of the queue.
+	 * @param prev Thread before it in the queue, or <code>null</code> if 
+	 *             it is the first.
+	 * @param waiter The thread.
+	 */
+	void unlink(Waiter prev, Waiter waiter)
+	{
+		if (prev==null)
+		{
+			head = waiter.next;
+			if (head!=null)
+				keepFirst();
+			else
+			{
+				firstproc = "";
+				firstthread = "";
+			}
+		}
+		else
+			prev.next = waiter.next;
+		if (tail==waiter)
+			tail = prev;
+		length--;
+		if (waiter.isWriter)
+			writers--;
+	}
+	
+	/** Adds the time a released thread waited to the figures.
+	 * @param waiter The thread.
+	 */
+	void released(Waiter waiter)
+	{
+		long wait = System.currentTimeMillis() - waiter.since;
+		waits++;
+		totalWait += wait;
+		if (wait>maxWait)
+			maxWait = wait;
+	}
+	
+	/** Returns the figures on the threads waiting for the object.
+	 * @return the figures.
+	 */
+	SyncStatistics statistics()
+	{
+		SyncStatistics stats = new SyncStatistics();
+		stats.queueLength = length;
+		if (head!=null)
+			stats.oldestWait = System.currentTimeMillis() - head.since;
+		stats.waits = waits;
+		stats.timeouts = timeouts;
+		stats.dropped = dropped;
+		stats.totalWait = totalWait;
+		stats.maxWait = maxWait;
+		return stats;
 	}
 			
 			
@@ -5,6 +5,7 @@ import tos.api.NotFoundException;
 import tos.api.SyncException;
 
 import java.rmi.RemoteException;
+import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
 
@@ -14,18 +15,123 @@ import java.util.Vector;
  * {@link SyncRecord}, purely for storage.  It is the server class' job 
  * to make the decisions on which threads are to wait and which are to be 
  * released.  The server receives identification data from each calling thread
- * and notifies the listeners of their process when the time comes for a 
- * suspended thread to be resumed.
+ * and holds its call until the thread may proceed; each waiting call 
+ * waits on an object of its own, which the release that lets it through
+ * finds by the thread's identifier and notifies.
+ * <p>A mutex taken while no other thread waits for it may be leased to 
+ * the taker's process, which then keeps it after releasing it.  The 
+ * server counts a leased mutex as held, and revokes the lease when 
+ * another thread has to wait for it.
+ * <p>A read-write lock is held by any number of readers or by a single 
+ * writer.  When it becomes free to readers, all the readers that may 
+ * proceed are taken from the queue and woken in one pass.  A lock 
+ * created to prefer writers keeps new readers out while a writer waits;
+ * otherwise readers are let in whenever no writer holds it.
+ * <p>A call waiting for an object is held for at most 
+ * <code>POLL_TIME</code>.  A thread whose wait is longer than that asks
+ * again, and keeps its place in the queue in between; a thread that 
+ * does not ask again within <code>REJOIN_TIME</code> is taken to have 
+ * died and is dropped from the queue, or, if it has been granted the 
+ * object meanwhile, the object is released for it.
  */
 
 public class SyncServer extends Server implements TOSSyncServer
 {
-	/** Master table of created synchronization objects. */
-	protected Vector syncTable = new Vector();
+	/** Number of parts the table of sync objects is divided into. */
+	static int STRIPES = 16;
 	
-	/** Table mapping threadnames to Listeners.	 */
+	/** Master table of created synchronization objects.  The objects are
+	 * spread over several hashtables, each with its own lock, by the hash 
+	 * of their name and type, and looked up by the key returned by 
+	 * <code>key</code>. */
+	protected Hashtable[] syncTable = new Hashtable[STRIPES];
+	
+	/** Table mapping threadnames to the <code>Acquirer</code>s of 
+	 * threads waiting in <code>acquire</code>. */
 	protected Hashtable threadTable = new Hashtable();
 	
+	/** A thread waiting in a call to <code>acquire</code>. */
+	static class Acquirer
+	{
+		/** Identifier of the thread in the queue. */
+		String id;
+		
+		/** Key under which the thread is found when it asks again. */
+		String rejoin;
+		
+		/** Record of the object waited for. */
+		SyncRecord rec;
+		
+		/** Time the thread's last call returned while it was still 
+		 * waiting, or 0 while a call is held for it. */
+		long detached = 0;
+		
+		/** Set to <code>true</code> when the thread is released. */
+		boolean isGranted = false;
+		
+		/** Set to <code>true</code> when the thread has given up. */
+		boolean isCancelled = false;
+		
+		/** Listener of the thread's process if it accepts a lease on the
+		 * object, otherwise <code>null</code>. */
+		TOSListener stub;
+		
+		/** Set to <code>true</code> if the object was leased to the 
+		 * thread's process when it was released. */
+		boolean isLeased = false;
+	}
+	
+	/** Number of the last call to <code>acquire</code> that had to wait, 
+	 * used to tell apart threads of the same name. */
+	protected int lastacquirer = 0;
+	
+	/** Character separating a thread's name from its number in the 
+	 * identifiers of threads waiting in <code>acquire</code>. */
+	static char ACQUIRER_MARK = '#';
+	
+	/** <code>Acquirer</code>s of threads waiting between two calls, keyed
+	 * by their <code>rejoin</code> keys. */
+	protected Hashtable detached = new Hashtable();
+	
+	/** Longest time a call is held waiting, in milliseconds. */
+	static long POLL_TIME = 30000;
+	
+	/** Time a waiting thread has to ask again before it is taken to have
+	 * died, in milliseconds. */
+	static long REJOIN_TIME = 10000;
+	
+	/** Drops the waiting threads that have not asked again in time.
+	 */
+	static class Expirer implements Runnable
+	{
+		/** Server whose waiting threads are checked. */
+		SyncServer server;
+		
+		/** Constructor.
+		 * @param server Server whose waiting threads are checked.
+		 */
+		Expirer(SyncServer server)
+		{
+			this.server = server;
+		}
+		
+		/** Checks the waiting threads every <code>REJOIN_TIME</code> 
+		 * until the thread is interrupted.
+		 */
+		public void run()
+		{
+			while (true)
+			{
+				try {
+					Thread.sleep(REJOIN_TIME);
+				} catch (InterruptedException e) {
+					return;
+				}
+				server.expireDetached();
+			}
+		}
+	}
+	
 	/** Translates the integer representation of the sync object type
 	 * to its string representation.
 	 * @param type Integer representation.
@@ -39,6 +145,8 @@ public class SyncServer extends Server implements TOSSyncServer
 			return "Semaphore";
 		else if (type==SIGNAL)
 			return "Signal";
+		else if (type==RWLOCK)
+			return "ReadWriteLock";
 		else
 			return "Unknown";
 	}
@@ -56,6 +164,8 @@ public class SyncServer extends Server implements TOSSyncServer
 			return SEMAPHORE;
 		else if (str.equals("Signal"))
 			return SIGNAL;
+		else if (str.equals("ReadWriteLock"))
+			return RWLOCK;
 		else
 			return 0;
 	}
@@ -82,6 +192,11 @@ public class SyncServer extends Server implements TOSSyncServer
 	 */
 	public SyncServer() throws RemoteException
 	{
+		for (int i=0; i<STRIPES; i++)
+			syncTable[i] = new Hashtable();
+		Thread thread = new Thread(new Expirer(this));
+		thread.setDaemon(true);
+		thread.start();
 		try {
 			init(SYNC);
 		} catch (Exception e) {
@@ -94,43 +209,51 @@ public class SyncServer extends Server implements TOSSyncServer
 	 * if it is created and <code>false</code> if it already exists.
 	 * @param name Name of object.
 	 * @param type Type of object.
-	 * @param max Maximum number of threads.  Ignored unless type==SEMAPHORE.
+	 * @param max Maximum number of threads if type==SEMAPHORE; if 
+	 *            type==RWLOCK, non-zero to prefer writers.  Otherwise 
+	 *            ignored.
 	 * @return success of the creation.
 	 * @exception RemoteException if an RMI error occurs.
 	 */
 	public boolean createObject(String name,int type,int max) throws RemoteException
 	{
 		try {
-			int countval;
+			String key = key(name,type);
+			Hashtable stripe = stripe(key);
 			SyncRecord rec;
-			try {
-				rec = findObject(name,type);
-			} catch (NotFoundException e) 
-		
-			{
-				String location = getLocation();
-				if (type==SIGNAL)
+			boolean isNew = false;
+			synchronized (stripe) {
+				rec = (SyncRecord)stripe.get(key);
+				if (rec==null)
 				{
-					rec = new SyncRecord(name,type,0,location);
-					countval = 0;
+					String location = getLocation();
+					if (type==SIGNAL)
+						rec = new SyncRecord(name,type,0,location);
+					else if (type==SEMAPHORE)
+						rec = new SyncRecord(name,type,max,location);
+					else if (type==MUTEX)
+						rec = new SyncRecord(name,type,1,location);
+					else if (type==RWLOCK)
+					{
+						rec = new SyncRecord(name,type,0,location);
+						rec.preferWriters = max!=0;
+					}
+					else
+						return false;
+					stripe.put(key,rec);
+					isNew = true;
 				}
-				else if (type==SEMAPHORE)
-				{
-					rec = new SyncRecord(name,type,max,location);
-				}
-				else if (type==MUTEX)
-				{
-					rec = new SyncRecord(name,type,1,location);
-				}
-				else
-					return false;
-				synchronized (syncTable) { syncTable.addElement(rec); }
+			}
+			if (isNew)
+			{
 				addToObjectTable(rec,this);
 				return true;
 			}
 			// this indicates the client has created a new reference
 			// to the object
-			rec.count++;
+			synchronized (rec) {
+				rec.count++;
+			}
 			return false;
 		} catch (Exception e) {
 			Debug.DisplayException("createObject",e);
@@ -138,48 +261,422 @@ public class SyncServer extends Server implements TOSSyncServer
 		}
 	}
 
-	/** Provides basic waiting functionality.
-	 * <p>Looks up the sync object.  If the calling thread needs to be
-	 * suspended, it is added to the queue and the function returns 
-	 * <code>true</code>.  If the caller proceeds, the function returns 
-	 * <code>false</code>.
+	/** Waits on a sync object, holding the call until the caller may 
+	 * proceed or the timeout expires.
+	 * <p>If the caller may not proceed at once it is queued, and the 
+	 * thread running the call waits on the caller's own 
+	 * <code>Acquirer</code> until a release hands the object on to it, so
+	 * that no further remote calls are needed.  A caller that times out is 
+	 * removed from the queue.  A call is held for at most 
+	 * <code>POLL_TIME</code>; if the caller's timeout is longer, the call
+	 * returns <code>false</code> with the caller still queued, and the 
+	 * caller asks again with the time it has left.
 	 * @param name Name of object.
 	 * @param type Type of object.
-	 * @param stub Remote stub of caller's listener thread.
 	 * @param threadName Name of calling thread.
 	 * @param procid ID of calling process.
-	 * @return <code>true</code> if thread must suspend, 
-	 *         otherwise <code>false</code>.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the caller may proceed, 
+	 *         <code>false</code> if the timeout expired first.
  	 * @exception RemoteException if an RMI error occurs.
-	 * @exception SyncException if another error occurs.
+	 * @exception SyncException if there is no such object.
 	 */
-	public boolean Wait(String name, int type, TOSListener stub, 
-						String threadName, int procid) 
+	public boolean acquire(String name, int type, String threadName, 
+						   int procid, long timeout) 
 		throws RemoteException, SyncException
 	{
+		return acquireLease(name,type,null,threadName,procid,timeout)!=DENIED;
+	}
+
+	/** Waits on a mutex as <code>acquire</code> does, and leases it to the
+	 * caller's process if no other thread is waiting for it.
+	 * <p>If the caller has to wait and the mutex is leased, the lease is 
+	 * revoked before the caller starts waiting.
+	 * @param name Name of the mutex.
+	 * @param type Type of sync object.
+	 * @param stub Remote stub of caller's listener, or <code>null</code> 
+	 *             if the caller does not accept a lease.
+	 * @param threadName Name of calling thread.
+	 * @param procid ID of calling process.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>LEASED</code> or <code>GRANTED</code> if the caller 
+	 *         may proceed, <code>DENIED</code> if the timeout expired first.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception SyncException if there is no such object.
+	 */
+	public int acquireLease(String name, int type, TOSListener stub, 
+							String threadName, int procid, long timeout) 
+		throws RemoteException, SyncException
+	{
+		if (type==RWLOCK)
+			throw new SyncException("Read-write locks are taken with acquireReadWrite");
 		SyncRecord rec;
 		try {
 			rec = findObject(name,type);
 		} catch (NotFoundException e) {
 			throw new SyncException("No such sync object");
 		}
-		// Increment count for semaphores and mutexes
+		String rejoin = rejoinKey(rec,threadName,procid);
+		Acquirer acquirer;
+		TOSListener holder = null;
+		synchronized (rec) {
+			acquirer = rejoin(rejoin);
+			if (acquirer==null)
+			{
+				if (rec.max!=0)
+				{
+					rec.count++;
+					if (rec.count<=rec.max)
+						return grant(rec,stub);
+				}
+				if (timeout==0)
+				{
+					if (rec.max!=0)
+						rec.count--;
+					return DENIED;
+				}
+				acquirer = queue(rec,threadName,procid,rejoin,false);
+				acquirer.stub = stub;
+				holder = rec.leaseholder;
+			}
+		}
+		if (holder!=null)
+		{
+			try {
+				revokeLease(rec,holder);
+			} catch (RemoteException e) {
+				// the caller is not told it was queued, so it must not 
+				// stay queued
+				synchronized (rec) {
+					if (!acquirer.isGranted)
+					{
+						giveUp(acquirer,false);
+						throw e;
+					}
+				}
+			}
+		}
+		if (!await(acquirer,timeout))
+			return DENIED;
+		return acquirer.isLeased ? LEASED : GRANTED;
+	}
+	
+	/** Takes a read-write lock, holding the call until the caller may 
+	 * proceed or the timeout expires.
+	 * <p>A writer may proceed if no one holds the lock and no one is 
+	 * waiting.  A reader may proceed if no writer holds the lock and, if
+	 * the lock prefers writers, none is waiting.  A caller that times out
+	 * is removed from the queue, and readers it held up are let in.
+	 * @param name Name of the lock.
+	 * @param threadName Name of calling thread.
+	 * @param procid ID of calling process.
+	 * @param isWriter <code>true</code> to take the lock exclusively, 
+	 *                 <code>false</code> to share it with other readers.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the caller may proceed, 
+	 *         <code>false</code> if the timeout expired first.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception SyncException if there is no such lock.
+	 */
+	public boolean acquireReadWrite(String name, String threadName, 
+									int procid, boolean isWriter, 
+									long timeout) 
+		throws RemoteException, SyncException
+	{
+		SyncRecord rec;
 		try {
-			if (rec.max!=0)
+			rec = findObject(name,RWLOCK);
+		} catch (NotFoundException e) {
+			throw new SyncException("No such sync object");
+		}
+		String rejoin = rejoinKey(rec,threadName,procid);
+		Acquirer acquirer;
+		synchronized (rec) {
+			acquirer = rejoin(rejoin);
+			if (acquirer==null)
 			{
-				rec.count++;
-				if (rec.count<=rec.max)
+				if (isWriter)
+				{
+					if (!rec.isWriting && rec.readers==0 && rec.isEmpty())
+					{
+						rec.isWriting = true;
+						return true;
+					}
+				}
+				else if (!rec.isWriting && 
+						 (!rec.preferWriters || rec.writers==0))
+				{
+					rec.readers++;
+					return true;
+				}
+				if (timeout==0)
 					return false;
+				acquirer = queue(rec,threadName,procid,rejoin,isWriter);
 			}
-			String id = String.valueOf(procid)+threadName;
-			rec.addElement(id);
-			synchronized (threadTable) { threadTable.put(id,stub); }
-			return true;
-		} catch (Exception e) {
-			if (e instanceof SyncException)
-				throw (SyncException)e;
-			Debug.ErrorMessage("Wait",e.toString());
+		}
+		return await(acquirer,timeout);
+	}
+	
+	/** Returns the key under which a thread waiting for an object is 
+	 * found when it asks again.
+	 * @param rec Record of the object.
+	 * @param threadName Name of the thread.
+	 * @param procid ID of the thread's process.
+	 * @return the key.
+	 */
+	static String rejoinKey(SyncRecord rec, String threadName, int procid)
+	{
+		return String.valueOf(procid) + threadName + ACQUIRER_MARK + 
+			   key(rec.name,rec.type);
+	}
+	
+	/** Takes back a thread that is asking again for an object it is 
+	 * still queued for.  Must be called while locking the record.
+	 * @param rejoin Key of the thread.
+	 * @return the thread's <code>Acquirer</code>, or <code>null</code> if
+	 *         it is not queued.
+	 */
+	Acquirer rejoin(String rejoin)
+	{
+		Acquirer acquirer = (Acquirer)detached.remove(rejoin);
+		if (acquirer!=null)
+		{
+			synchronized (acquirer) {
+				acquirer.detached = 0;
+			}
+		}
+		return acquirer;
+	}
+	
+	/** Adds a thread calling <code>acquire</code> to the queue of an 
+	 * object.  Must be called while locking the record.
+	 * @param rec Record of the object.
+	 * @param threadName Name of the thread.
+	 * @param procid ID of the thread's process.
+	 * @param rejoin Key of the thread.
+	 * @param isWriter <code>true</code> if the thread waits to write to 
+	 *                 a read-write lock.
+	 * @return the thread's <code>Acquirer</code>.
+	 */
+	Acquirer queue(SyncRecord rec, String threadName, int procid, 
+				   String rejoin, boolean isWriter)
+	{
+		Acquirer acquirer = new Acquirer();
+		acquirer.rec = rec;
+		acquirer.rejoin = rejoin;
+		synchronized (threadTable) {
+			acquirer.id = String.valueOf(procid) + threadName + 
+						  ACQUIRER_MARK + String.valueOf(++lastacquirer);
+			threadTable.put(acquirer.id,acquirer);
+		}
+		rec.addElement(acquirer.id,isWriter);
+		return acquirer;
+	}
+	
+	/** Holds a call until its thread is granted the object or the call 
+	 * has waited its time.
+	 * <p>A call is held for at most <code>POLL_TIME</code>.  If the 
+	 * caller's timeout is longer, the thread stays queued for it to ask
+	 * again; otherwise it gives up.
+	 * @param acquirer The waiting thread.
+	 * @param timeout Longest time the caller waits in milliseconds, or 
+	 *                negative to wait for as long as it takes.
+	 * @return <code>true</code> if the thread was granted the object.
+	 */
+	boolean await(Acquirer acquirer, long timeout)
+	{
+		boolean isLast = timeout>=0 && timeout<=POLL_TIME;
+		long deadline = System.currentTimeMillis() + 
+						(isLast ? timeout : POLL_TIME);
+		synchronized (acquirer) {
+			try {
+				while (!acquirer.isGranted)
+				{
+					long left = deadline - System.currentTimeMillis();
+					if (left<=0)
+						break;
+					acquirer.wait(left);
+				}
+			} catch (InterruptedException e) {
+				isLast = true;
+			}
+			if (acquirer.isGranted)
+				return true;
+		}
+		SyncRecord rec = acquirer.rec;
+		synchronized (rec) {
+			synchronized (acquirer) {
+				if (acquirer.isGranted)
+					return true;
+				if (!isLast)
+				{
+					acquirer.detached = System.currentTimeMillis();
+					detached.put(acquirer.rejoin,acquirer);
+					return false;
+				}
+			}
+			giveUp(acquirer,true);
+		}
+		return false;
+	}
+	
+	/** Takes a thread that has given up out of the queue of its object.
+	 * Must be called while locking the record.
+	 * @param acquirer The thread.
+	 * @param isTimeout <code>true</code> if the thread's timeout expired,
+	 *                  <code>false</code> if its process died.
+	 */
+	void giveUp(Acquirer acquirer, boolean isTimeout)
+	{
+		SyncRecord rec = acquirer.rec;
+		synchronized (acquirer) {
+			acquirer.isCancelled = true;
+		}
+		rec.remove(acquirer.id,isTimeout);
+		threadTable.remove(acquirer.id);
+		// a writer giving up may let waiting readers in
+		if (rec.type==RWLOCK)
+			grantReadWrite(rec);
+		else if (rec.max!=0)
+			rec.count--;
+	}
+	
+	/** Drops the threads that have not asked again within 
+	 * <code>REJOIN_TIME</code> of their last call, taking them to have 
+	 * died.  A thread granted the object meanwhile has it released.
+	 * Called by the <code>Expirer</code>.
+	 */
+	void expireDetached()
+	{
+		long now = System.currentTimeMillis();
+		Vector expired = new Vector();
+		synchronized (detached) {
+			Enumeration e = detached.elements();
+			while (e.hasMoreElements())
+			{
+				Acquirer acquirer = (Acquirer)e.nextElement();
+				if (now-acquirer.detached>REJOIN_TIME)
+					expired.addElement(acquirer);
+			}
+		}
+		for (int i=0; i<expired.size(); i++)
+		{
+			Acquirer acquirer = (Acquirer)expired.elementAt(i);
+			SyncRecord rec = acquirer.rec;
+			boolean isGranted;
+			synchronized (rec) {
+				// the thread may have asked again meanwhile
+				if (detached.get(acquirer.rejoin)!=acquirer)
+					continue;
+				detached.remove(acquirer.rejoin);
+				synchronized (acquirer) {
+					isGranted = acquirer.isGranted;
+				}
+				if (!isGranted)
+					giveUp(acquirer,false);
+			}
+			if (isGranted)
+			{
+				try {
+					Release(rec.name,rec.type);
+				} catch (RemoteException e) {
+					Debug.ErrorMessage("expireDetached",e.toString());
+				}
+			}
+		}
+	}
+	
+	/** Lets in the threads waiting for a read-write lock that may now 
+	 * proceed.
+	 * <p>If the first thread in the queue is a writer, it is let in once
+	 * no reader holds the lock.  Otherwise the waiting readers are let in
+	 * together: those ahead of the first writer if the lock prefers 
+	 * writers, or else all of them.  Must be called while locking the 
+	 * record.
+	 * @param rec Record of the lock.
+	 */
+	void grantReadWrite(SyncRecord rec)
+	{
+		while (!rec.isWriting && !rec.isEmpty())
+		{
+			if (rec.isWriterFirst())
+			{
+				if (rec.readers>0)
+					return;
+				if (wake(rec.removeFirst()))
+					rec.isWriting = true;
+			}
+			else
+			{
+				Vector ids = rec.removeReaders(!rec.preferWriters);
+				for (int i=0; i<ids.size(); i++)
+				{
+					if (wake((String)ids.elementAt(i)))
+						rec.readers++;
+				}
+			}
+		}
+	}
+	
+	/** Wakes a thread waiting in a call to <code>acquireReadWrite</code>.
+	 * @param id Identifier of the thread.
+	 * @return <code>true</code> if the thread was woken, 
+	 *         <code>false</code> if it had given up.
+	 */
+	boolean wake(String id)
+	{
+		Object waiter = threadTable.remove(id);
+		if (!(waiter instanceof Acquirer))
 			return false;
+		Acquirer acquirer = (Acquirer)waiter;
+		synchronized (acquirer) {
+			if (acquirer.isCancelled)
+				return false;
+			acquirer.isGranted = true;
+			acquirer.notify();
+			return true;
+		}
+	}
+	
+	/** Decides whether an object being granted to a thread is leased to 
+	 * its process.
+	 * <p>Only mutexes are leased, and only if no other thread is waiting.
+	 * Must be called while locking the record.
+	 * @param rec Record of the object.
+	 * @param stub Listener of the thread's process, or <code>null</code>.
+	 * @return <code>LEASED</code> if the object was leased, otherwise
+	 *         <code>GRANTED</code>.
+	 */
+	int grant(SyncRecord rec, TOSListener stub)
+	{
+		if (stub==null || rec.type!=MUTEX || !rec.isEmpty())
+			return GRANTED;
+		rec.leaseholder = stub;
+		return LEASED;
+	}
+	
+	/** Asks the process holding the lease on a mutex to give it back.
+	 * <p>If the call to the process fails in any way it is taken to have
+	 * died, and the mutex is released for it; otherwise threads queued 
+	 * behind the lease would wait for ever.
+	 * @param rec Record of the mutex.
+	 * @param holder Listener of the process holding the lease.
+	 * @exception RemoteException if an RMI error occurs.
+	 */
+	void revokeLease(SyncRecord rec, TOSListener holder) throws RemoteException
+	{
+		try {
+			holder.revoke(rec.name,rec.type);
+		} catch (RemoteException e) {
+			synchronized (rec) {
+				if (rec.leaseholder!=holder)
+					return;
+				rec.leaseholder = null;
+			}
+			Release(rec.name,rec.type);
 		}
 	}
 
@@ -197,16 +694,34 @@ public class SyncServer extends Server implements TOSSyncServer
 		} catch (NotFoundException e) {
 			return;
 		}
+		// a read-write lock is released by its writer if it has one, 
+		// otherwise by one of its readers
+		if (type==RWLOCK)
+		{
+			synchronized (rec) {
+				if (rec.isWriting)
+					rec.isWriting = false;
+				else if (rec.readers>0)
+					rec.readers--;
+				grantReadWrite(rec);
+			}
+			return;
+		}
 		// Decrement semaphore count
 		if (rec.max!=0)
 		{
-			rec.count--;
+			synchronized (rec) {
+				rec.count--;
+				// only the process holding a lease can release a leased
+				// mutex
+				rec.leaseholder = null;
+			}
 		}
 		// for signals, resume all waiting threads,
 		// for mutex and semaphores, just the first
 		if (type==SIGNAL)
 		{
-			while (!rec.queue.isEmpty())
+			while (!rec.isEmpty())
 				resumeThread(rec);
 		}
 		else
@@ -224,30 +739,53 @@ public class SyncServer extends Server implements TOSSyncServer
 	 */
 	void resumeThread(SyncRecord rec) throws RemoteException, SyncException
 	{
-		if (rec.queue.isEmpty())
-			return;
-		String id = (String)rec.queue.firstElement();
-		rec.removeElement(id);
-		TOSListener stub;
-		synchronized (threadTable) {
-			stub = (TOSListener)threadTable.get(id);
-			threadTable.remove(id);
-		}
-		try {
-			stub.resume(id);
-		} catch (Exception e) {
-			// These exception are thrown if a thread or process had terminated
-			// without releasing a lock.  We just release
-			// the next item in the queue instead.
-			if ((e instanceof SyncException) || 
-				(e instanceof java.rmi.ConnectException))
+		synchronized (rec) {
+			while (true)
 			{
-				removeRef(rec.name,rec.type);
-				resumeThread(rec); 
+				String id = rec.removeFirst();
+				if (id==null)
+					return;
+				Object waiter = threadTable.remove(id);
+				// a thread in acquire is woken here; one that gave up
+				// is passed over
+				if (waiter!=null)
+				{
+					Acquirer acquirer = (Acquirer)waiter;
+					synchronized (acquirer) {
+						if (!acquirer.isCancelled)
+						{
+							acquirer.isLeased = grant(rec,acquirer.stub)==LEASED;
+							acquirer.isGranted = true;
+							acquirer.notify();
+							return;
+						}
+					}
+				}
 			}
 		}
 	}
 
+	/** Returns figures on the threads waiting for a sync object.
+	 * @param name Name of object.
+	 * @param type Type of object.
+	 * @return the figures.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception SyncException if there is no such object.
+	 */
+	public SyncStatistics getStatistics(String name, int type) 
+		throws RemoteException, SyncException
+	{
+		SyncRecord rec;
+		try {
+			rec = findObject(name,type);
+		} catch (NotFoundException e) {
+			throw new SyncException("No such sync object");
+		}
+		synchronized (rec) {
+			return rec.statistics();
+		}
+	}
+
 	/** Increments a sync object's reference count.
 	 * @param name Name of sync object.
 	 * @param type Type of sunc object.
@@ -261,7 +799,9 @@ public class SyncServer extends Server implements TOSSyncServer
 		} catch (NotFoundException e) {
 			return;
 		}
-		rec.count++;
+		synchronized (rec) {
+			rec.count++;
+		}
 	}
 	
 	/** Decrements a sync object's reference count.
@@ -277,9 +817,13 @@ public class SyncServer extends Server implements TOSSyncServer
 		} catch (NotFoundException e) {
 			return;
 		}
-		rec.count--;
+		boolean isUnused;
+		synchronized (rec) {
+			rec.count--;
+			isUnused = rec.count<=0;
+		}
 		// destroy object if it no longer exists
-		if (rec.count<=0)
+		if (isUnused)
 		{
 			destroyObject(rec);
 		}
@@ -291,15 +835,10 @@ public class SyncServer extends Server implements TOSSyncServer
 	 */
 	public void destroyObject(SyncRecord rec) throws RemoteException
 	{
-		SyncRecord myrec;
-		try {
-			myrec = findObject(rec.name,rec.type);
-		} catch (NotFoundException e) {
+		String key = key(rec.name,rec.type);
+		SyncRecord myrec = (SyncRecord)stripe(key).remove(key);
+		if (myrec==null)
 			return;
-		}
-		synchronized (syncTable) { 
-			syncTable.removeElement(myrec); 
-		}
 		deleteFromObjectTable(myrec,this);
 	}
 	
@@ -311,13 +850,30 @@ public class SyncServer extends Server implements TOSSyncServer
 	 */
 	SyncRecord findObject(String name, int type) throws NotFoundException
 	{
-		for (int i=0; i<syncTable.size(); i++)
-		{
-			SyncRecord myrec = (SyncRecord)syncTable.elementAt(i);
-			if ((myrec.name).equals(name) && (myrec.type)==type)
-				return myrec;
-		}
-		throw new NotFoundException();
+		String key = key(name,type);
+		SyncRecord myrec = (SyncRecord)stripe(key).get(key);
+		if (myrec==null)
+			throw new NotFoundException();
+		return myrec;
+	}
+	
+	/** Returns the key under which a sync object is indexed.
+	 * @param name Name of object.
+	 * @param type Type of object.
+	 * @return the key.
+	 */
+	static String key(String name, int type)
+	{
+		return String.valueOf(type) + ":" + name;
+	}
+	
+	/** Returns the part of the sync table holding a key.
+	 * @param key Key of the object.
+	 * @return the table.
+	 */
+	Hashtable stripe(String key)
+	{
+		return syncTable[(key.hashCode() & 0x7fffffff) % STRIPES];
 	}
 	
 }
\ No newline at end of file
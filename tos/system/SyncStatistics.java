@@ -0,0 +1,52 @@
+//
+//
+// SyncStatistics
+//
+//
+package tos.system;
+
+import java.io.*;
+
+/** Figures on the threads waiting for a sync object, as kept by the 
+ * server holding it.
+ * <p>A caller that cannot afford a long wait can look at the length of 
+ * the queue, which is the place it would take in it, and at how long 
+ * threads have waited so far, and decide not to wait at all.
+ * <p>Each wait is counted once, however many calls to the server it 
+ * took.
+ * @see TOSSyncServer#getStatistics
+ */
+
+public class SyncStatistics implements Serializable
+{
+	/** Number of threads waiting. */
+	public int queueLength;
+	
+	/** Time the first thread in the queue has waited so far, in 
+	 * milliseconds, or 0 if none is waiting. */
+	public long oldestWait;
+	
+	/** Number of threads that had to wait and were released. */
+	public int waits;
+	
+	/** Number of threads that gave up waiting. */
+	public int timeouts;
+	
+	/** Number of threads dropped from the queue because their process 
+	 * stopped asking, and was taken to have died. */
+	public int dropped;
+	
+	/** Total time the released threads waited, in milliseconds. */
+	public long totalWait;
+	
+	/** Longest time a released thread waited, in milliseconds. */
+	public long maxWait;
+	
+	/** Returns the mean time the released threads waited.
+	 * @return the mean time in milliseconds, or 0 if no thread has waited.
+	 */
+	public long averageWait()
+	{
+		return (waits==0) ? 0 : totalWait/waits;
+	}
+}
@@ -26,6 +26,25 @@ public interface TOSDisk extends Remote
 											   IOException, 
 											   DiskFullException;
 	 
+	/** Leases a batch of free blocks to a file being written.
+	 * @param iblocknum An index block of the file.
+	 * @param count Number of blocks wanted.
+	 * @return numbers of the leased blocks, at least one.
+ 	 * @exception RemoteException if an RMI error occurs.
+ 	 * @exception IOException if the index block number is invalid.
+ 	 * @exception DiskFullException if the disk is full.
+	 */
+	int[] leaseBlocks(int iblocknum, int count) throws RemoteException, 
+													   IOException, 
+													   DiskFullException;
+	 
+	/** Gives back leased blocks that were not used.
+	 * @param blocks Numbers of the blocks.
+ 	 * @exception RemoteException if an RMI error occurs.
+ 	 * @exception IOException if an I/O error occurs.
+	 */
+	void returnBlocks(int[] blocks) throws RemoteException, IOException;
+	 
 	/** Retrieves a data block from disk.
 	 * @param blocknum Number of block to retrieve.
  	 * @exception RemoteException if an RMI error occurs.
@@ -92,6 +111,18 @@ public interface TOSDisk extends Remote
 	 */
 	 void updateNode(Inode inode) throws RemoteException, IOException;
 	 
+	/** Commits a file being closed: its last data block, its last index
+	 * block and its inode, in one call.
+	 * @param inode Inode of the file, with its end recorded.
+	 * @param iblock Last index block of the file.
+	 * @param blocknum Number of the last data block.
+	 * @param block Contents of the last data block.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	void commitFile(Inode inode, IndexBlock iblock, int blocknum, 
+					byte[] block) throws RemoteException, IOException;
+	 
 	/** Terminates the disk.
 	 * The disk is unbound from the registry and the physical
 	 * file is closed.
@@ -113,6 +144,222 @@ public interface TOSDisk extends Remote
 	 */
 	 int getBlockSize() throws RemoteException;
 	 
+	/** Pins a file in place while a caller has it open, so that the 
+	 * defragmenter does not move its blocks.
+	 * @param filenum Inode number of the file.
+	 * @return the file's current inode.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	Inode pinFile(int filenum) throws RemoteException, IOException;
+	
+	/** Releases a pin taken by <code>pinFile</code>.
+	 * @param filenum Inode number of the file.
+	 * @exception RemoteException if an RMI error occurs.
+	 */
+	void unpinFile(int filenum) throws RemoteException;
+	
+	/** Opens a file and returns a handle for it.  The disk keeps the 
+	 * file's inode and index blocks until it is closed.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param mode "r" to read, "w" to write from an empty file, or "a" to
+	 *             write to the file as it stands.
+	 * @param password File's password, "" if it has none.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @return handle of the open file.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the mode is invalid,
+	 *                        or a directory is opened for writing.
+	 * @exception NotFoundException if the file cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception FilesFullException if there are no more inodes available.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	int openFile(String path, String mode, String password, long sizehint) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, FilesFullException, 
+			   DiskFullException;
+	
+	/** Writes a whole file in one call, creating it if it does not exist.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @param data New contents of the file.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the file is a 
+	 *                        directory.
+	 * @exception NotFoundException if the file's directory cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception FilesFullException if there are no more inodes available.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	void putFile(String path, String password, byte[] data) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, FilesFullException, 
+			   DiskFullException;
+	
+	/** Reads a whole file in one call.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @return contents of the file.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the file is too 
+	 *                        large to return in one array.
+	 * @exception NotFoundException if the file cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 */
+	byte[] getFile(String path, String password) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException;
+	
+	/** Reads from a file opened with <code>openFile</code>.
+	 * @param handle Handle of the file.
+	 * @param offset Position in the file to read from.
+	 * @param length Greatest number of bytes to read.
+	 * @return the bytes read, fewer than asked for only at the end of the
+	 *         file, and none past it.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the handle is 
+	 *                        invalid.
+	 */
+	byte[] readFile(int handle, long offset, int length) 
+		throws RemoteException, IOException;
+	
+	/** Writes to a file opened with <code>openFile</code>.
+	 * @param handle Handle of the file.
+	 * @param offset Position in the file to write at, no further than its
+	 *               current end.
+	 * @param data Bytes to write.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the handle is 
+	 *                        invalid, or the file cannot be written there.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	void writeFile(int handle, long offset, byte[] data) 
+		throws RemoteException, IOException, DiskFullException;
+	
+	/** Returns the current length of a file opened with 
+	 * <code>openFile</code>.
+	 * @param handle Handle of the file.
+	 * @return length of the file in bytes.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if the handle is invalid.
+	 */
+	long getFileLength(int handle) throws RemoteException, IOException;
+	
+	/** Closes a file opened with <code>openFile</code>.
+	 * @param handle Handle of the file.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the handle is 
+	 *                        invalid.
+	 */
+	void closeFile(int handle) throws RemoteException, IOException;
+	
+	/** Starts a background defragmentation pass, unless one is running.
+	 * @param throttle Pause after each block copied, in milliseconds.
+	 * @return <code>true</code> if a new pass was started.
+	 * @exception RemoteException if an RMI error occurs.
+	 */
+	boolean startDefragmenter(long throttle) throws RemoteException;
+	
+	/** Stops the background defragmentation pass, if one is running.
+	 * @exception RemoteException if an RMI error occurs.
+	 */
+	void stopDefragmenter() throws RemoteException;
+	
+	/** Returns the fragmentation score of a file, from 0 for a contiguous
+	 * file to 1 for a completely scattered one.
+	 * @param filenum Inode number of the file.
+	 * @return the file's fragmentation score.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	double getFragmentation(int filenum) throws RemoteException, IOException;
+	
+	/** Returns the fragmentation score of the disk's regular files taken
+	 * together.
+	 * @return the disk's fragmentation score.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	double getFragmentation() throws RemoteException, IOException;
+	
+	/** Copies the contents of one file on this disk over another, without 
+	 * the data leaving the disk.
+	 * @param srcnum Inode number of the source file.
+	 * @param destnum Inode number of the destination file.
+	 * @return the destination's updated inode.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	Inode copyFile(int srcnum, int destnum) 
+		throws RemoteException, IOException, DiskFullException;
+	
+	/** Copies the contents of a file on this disk over a file on another
+	 * disk, streaming it there directly.
+	 * @param srcnum Inode number of the source file.
+	 * @param dest Disk holding the destination file.
+	 * @param destnum Inode number of the destination file.
+	 * @return the destination's updated inode.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the destination disk is full.
+	 */
+	Inode sendFile(int srcnum, TOSDisk dest, int destnum) 
+		throws RemoteException, IOException, DiskFullException;
+	
+	/** Receives part of a file streamed from another disk by 
+	 * <code>sendFile</code>.
+	 * @param filenum Inode number of the destination file.
+	 * @param size Size of the whole file, in bytes.
+	 * @param offset Offset of this part within the file.
+	 * @param data Contents of this part.
+	 * @param last <code>true</code> if this is the last part.
+	 * @return the file's updated inode after the last part, otherwise 
+	 *         <code>null</code>.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	Inode receiveFile(int filenum, long size, long offset, byte[] data, 
+					  boolean last) 
+		throws RemoteException, IOException, DiskFullException;
+	
+	/** Renames or moves a file within this disk, changing only directory
+	 * entries and the inode.
+	 * @param source Path of the file, relative to the disk's root.
+	 * @param dest New path of the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the destination 
+	 *                        exists.
+	 * @exception NotFoundException if the source or the destination's 
+	 *                              directory cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	void renameFile(String source, String dest, String password) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, DiskFullException;
+	
+	/** Adds data blocks to the disk while it is running.
+	 * @param blocksize Size of the new data blocks.
+	 * @param numblocks Number of new data blocks.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if the disk cannot grow or an I/O error 
+	 *                        occurs.
+	 */
+	void addBlocks(int blocksize, int numblocks) throws RemoteException, 
+														IOException;
+	
+	/** Adds inodes to the disk while it is running.
+	 * @param numfiles Number of new inodes.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if the disk cannot grow or an I/O error 
+	 *                        occurs.
+	 */
+	void addInodes(int numfiles) throws RemoteException, IOException;
+	 
 	/** Creates a new file.  The first index block and data block are 
 	 * allocated and assigned to the new inode.
 	 * @param filenum Inode number of new file.
@@ -124,6 +371,19 @@ public interface TOSDisk extends Remote
 	Inode createFile(int filenum, String filename) throws RemoteException, 
 														   IOException, 
 														   DiskFullException;
+	
+	/** Creates a new file in the block-size pool suited to its expected
+	 * size.  The first index block and data block are allocated and 
+	 * assigned to the new inode.
+	 * @param filenum Inode number of new file.
+	 * @param filename Name of new file.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	Inode createFile(int filenum, String filename, long sizehint) 
+		throws RemoteException, IOException, DiskFullException;
 	/** Removes a file.
 	 * This simply marks the inode as being unused.  This funciton does not
 	 * actually free the file's blocks.
@@ -131,6 +391,76 @@ public interface TOSDisk extends Remote
 	 * @exception RemoteException if an RMI error occurs.
 	 */
 	 void removeFile(Inode inode) throws RemoteException;
+	 
+	/** Deletes a file.  The directory entry is removed and the inode 
+	 * marked dead at once; the file's blocks are freed in the background.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the file is a 
+	 *                        directory that is not empty.
+	 * @exception NotFoundException if the file cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	void deleteFile(String path, String password) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, DiskFullException;
+	
+	/** Opens a file by path, creating it and its directory entry in one 
+	 * call if it does not exist.
+	 * @param path Path of the file, relative to the disk's root.
+	 * @param isDirectory <code>true</code> to create a directory.
+	 * @param sizehint Expected size of the file in bytes, 0 if unknown.
+	 * @return the inode of the file, new or existing.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, or the name is 
+	 *                        invalid.
+	 * @exception NotFoundException if the parent directory cannot be 
+	 *                              found.
+	 * @exception FilesFullException if there are no more inodes available.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	Inode createFile(String path, boolean isDirectory, long sizehint)
+		throws RemoteException, IOException, NotFoundException, 
+			   FilesFullException, DiskFullException;
+	
+	/** Gives a file another name on this disk.
+	 * @param existing Path of the file, relative to the disk's root.
+	 * @param path New path for the file, relative to the disk's root.
+	 * @param password File's password, "" if it has none.
+	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs, the new name exists 
+	 *                        or is invalid, the file is a directory, or 
+	 *                        the disk does not support links.
+	 * @exception NotFoundException if the file or the new name's 
+	 *                              directory cannot be found.
+	 * @exception InvalidPasswordException if the password is incorrect.
+	 * @exception DiskFullException if the disk is full.
+	 */
+	void linkFile(String existing, String path, String password) 
+		throws RemoteException, IOException, NotFoundException, 
+			   InvalidPasswordException, DiskFullException;
+	
+	/** Returns the packed tail of a file, padded to a full data block.
+	 * @param filenum Inode number of the file.
+	 * @return the tail, as a data block.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs. 
+	 */
+	byte[] retrieveTail(int filenum) throws RemoteException, IOException;
+	
+	/** Moves a packed tail back into a data block of its own so that the
+	 * file can be written to.  Files without a packed tail are left alone.
+	 * @param filenum Inode number of the file.
+	 * @return the file's inode, as it stands afterward.
+ 	 * @exception RemoteException if an RMI error occurs.
+	 * @exception IOException if an I/O error occurs. 
+ 	 * @exception DiskFullException if the disk is full.
+	 */
+	Inode unpackTail(int filenum) throws RemoteException, 
+										 IOException, 
+										 DiskFullException;
 	
 	 /** Writes a mount point to the superblock.
 	 * @param mountpt New mount point.
@@ -60,5 +60,44 @@ public interface TOSFileNameServer extends TOSServer
 	 */
 	void addDisk(String servername, TOSDisk stub) throws RemoteException;
 
+	/** Returns a copy of the mount table together with its version.
+	 * @return the mount table and its version.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	MountSnapshot getMountSnapshot() throws RemoteException;
+
+	/** Returns the version of the mount and name tables.  The version
+	 * goes up by at least one whenever a disk is mounted, unmounted or 
+	 * added, and never goes down while the server runs.
+	 * @return the version.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	long getMountVersion() throws RemoteException;
+
+	/** Waits until the tables change from a known version.
+	 * <p>Clients that cannot take callbacks can call this in a loop 
+	 * instead of registering a listener.
+	 * @param version Version the caller knows.
+	 * @param timeout Longest time to wait, in milliseconds.
+	 * @return the current version, which is the one passed in if the 
+	 *         wait timed out.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	long waitForChange(long version, long timeout) throws RemoteException;
+
+	/** Registers a client to be told when the mount table or the set of
+	 * disks changes.
+	 * @param listener Remote stub of the client's listener.
+	 * @return the current version of the tables.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	long addMountListener(TOSMountListener listener) throws RemoteException;
+
+	/** Stops telling a client about changes.
+	 * @param listener Remote stub of the client's listener.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	void removeMountListener(TOSMountListener listener) throws RemoteException;
+
 
 }
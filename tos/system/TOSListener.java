@@ -10,18 +10,12 @@ import tos.api.*;
 
 public interface TOSListener extends Remote
 {
-	/** Suspends a user thread.
-	 * @param threadName Thread to suspend.
+	/** Asks the process to give back its lease on a mutex.
+	 * @param name Name of the mutex.
+	 * @param type Type of the object.
 	 * @exception RemoteException if there has been an RMI error.
 	 */
-	void suspend(String threadName) throws RemoteException;
-	
-	/** Resumes a suspended thread.
-	 * @param Concatenated TOS process identifier and thread name.
-	 * @exception RemoteException if there has been an RMI error.
-	 * @exception SyncException if an error occurs with the sync object.
-	 */
-	void resume(String name) throws RemoteException, SyncException;
+	void revoke(String name, int type) throws RemoteException;
 	
 	/** Kills a process.
 	 * The Administrator uses this function to order a process to 
@@ -0,0 +1,21 @@
+//TOSMountListener.java
+package tos.system;
+
+import java.rmi.*;
+
+/** This remote interface is implemented by clients that cache 
+ * information from a filename server, so that the server can tell 
+ * them when it has changed.
+ * <p>Notices are sent from a background thread after the change has 
+ * been made, and may be merged: a client is only promised a notice 
+ * carrying a version at least as high as that of every change.
+ */
+
+public interface TOSMountListener extends Remote
+{
+	/** Called after a disk is mounted, unmounted or added.
+	 * @param version Version of the server's tables after the change.
+	 * @exception RemoteException if there has been an RMI error.
+	 */
+	void mountChanged(long version) throws RemoteException;
+}
@@ -53,6 +53,53 @@ interface TOSServer extends Remote
 	 */
 	void deleteFromObjectTable(Object key, TOSServer stub) throws RemoteException;
 	
+	/** Applies a batch of object table changes made by another server.
+	 * Changes already applied are skipped.
+	 * @param changes <code>TableChange</code>s, in the order they were 
+	 *                made.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	void applyChanges(Vector changes) throws RemoteException;
+	
+	/** Returns the version of the object table, which goes up by one 
+	 * with every change applied to it.
+	 * @return the version.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	long getTableVersion() throws RemoteException;
+	
+	/** Returns the changes made to the object table after a version.
+	 * @param version Version the caller has.
+	 * @return <code>TableChange</code>s in order, or <code>null</code> if
+	 *         the log no longer reaches back to that version.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	Vector getChangesSince(long version) throws RemoteException;
+	
+	/** Returns one page of the object table.
+	 * <p>Pages are numbered over the keys the table had when the first 
+	 * page for a version was asked for; servers copying the same version
+	 * share those keys.  Entries changed while the pages
+	 * are read should be brought up to date with 
+	 * <code>getChangesSince</code> for the same version.
+	 * @param version Version returned by <code>getTableVersion</code> 
+	 *                before the first page was asked for.
+	 * @param start Index of the first entry of the page.
+	 * @return the page.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	TablePage getTablePage(long version, int start) throws RemoteException;
+	
+	/** Returns how far each other server is behind this one's object 
+	 * table changes.
+	 * @return table with the location of each other server as key and
+	 *         as value a <code>long[]</code> holding the number of 
+	 *         changes it has not applied and the age of the oldest in 
+	 *         milliseconds.
+	 * @exception RemoteException if an RMI problem occurs.
+	 */
+	Hashtable getReplicationLag() throws RemoteException;
+	
 	/** Returns the server table.
 	 * Every server maintains a list of all other servers of its class.
 	 * @return Server table.
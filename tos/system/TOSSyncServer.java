@@ -17,22 +17,70 @@ public interface TOSSyncServer extends TOSServer
 	/** Shorthand for signals */
 	static int SIGNAL = 3;
 
+	/** Shorthand for read-write locks */
+	static int RWLOCK = 4;
+
+	/** Returned by <code>acquireLease</code> if the timeout expired. */
+	static int DENIED = 0;
+
+	/** Returned by <code>acquireLease</code> if the caller may proceed. */
+	static int GRANTED = 1;
+
+	/** Returned by <code>acquireLease</code> if the caller may proceed 
+	 * and its process holds a lease on the mutex. */
+	static int LEASED = 2;
+
 	/** Creates a new sync object.
 	 * @param name Name of sync object.
 	 * @param type Type of sunc object.
-	 * @param count Count of the new object.  
+	 * @param count Count of the new object.  For a read-write lock, 
+	 *              non-zero if waiting writers keep out new readers.
 	 * @return if the creation was successful.
 	 * @exception RemoteException if there has been an RMI error.
 	 */
 	boolean createObject(String name,int type,int count) throws RemoteException;
 	
-	/** Calls <code>Wait</code> on a sync object.
+	/** Waits on a sync object, holding the call until the caller may 
+	 * proceed or the timeout expires.
+	 * <p>The server may return <code>false</code> before a long timeout 
+	 * expires, keeping the caller queued; the caller then asks again 
+	 * with the time it has left, and should do so at once, or the server
+	 * drops it from the queue.
 	 * @param name Name of sync object.
-	 * @param type Type of sunc object.
-	 * @return if
+	 * @param type Type of sync object.
+	 * @param threadName Name of calling thread.
+	 * @param procid ID of calling process.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the caller may proceed, 
+	 *         <code>false</code> if the timeout expired first.
+	 * @exception RemoteException if there has been an RMI error.
+	 * @exception SyncException if there is no such object.
+	 */
+	boolean acquire(String name, int type, String threadName, int procid, 
+					long timeout) throws RemoteException, SyncException;
+	
+	/** Waits on a mutex as <code>acquire</code> does, and leases it to the
+	 * caller's process if no other thread is waiting for it.
+	 * <p>The process keeps a leased mutex until the server asks for it
+	 * back by calling <code>revoke</code> on its listener, and then gives
+	 * it back by calling <code>Release</code>.
+	 * @param name Name of the mutex.
+	 * @param type Type of sync object.
+	 * @param stub Remote stub of caller's listener.
+	 * @param threadName Name of calling thread.
+	 * @param procid ID of calling process.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>LEASED</code> or <code>GRANTED</code> if the caller 
+	 *         may proceed, <code>DENIED</code> if the timeout expired first.
 	 * @exception RemoteException if there has been an RMI error.
+	 * @exception SyncException if there is no such object.
+	 * @see TOSListener#revoke
 	 */
-	boolean Wait(String name, int type, TOSListener stub, String threadName, int procid) throws RemoteException, SyncException;
+	int acquireLease(String name, int type, TOSListener stub, 
+					 String threadName, int procid, long timeout) 
+		throws RemoteException, SyncException;
 	
 	/** Calls <code>Release</code> on a sync object.
 	 * @param name Name of sync object.
@@ -42,6 +90,36 @@ public interface TOSSyncServer extends TOSServer
 	 */
 	void Release(String name, int type) throws RemoteException;
 
+	/** Takes a read-write lock, holding the call until the caller may 
+	 * proceed or the timeout expires.
+	 * <p>Any number of readers may hold the lock at once, or a single 
+	 * writer.  The lock is given back with <code>Release</code>.
+	 * @param name Name of the lock.
+	 * @param threadName Name of calling thread.
+	 * @param procid ID of calling process.
+	 * @param isWriter <code>true</code> to take the lock exclusively, 
+	 *                 <code>false</code> to share it with other readers.
+	 * @param timeout Longest time to wait in milliseconds, 0 not to wait,
+	 *                or negative to wait for as long as it takes.
+	 * @return <code>true</code> if the caller may proceed, 
+	 *         <code>false</code> if the timeout expired first.
+	 * @exception RemoteException if there has been an RMI error.
+	 * @exception SyncException if there is no such lock.
+	 */
+	boolean acquireReadWrite(String name, String threadName, int procid, 
+							 boolean isWriter, long timeout) 
+		throws RemoteException, SyncException;
+	
+	/** Returns figures on the threads waiting for a sync object.
+	 * @param name Name of sync object.
+	 * @param type Type of sync object.
+	 * @return the figures.
+	 * @exception RemoteException if there has been an RMI error.
+	 * @exception SyncException if there is no such object.
+	 */
+	SyncStatistics getStatistics(String name, int type) 
+		throws RemoteException, SyncException;
+
 	/** Increments a sync object's reference count.
 	 * @param name Name of sync object.
 	 * @param type Type of sunc object.
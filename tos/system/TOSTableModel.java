@@ -532,6 +532,8 @@ class SyncTableModel extends TOSTableModel
 				return "Mutex";
 			else if (rec.type==TOSSyncServer.SEMAPHORE)
 				return "Semaphore";
+			else if (rec.type==TOSSyncServer.RWLOCK)
+				return "ReadWriteLock";
 			else
 				return "Signal";
 		}
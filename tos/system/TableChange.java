@@ -0,0 +1,73 @@
+//
+//
+// TableChange
+//
+//
+package tos.system;
+
+import java.io.*;
+
+/** One change to a server's object table, as sent to other servers.
+ * <p>Each server numbers the changes it makes in sequence.  Changes 
+ * from one server reach each other server in that order, and a server
+ * applying them ignores any whose number it has already seen from the 
+ * same origin, so that a batch sent again after an error does no harm.
+ * The numbering starts again when a server restarts, so each change 
+ * also carries the time its origin started, and a change from a later
+ * start is always applied.
+ * <p>Every server also keeps its most recent changes, whatever their 
+ * origin, in a log numbered by the version of its own table, from which
+ * a server copying the table can catch up.
+ * @see Server#applyChanges
+ * @see Server#getChangesSince
+ */
+
+class TableChange implements Serializable
+{
+	/** Sequence number of the change at its origin. */
+	long seq;
+	
+	/** Time the origin server started, in milliseconds. */
+	long incarnation;
+	
+	/** Location of the server that made the change. */
+	String origin;
+	
+	/** Version of the object table this change produced, at the server
+	 * whose log holds it. */
+	long version;
+	
+	/** <code>true</code> for an addition, <code>false</code> for a 
+	 * removal. */
+	boolean isAdd;
+	
+	/** Key of the object table entry. */
+	Object key;
+	
+	/** Remote stub of the server holding the object, for additions. */
+	TOSServer stub;
+	
+	/** Time the change was made, in milliseconds.  Used only at the 
+	 * origin, to measure replication lag. */
+	transient long time;
+	
+	/** Constructor.
+	 * @param seq Sequence number of the change.
+	 * @param incarnation Time the server making the change started.
+	 * @param origin Location of the server making the change.
+	 * @param isAdd <code>true</code> for an addition.
+	 * @param key Key of the entry.
+	 * @param stub Server holding the object.
+	 */
+	TableChange(long seq, long incarnation, String origin, boolean isAdd, 
+				Object key, TOSServer stub)
+	{
+		this.seq = seq;
+		this.incarnation = incarnation;
+		this.origin = origin;
+		this.isAdd = isAdd;
+		this.key = key;
+		this.stub = stub;
+		time = System.currentTimeMillis();
+	}
+}
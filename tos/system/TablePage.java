@@ -0,0 +1,25 @@
+//
+//
+// TablePage
+//
+//
+package tos.system;
+
+import java.io.*;
+import java.util.*;
+
+/** Part of a server's object table, as copied to a server joining the 
+ * system.
+ * <p>A large table is copied a page at a time so that no single call 
+ * carries all of it.
+ * @see Server#getTablePage
+ */
+
+class TablePage implements Serializable
+{
+	/** Entries of the page, keyed as in the object table. */
+	Hashtable entries = new Hashtable();
+	
+	/** <code>true</code> if there are more pages after this one. */
+	boolean more;
+}